@@ -0,0 +1,184 @@
+package de.dotwee.micropinner.database;
+
+import android.app.Notification;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies {@link NotificationIdAllocator} and the notification ids of {@link PinDatabase}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NotificationIdAllocatorTest {
+    private static final String LOG_TAG = "NotificationIdAllocatorTest";
+    private static final String DATABASE_NAME = "notification_id_test.db";
+    private static final int CYCLES = 1000000;
+    private static final int LIVE_IDS = 100;
+    private static final int PIN_CYCLES = 2000;
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void testReleasedIdsAreReused() {
+        NotificationIdAllocator allocator = new NotificationIdAllocator();
+        assertEquals(1, allocator.allocate());
+        assertEquals(2, allocator.allocate());
+        assertEquals(3, allocator.allocate());
+
+        assertTrue(allocator.release(2));
+        assertFalse(allocator.release(2));
+        assertFalse(allocator.release(42));
+        assertEquals(2, allocator.allocate());
+        assertEquals(4, allocator.allocate());
+
+        // ids read from the database are skipped
+        assertTrue(allocator.markUsed(6));
+        assertFalse(allocator.markUsed(6));
+        assertEquals(5, allocator.allocate());
+        assertEquals(7, allocator.allocate());
+        assertEquals(7, allocator.size());
+
+        allocator.clear();
+        assertEquals(0, allocator.size());
+        assertEquals(NotificationIdAllocator.FIRST_ID, allocator.allocate());
+    }
+
+    @Test
+    public void testMillionCyclesStayUniqueAndSmall() {
+        NotificationIdAllocator allocator = new NotificationIdAllocator();
+        ArrayDeque<Integer> live = new ArrayDeque<>();
+        Set<Integer> liveSet = new HashSet<>();
+        Random random = new Random(7);
+
+        for (int i = 0; i < LIVE_IDS; i++) {
+            int id = allocator.allocate();
+            live.add(id);
+            assertTrue(liveSet.add(id));
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int cycle = 0; cycle < CYCLES; cycle++) {
+            // release either the oldest or the newest id, so ids come back in any order
+            int released = random.nextBoolean() ? live.pollFirst() : live.pollLast();
+            assertTrue(allocator.release(released));
+            liveSet.remove(released);
+
+            int id = allocator.allocate();
+            if (!liveSet.add(id)) {
+                throw new AssertionError("Id " + id + " was handed out twice");
+            }
+            if (id > LIVE_IDS) {
+                throw new AssertionError("Id " + id + " exceeds the amount of live ids");
+            }
+            live.add(id);
+        }
+        long nanos = SystemClock.elapsedRealtimeNanos() - start;
+        Log.i(LOG_TAG, CYCLES + " release and allocate cycles in " + nanos / 1000000 + " ms, "
+                + nanos / CYCLES + " ns per cycle");
+
+        assertEquals(LIVE_IDS, allocator.size());
+    }
+
+    private static PinSpec createPin(String title) {
+        return new PinSpec(title, "", Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, false);
+    }
+
+    @Test
+    public void testPinsGetRecycledNotificationIds() {
+        PinDatabase pinDatabase = new PinDatabase(context, DATABASE_NAME);
+        try {
+            List<PinSpec> pins = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                PinSpec pin = createPin("Pin " + i);
+                pinDatabase.writePin(pin);
+                pins.add(pin);
+            }
+
+            // create and delete many pins while the first ones stay
+            for (int i = 0; i < PIN_CYCLES; i++) {
+                PinSpec pin = createPin("Temporary " + i);
+                pinDatabase.writePin(pin);
+                assertTrue(pin.getNotificationId() <= pins.size() + 1);
+                pinDatabase.deletePin(pin);
+            }
+
+            Set<Integer> notificationIds = new HashSet<>();
+            for (PinSpec pin : pins) {
+                assertTrue(notificationIds.add(pin.getNotificationId()));
+            }
+
+            // updates keep the notification id
+            PinSpec edited = createPin("Edited");
+            edited.setId(pins.get(3).getId());
+            pinDatabase.writePin(edited);
+            assertEquals(pins.get(3).getNotificationId(), edited.getNotificationId());
+        } finally {
+            pinDatabase.close();
+        }
+
+        // the ids are stored with the pins
+        pinDatabase = new PinDatabase(context, DATABASE_NAME);
+        try {
+            Set<Integer> notificationIds = new HashSet<>();
+            for (PinSpec pin : pinDatabase.getAllPinsMap().values()) {
+                assertTrue(notificationIds.add(pin.getNotificationId()));
+            }
+            assertEquals(10, notificationIds.size());
+
+            PinSpec pin = createPin("After reopening");
+            pinDatabase.writePin(pin);
+            assertFalse(notificationIds.contains(pin.getNotificationId()));
+        } finally {
+            pinDatabase.close();
+        }
+    }
+
+    @Test
+    public void testDeleteAllReleasesNotificationIds() {
+        PinDatabase pinDatabase = new PinDatabase(context, null);
+        try {
+            List<PinSpec> pins = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                pins.add(createPin("Pin " + i));
+            }
+            pinDatabase.writePins(pins);
+            pinDatabase.deleteAll();
+
+            PinSpec pin = createPin("New");
+            pinDatabase.writePin(pin);
+            assertEquals(NotificationIdAllocator.FIRST_ID, pin.getNotificationId());
+        } finally {
+            pinDatabase.close();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package de.dotwee.micropinner.database;
+
+import android.app.Notification;
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Verifies that the pin cache of {@link PinDatabase} stays in sync with the database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PinCacheTest {
+    private static final String DATABASE_NAME = "pin_cache_test.db";
+
+    private Context context;
+    private PinDatabase pinDatabase;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(DATABASE_NAME);
+
+        pinDatabase = new PinDatabase(context, DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        pinDatabase.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    private static PinSpec newPin(String title) {
+        return new PinSpec(title, "content", Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, false);
+    }
+
+    @Test
+    public void testWritesAreVisibleWithoutReload() {
+        // load the cache before writing
+        assertEquals(0, pinDatabase.count());
+
+        PinSpec pin = newPin("cached");
+        pinDatabase.writePin(pin);
+        assertEquals("cached", pinDatabase.getPin(pin.getId()).getTitle());
+
+        PinSpec edited = newPin("edited");
+        edited.setId(pin.getId());
+        pinDatabase.writePin(edited);
+        assertEquals("edited", pinDatabase.getPin(pin.getId()).getTitle());
+
+        long id = edited.getId();
+        pinDatabase.deletePin(edited);
+        assertEquals(-1, edited.getId());
+        assertNull(pinDatabase.getPin(id));
+        assertEquals(0, pinDatabase.count());
+    }
+
+    @Test
+    public void testCacheKeepsCopiesOfWrittenPins() {
+        PinSpec pin = newPin("cached");
+        pinDatabase.writePin(pin);
+        long id = pin.getId();
+
+        PinSpec cached = pinDatabase.getPin(id);
+        assertNotSame(pin, cached);
+
+        // changing the written instance does not reach the cache
+        pin.setId(-1);
+        assertSame(cached, pinDatabase.getPin(id));
+        assertEquals(id, cached.getId());
+    }
+
+    @Test
+    public void testCacheIsLoadedFromDisk() {
+        PinSpec first = newPin("first");
+        PinSpec second = newPin("second");
+        pinDatabase.writePins(Arrays.asList(first, second));
+        pinDatabase.close();
+
+        pinDatabase = new PinDatabase(context, DATABASE_NAME);
+        PinSpec loaded = pinDatabase.getPin(first.getId());
+        assertNotNull(loaded);
+        assertEquals("first", loaded.getTitle());
+
+        // further reads are served by the same cached instance
+        assertSame(loaded, pinDatabase.getAllPinsMap().get(first.getIdAsInt()));
+        assertEquals(2, pinDatabase.getPins(new long[]{first.getId(), second.getId()}).size());
+    }
+
+    @Test
+    public void testBulkDeleteAndDeleteAll() {
+        PinSpec first = newPin("first");
+        PinSpec second = newPin("second");
+        PinSpec third = newPin("third");
+        pinDatabase.writePins(Arrays.asList(first, second, third));
+
+        pinDatabase.deletePins(new long[]{first.getId()});
+        assertNull(pinDatabase.getPin(first.getId()));
+        assertEquals(2, pinDatabase.count());
+
+        pinDatabase.deleteAll();
+        assertEquals(0, pinDatabase.getAllPinsMap().size());
+    }
+}
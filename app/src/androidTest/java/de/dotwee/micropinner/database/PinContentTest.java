@@ -0,0 +1,238 @@
+package de.dotwee.micropinner.database;
+
+import android.app.Notification;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import de.dotwee.micropinner.tools.NotificationFingerprint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the compression of large pin content by {@link PinContent} and {@link PinDatabase}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PinContentTest {
+    private static final String LOG_TAG = "PinContentTest";
+    private static final String DATABASE_NAME = "pin_content_test.db";
+    private static final int PINS = 200;
+    private static final int LOG_LINES = 200;
+    private static final int ITERATIONS = 10;
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    private static PinDatabase.Config createConfig(int compressionThreshold) {
+        return new PinDatabase.Config(true, "NORMAL", 512, "MEMORY", 10, 500, compressionThreshold);
+    }
+
+    /**
+     * @return pasted log output, the kind of content large pins usually contain
+     */
+    private static String createLogContent(int seed) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < LOG_LINES; i++) {
+            builder.append("10-18 12:").append(i % 60).append(':').append((seed + i) % 60)
+                    .append(" I/MicroPinner: request ").append(seed * LOG_LINES + i)
+                    .append(" finished with status ").append(i % 3 == 0 ? "OK" : "RETRY").append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static PinSpec createPin(String content) {
+        return new PinSpec("Log", content, Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, false);
+    }
+
+    private long storedContentBytes(PinDatabase pinDatabase) {
+        return DatabaseUtils.longForQuery(pinDatabase.getReadableDatabase(),
+                "SELECT total(length(CAST(content AS BLOB)) + ifnull(length(content_z), 0)) FROM pins", null);
+    }
+
+    @Test
+    public void testCompressRoundTrip() {
+        String content = createLogContent(1) + "Ümlaute & emoji 📌";
+        byte[] compressed = PinContent.compress(content, PinContent.DEFAULT_THRESHOLD);
+        assertNotNull(compressed);
+        assertEquals(PinContent.FORMAT_DEFLATE, compressed[0]);
+        assertEquals(content, PinContent.inflate(compressed));
+
+        // short content is kept as it is
+        assertNull(PinContent.compress("short", PinContent.DEFAULT_THRESHOLD));
+        assertNull(PinContent.compress(content, content.length()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCorruptedContentIsRejected() {
+        byte[] compressed = PinContent.compress(createLogContent(2), PinContent.DEFAULT_THRESHOLD);
+        assertNotNull(compressed);
+        PinContent.inflate(Arrays.copyOf(compressed, compressed.length / 2));
+    }
+
+    @Test
+    public void testContentIsInflatedLazily() {
+        String content = createLogContent(3);
+        PinDatabase pinDatabase = new PinDatabase(context, DATABASE_NAME, createConfig(PinContent.DEFAULT_THRESHOLD));
+        PinSpec pin = createPin(content);
+        pinDatabase.writePin(pin);
+        pinDatabase.close();
+
+        pinDatabase = new PinDatabase(context, DATABASE_NAME, createConfig(PinContent.DEFAULT_THRESHOLD));
+        try {
+            PinSpec loaded = pinDatabase.getPin(pin.getId());
+            assertNotNull(loaded);
+            assertFalse(loaded.isContentInflated());
+            assertEquals(PinContent.preview(content), loaded.getContentPreview());
+
+            // notifications are compared by the stored form, without inflating the content
+            assertEquals(NotificationFingerprint.of(pin), NotificationFingerprint.of(loaded));
+            assertFalse(loaded.isContentInflated());
+
+            assertEquals(content, loaded.getContent());
+            assertTrue(loaded.isContentInflated());
+
+            // the preview and the text past it are searchable
+            assertEquals(1, pinDatabase.search("MicroPinner", 10).size());
+            assertEquals(1, pinDatabase.search("799", 10).size());
+
+            // updating the title keeps the full text indexed
+            PinSpec renamed = new PinSpec(loaded.getId(), "Renamed", loaded.getContentPreview(),
+                    loaded.getCompressedContent(), loaded.getVisibility(), loaded.getPriority(),
+                    loaded.isPersistent(), loaded.isShowActions(), loaded.getCreatedAt(), loaded.getUpdatedAt());
+            pinDatabase.writePin(renamed);
+            assertEquals(1, pinDatabase.search("Renamed 799", 10).size());
+        } finally {
+            pinDatabase.close();
+        }
+    }
+
+    @Test
+    public void testStorageSizeAndReadLatency() {
+        PinDatabase plain = new PinDatabase(context, null, createConfig(Integer.MAX_VALUE));
+        PinDatabase compressed = new PinDatabase(context, null, createConfig(PinContent.DEFAULT_THRESHOLD));
+        try {
+            for (int i = 0; i < PINS; i++) {
+                String content = createLogContent(i);
+                plain.writePin(createPin(content));
+                compressed.writePin(createPin(content));
+            }
+
+            long plainBytes = storedContentBytes(plain);
+            long compressedBytes = storedContentBytes(compressed);
+            Log.i(LOG_TAG, "Content of " + PINS + " pins: " + plainBytes + " bytes plain, " + compressedBytes + " bytes compressed");
+            assertTrue(compressedBytes * 2 < plainBytes);
+
+            long plainNanos = 0;
+            long compressedNanos = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                long start = SystemClock.elapsedRealtimeNanos();
+                Map<Integer, PinSpec> plainPins = plain.getAllPinsMap();
+                plainNanos += SystemClock.elapsedRealtimeNanos() - start;
+
+                start = SystemClock.elapsedRealtimeNanos();
+                Map<Integer, PinSpec> compressedPins = compressed.getAllPinsMap();
+                compressedNanos += SystemClock.elapsedRealtimeNanos() - start;
+
+                assertEquals(plainPins.size(), compressedPins.size());
+            }
+            Log.i(LOG_TAG, "Loading all pins: " + plainNanos / ITERATIONS / 1000 + " µs plain, "
+                    + compressedNanos / ITERATIONS / 1000 + " µs compressed");
+
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (PinSpec pin : compressed.getAllPinsMap().values()) {
+                assertEquals(LOG_LINES, pin.getContent().split("\n").length);
+            }
+            Log.i(LOG_TAG, "Inflating " + PINS + " pins: " + (SystemClock.elapsedRealtimeNanos() - start) / 1000 + " µs");
+        } finally {
+            plain.close();
+            compressed.close();
+        }
+    }
+
+    @Test
+    public void testUpgradeCompressesExistingPins() {
+        String content = createLogContent(4);
+
+        // a version 4 database without the content_z column
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath(DATABASE_NAME), null);
+        database.execSQL(PinDatabase.DATABASE_CREATE);
+        PinMigrations.migrate(database, 1, 4);
+        database.execSQL("INSERT INTO pins (title, content, visibility, priority, persistent, show_actions) VALUES (?, ?, ?, ?, ?, ?)",
+                new Object[]{"Log", content, Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, 0, 0});
+        database.execSQL("INSERT INTO pins (title, content, visibility, priority, persistent, show_actions) VALUES (?, ?, ?, ?, ?, ?)",
+                new Object[]{"Short", "short", Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, 0, 0});
+        database.setVersion(4);
+        database.close();
+
+        PinDatabase pinDatabase = new PinDatabase(context, DATABASE_NAME);
+        try {
+            PinSpec pin = pinDatabase.getPin(1);
+            assertNotNull(pin);
+            assertNotNull(pin.getCompressedContent());
+            assertEquals(content, pin.getContent());
+            assertNull(pinDatabase.getPin(2).getCompressedContent());
+
+            // compressing is not recorded as a change of the pin
+            assertEquals(0, pinDatabase.getHistory().count());
+        } finally {
+            pinDatabase.close();
+        }
+    }
+
+    @Test
+    public void testSnapshotKeepsContentCompressed() {
+        String content = createLogContent(5);
+        PinDatabase pinDatabase = new PinDatabase(context, DATABASE_NAME, createConfig(PinContent.DEFAULT_THRESHOLD));
+        PinSpec pin = createPin(content);
+        pinDatabase.writePin(pin);
+        pinDatabase.close();
+
+        File file = new File(context.getCacheDir(), "pin_content_test.snapshot");
+        pinDatabase = new PinDatabase(context, DATABASE_NAME, createConfig(PinContent.DEFAULT_THRESHOLD));
+        try {
+            new PinSnapshot(pinDatabase, file).write();
+            assertFalse(pinDatabase.getPin(pin.getId()).isContentInflated());
+
+            List<PinSpec> pins = PinSnapshot.read(file);
+            assertNotNull(pins);
+            assertEquals(1, pins.size());
+
+            PinSpec restored = pins.get(0);
+            assertFalse(restored.isContentInflated());
+            assertEquals(NotificationFingerprint.of(pinDatabase.getPin(pin.getId())), NotificationFingerprint.of(restored));
+            assertEquals(content, restored.getContent());
+        } finally {
+            pinDatabase.close();
+            assertTrue(!file.exists() || file.delete());
+        }
+    }
+}
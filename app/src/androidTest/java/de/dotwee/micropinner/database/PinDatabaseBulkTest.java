@@ -0,0 +1,107 @@
+package de.dotwee.micropinner.database;
+
+import android.app.Notification;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the bulk methods of {@link PinDatabase}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PinDatabaseBulkTest {
+    private static final int PINS = 1200;
+
+    private PinDatabase pinDatabase;
+
+    @Before
+    public void setUp() {
+        pinDatabase = new PinDatabase(ApplicationProvider.getApplicationContext(), null);
+    }
+
+    @After
+    public void tearDown() {
+        pinDatabase.close();
+    }
+
+    private List<PinSpec> createPins() {
+        List<PinSpec> pins = new ArrayList<>(PINS);
+        for (int i = 0; i < PINS; i++) {
+            pins.add(new PinSpec("Title " + i, "Content " + i, Notification.VISIBILITY_PUBLIC,
+                    Notification.PRIORITY_DEFAULT, false, i % 2 == 0));
+        }
+
+        pinDatabase.writePins(pins);
+        return pins;
+    }
+
+    private static long[] idsOf(List<PinSpec> pins) {
+        long[] ids = new long[pins.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = pins.get(i).getId();
+        }
+        return ids;
+    }
+
+    @Test
+    public void testWritePinsAssignsIds() {
+        List<PinSpec> pins = createPins();
+
+        for (PinSpec pin : pins) {
+            assertTrue(pin.getId() != -1);
+        }
+        assertEquals(PINS, pinDatabase.count());
+    }
+
+    @Test
+    public void testWritePinsUpdatesExisting() {
+        List<PinSpec> pins = createPins();
+
+        List<PinSpec> edited = new ArrayList<>(PINS);
+        for (PinSpec pin : pins) {
+            PinSpec copy = new PinSpec("Edited", pin.getContent(), pin.getVisibility(),
+                    pin.getPriority(), true, pin.isShowActions());
+            copy.setId(pin.getId());
+            edited.add(copy);
+        }
+        pinDatabase.writePins(edited);
+
+        assertEquals(PINS, pinDatabase.count());
+        for (PinSpec pin : pinDatabase.getPins(idsOf(pins))) {
+            assertEquals("Edited", pin.getTitle());
+            assertTrue(pin.isPersistent());
+        }
+    }
+
+    @Test
+    public void testGetPinsSkipsUnknownIds() {
+        List<PinSpec> pins = createPins();
+
+        List<PinSpec> read = pinDatabase.getPins(idsOf(pins));
+        assertEquals(PINS, read.size());
+
+        // unknown ids are skipped
+        assertEquals(0, pinDatabase.getPins(new long[]{-5, Long.MAX_VALUE}).size());
+    }
+
+    @Test
+    public void testDeletePins() {
+        List<PinSpec> pins = createPins();
+
+        long[] ids = idsOf(pins.subList(0, PINS / 2));
+        assertEquals(PINS / 2, pinDatabase.deletePins(ids));
+        assertEquals(PINS - PINS / 2, pinDatabase.count());
+        assertEquals(0, pinDatabase.getPins(ids).size());
+    }
+}
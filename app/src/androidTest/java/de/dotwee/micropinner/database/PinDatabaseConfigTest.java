@@ -0,0 +1,160 @@
+package de.dotwee.micropinner.database;
+
+import android.app.Notification;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Verifies the connection settings of {@link PinDatabase} and compares
+ * their latency under interleaved readers and a writer.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PinDatabaseConfigTest {
+    private static final String LOG_TAG = "PinDatabaseConfigTest";
+    private static final String DATABASE_NAME = "pin_config_test.db";
+    private static final int PINS = 200;
+    private static final int WRITES = 300;
+    private static final int READERS = 2;
+    private static final int READS = 100;
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    /**
+     * This method reads a setting of the primary connection, as only that one is configured
+     */
+    private static String queryPragma(PinDatabase pinDatabase, String pragma) {
+        SQLiteDatabase database = pinDatabase.getWritableDatabase();
+
+        // queries outside of a transaction may use a read-only connection of the pool
+        database.beginTransaction();
+        try {
+            Cursor cursor = database.rawQuery("PRAGMA " + pragma, null);
+            try {
+                cursor.moveToFirst();
+                return cursor.getString(0);
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    @Test
+    public void testDefaultConfigIsApplied() {
+        PinDatabase pinDatabase = new PinDatabase(context, DATABASE_NAME);
+        try {
+            assertEquals("wal", queryPragma(pinDatabase, "journal_mode").toLowerCase());
+            // NORMAL
+            assertEquals("1", queryPragma(pinDatabase, "synchronous"));
+            assertEquals("-512", queryPragma(pinDatabase, "cache_size"));
+            // MEMORY
+            assertEquals("2", queryPragma(pinDatabase, "temp_store"));
+        } finally {
+            pinDatabase.close();
+        }
+    }
+
+    @Test
+    public void testInterleavedLatency() throws Exception {
+        long[] rollback = measure(new PinDatabase.Config(false, "FULL", 2000, "DEFAULT", 10, 500, 2048));
+        context.deleteDatabase(DATABASE_NAME);
+        long[] wal = measure(PinDatabase.Config.DEFAULT);
+
+        Log.i(LOG_TAG, "Rollback journal: write p50 " + rollback[0] + " us, read p50 " + rollback[1] + " us");
+        Log.i(LOG_TAG, "Write-ahead log:  write p50 " + wal[0] + " us, read p50 " + wal[1] + " us");
+    }
+
+    /**
+     * This method runs a writer and several readers at the same time
+     *
+     * @return median write and read latency in microseconds
+     */
+    private long[] measure(PinDatabase.Config config) throws InterruptedException {
+        final PinDatabase pinDatabase = new PinDatabase(context, DATABASE_NAME, config);
+
+        final List<PinSpec> pins = new ArrayList<>(PINS);
+        for (int i = 0; i < PINS; i++) {
+            pins.add(new PinSpec("Title " + i, "Content " + i, Notification.VISIBILITY_PUBLIC,
+                    Notification.PRIORITY_DEFAULT, false, false));
+        }
+        pinDatabase.writePins(pins);
+
+        final long[] writes = new long[WRITES];
+        final long[][] reads = new long[READERS][READS];
+
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < WRITES; i++) {
+                PinSpec pin = new PinSpec("Edit " + i, "Content", Notification.VISIBILITY_PUBLIC,
+                        Notification.PRIORITY_DEFAULT, false, false);
+                pin.setId(pins.get(i % PINS).getId());
+
+                long start = SystemClock.elapsedRealtimeNanos();
+                pinDatabase.writePin(pin);
+                writes[i] = SystemClock.elapsedRealtimeNanos() - start;
+            }
+        });
+
+        List<Thread> readers = new ArrayList<>(READERS);
+        for (int r = 0; r < READERS; r++) {
+            final long[] latencies = reads[r];
+            readers.add(new Thread(() -> {
+                for (int i = 0; i < READS; i++) {
+                    // reads the table itself instead of the cache
+                    long start = SystemClock.elapsedRealtimeNanos();
+                    pinDatabase.getPinsUpdatedSince(0);
+                    latencies[i] = SystemClock.elapsedRealtimeNanos() - start;
+                }
+            }));
+        }
+
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        pinDatabase.close();
+
+        long[] allReads = new long[READERS * READS];
+        for (int r = 0; r < READERS; r++) {
+            System.arraycopy(reads[r], 0, allReads, r * READS, READS);
+        }
+        return new long[]{median(writes) / 1000, median(allReads) / 1000};
+    }
+
+    private static long median(long[] values) {
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+}
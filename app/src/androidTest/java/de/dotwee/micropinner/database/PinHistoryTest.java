@@ -0,0 +1,122 @@
+package de.dotwee.micropinner.database;
+
+import android.app.Notification;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Verifies recording, compaction and restoring of {@link PinHistory}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PinHistoryTest {
+    private static final int MAX_PER_PIN = 3;
+    private static final int MAX_TOTAL = 5;
+
+    private PinDatabase pinDatabase;
+    private PinHistory history;
+
+    @Before
+    public void setUp() {
+        pinDatabase = new PinDatabase(ApplicationProvider.getApplicationContext(), null,
+                new PinDatabase.Config(false, "NORMAL", 512, "MEMORY", MAX_PER_PIN, MAX_TOTAL, 2048));
+        history = pinDatabase.getHistory();
+    }
+
+    @After
+    public void tearDown() {
+        pinDatabase.close();
+    }
+
+    private PinSpec writePin(long id, String title) {
+        PinSpec pin = new PinSpec(title, "content", Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, false);
+        pin.setId(id);
+        pinDatabase.writePin(pin);
+        return pin;
+    }
+
+    @Test
+    public void testRecordsOverwrittenAndDeletedVersions() {
+        PinSpec pin = writePin(-1, "first");
+        writePin(pin.getId(), "second");
+
+        // unchanged content is not recorded
+        writePin(pin.getId(), "second");
+
+        PinSpec current = pinDatabase.getPin(pin.getId());
+        assertNotNull(current);
+        pinDatabase.deletePin(current);
+
+        List<PinHistory.Entry> entries = history.list(pin.getId());
+        assertEquals(2, entries.size());
+        assertEquals(PinHistory.REASON_DELETED, entries.get(0).getReason());
+        assertEquals("second", entries.get(0).getPin().getTitle());
+        assertEquals(PinHistory.REASON_OVERWRITTEN, entries.get(1).getReason());
+        assertEquals("first", entries.get(1).getPin().getTitle());
+    }
+
+    @Test
+    public void testRestoreDeletedPinKeepsId() {
+        PinSpec pin = writePin(-1, "lost");
+        long id = pin.getId();
+        pinDatabase.deletePin(pin);
+        assertNull(pinDatabase.getPin(id));
+
+        PinSpec restored = history.restore(history.list(id).get(0).getHistoryId());
+        assertNotNull(restored);
+        assertEquals(id, restored.getId());
+
+        PinSpec stored = pinDatabase.getPin(id);
+        assertNotNull(stored);
+        assertEquals("lost", stored.getTitle());
+        assertEquals(1, pinDatabase.search("lost", 10).size());
+    }
+
+    @Test
+    public void testRestoreOverwritesExistingPin() {
+        PinSpec pin = writePin(-1, "old");
+        writePin(pin.getId(), "new");
+
+        history.restore(history.list(pin.getId()).get(0).getHistoryId());
+        assertEquals("old", pinDatabase.getPin(pin.getId()).getTitle());
+
+        // the replaced version can be restored as well
+        assertEquals("new", history.list(pin.getId()).get(0).getPin().getTitle());
+        assertNull(history.restore(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testCompactionKeepsCaps() {
+        PinSpec first = writePin(-1, "a0");
+        for (int i = 1; i <= 10; i++) {
+            writePin(first.getId(), "a" + i);
+        }
+        PinSpec second = writePin(-1, "b0");
+        for (int i = 1; i <= 2; i++) {
+            writePin(second.getId(), "b" + i);
+        }
+        assertEquals(12, history.count());
+
+        history.compact();
+
+        List<PinHistory.Entry> firstEntries = history.list(first.getId());
+        assertEquals(MAX_PER_PIN, firstEntries.size());
+        assertEquals("a9", firstEntries.get(0).getPin().getTitle());
+        assertEquals(MAX_TOTAL, history.count());
+
+        // the pins themselves are not touched
+        assertEquals(2, pinDatabase.count());
+        assertEquals(2, pinDatabase.getAllPinsMap().size());
+    }
+}
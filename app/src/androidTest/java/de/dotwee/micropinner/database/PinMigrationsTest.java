@@ -0,0 +1,162 @@
+package de.dotwee.micropinner.database;
+
+import android.app.Notification;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that upgrading the pins database keeps all pins.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PinMigrationsTest {
+    private static final String LOG_TAG = "PinMigrationsTest";
+    private static final String DATABASE_NAME = "pin_migrations_test.db";
+    private static final int ROWS = 10000;
+    private static final long UPGRADE_BUDGET_MS = 2000;
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    /**
+     * This method creates a database with the version 1 schema, as shipped with v2.2.0 and earlier
+     */
+    private void createVersion1Database() {
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath(DATABASE_NAME), null);
+        database.execSQL(PinDatabase.DATABASE_CREATE);
+
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                database.execSQL("INSERT INTO pins (title, content, visibility, priority, persistent, show_actions) VALUES (?, ?, ?, ?, ?, ?)",
+                        new Object[]{"Title " + i, "Content " + i, Notification.VISIBILITY_SECRET, Notification.PRIORITY_LOW, i % 2, 1});
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        database.setVersion(1);
+        database.close();
+    }
+
+    @Test
+    public void testUpgradeKeepsPins() {
+        createVersion1Database();
+
+        long start = SystemClock.elapsedRealtime();
+        PinDatabase pinDatabase = new PinDatabase(context, DATABASE_NAME);
+        long duration = SystemClock.elapsedRealtime() - start;
+        Log.i(LOG_TAG, "Upgraded " + ROWS + " pins in " + duration + " ms");
+
+        try {
+            assertTrue("Upgrade took " + duration + " ms", duration < UPGRADE_BUDGET_MS);
+            assertEquals(ROWS, pinDatabase.count());
+
+            PinSpec pin = pinDatabase.getPin(1);
+            assertEquals("Title 0", pin.getTitle());
+            assertEquals("Content 0", pin.getContent());
+            assertEquals(Notification.VISIBILITY_SECRET, pin.getVisibility());
+            assertEquals(Notification.PRIORITY_LOW, pin.getPriority());
+            assertTrue(pin.isShowActions());
+            assertTrue(pin.getCreatedAt() > 0);
+            assertEquals(pin.getCreatedAt(), pin.getUpdatedAt());
+
+            // posted notifications keep their id
+            assertEquals(1, pin.getNotificationId());
+            assertEquals(ROWS, pinDatabase.getPin(ROWS).getNotificationId());
+        } finally {
+            pinDatabase.close();
+        }
+    }
+
+    @Test
+    public void testUpgradeCreatesIndex() {
+        createVersion1Database();
+        new PinDatabase(context, DATABASE_NAME).close();
+
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath(DATABASE_NAME), null);
+        Cursor cursor = database.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND name = 'pins_updated_at'", null);
+        try {
+            assertEquals(1, cursor.getCount());
+            assertEquals(PinMigrations.LATEST_VERSION, database.getVersion());
+        } finally {
+            cursor.close();
+            database.close();
+        }
+    }
+
+    @Test
+    public void testUpdatedSince() {
+        PinDatabase pinDatabase = new PinDatabase(context, DATABASE_NAME);
+        try {
+            PinSpec old = new PinSpec("old", "", Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, false);
+            pinDatabase.writePin(old);
+
+            PinSpec changed = new PinSpec("changed", "", Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, false);
+            pinDatabase.writePin(changed);
+            long createdAt = changed.getCreatedAt();
+
+            // the edit has to happen in a later millisecond, waiting for the clock instead of a fixed time
+            while (System.currentTimeMillis() <= createdAt) {
+                Thread.yield();
+            }
+
+            PinSpec edited = new PinSpec("edited", "", Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, false);
+            edited.setId(changed.getId());
+            pinDatabase.writePin(edited);
+
+            // updates keep the time of creation
+            assertEquals(createdAt, edited.getCreatedAt());
+
+            List<PinSpec> updated = pinDatabase.getPinsUpdatedSince(createdAt);
+            assertEquals(1, updated.size());
+            assertEquals("edited", updated.get(0).getTitle());
+        } finally {
+            pinDatabase.close();
+        }
+    }
+
+    @Test
+    public void testChangeVersionGrowsWithEveryChange() {
+        PinDatabase pinDatabase = new PinDatabase(context, DATABASE_NAME);
+        try {
+            long version = pinDatabase.getChangeVersion();
+
+            PinSpec pin = new PinSpec("pin", "", Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, false);
+            pinDatabase.writePin(pin);
+            long inserted = pinDatabase.getChangeVersion();
+            assertTrue(inserted > version);
+
+            pinDatabase.deletePin(pin);
+            assertTrue(pinDatabase.getChangeVersion() > inserted);
+        } finally {
+            pinDatabase.close();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package de.dotwee.micropinner.database;
+
+import android.app.Notification;
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifies queries, writes and change notifications of {@link PinProvider}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PinProviderTest {
+    private Context context;
+    private PinDatabase pinDatabase;
+    private PinProvider provider;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        pinDatabase = new PinDatabase(context, null);
+
+        provider = new PinProvider();
+        provider.setPinDatabase(pinDatabase);
+    }
+
+    @After
+    public void tearDown() {
+        pinDatabase.close();
+    }
+
+    private static ContentValues values(String title, int priority) {
+        ContentValues values = new ContentValues();
+        values.put(PinContract.Pins.TITLE, title);
+        values.put(PinContract.Pins.PRIORITY, priority);
+        return values;
+    }
+
+    @Test
+    public void testQueryUsesProjectionAndSelection() {
+        provider.insert(PinContract.CONTENT_URI, values("low", Notification.PRIORITY_LOW));
+        Uri high = provider.insert(PinContract.CONTENT_URI, values("high", Notification.PRIORITY_HIGH));
+        provider.insert(PinContract.CONTENT_URI, values("other high", Notification.PRIORITY_HIGH));
+
+        Cursor cursor = provider.query(PinContract.CONTENT_URI,
+                new String[]{PinContract.Pins._ID, PinContract.Pins.TITLE},
+                PinContract.Pins.PRIORITY + " = ?", new String[]{String.valueOf(Notification.PRIORITY_HIGH)},
+                PinContract.Pins._ID);
+        try {
+            assertEquals(2, cursor.getCount());
+            assertEquals(2, cursor.getColumnCount());
+            cursor.moveToFirst();
+            assertEquals("high", cursor.getString(1));
+        } finally {
+            cursor.close();
+        }
+
+        cursor = provider.query(high, null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testUnknownColumnsAreRejected() {
+        try {
+            provider.query(PinContract.CONTENT_URI, new String[]{"docid"}, null, null, null);
+            fail("Projection of an unknown column was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        ContentValues values = values("title", Notification.PRIORITY_DEFAULT);
+        values.put(PinContract.Pins.CREATED_AT, 0);
+        try {
+            provider.insert(PinContract.CONTENT_URI, values);
+            fail("Read-only column was written");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testSelectionSeesFullContent() {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            content.append("line ").append(i).append('\n');
+        }
+        content.append("needle");
+
+        ContentValues values = values("large", Notification.PRIORITY_DEFAULT);
+        values.put(PinContract.Pins.CONTENT, content.toString());
+        provider.insert(PinContract.CONTENT_URI, values);
+
+        Cursor cursor = provider.query(PinContract.CONTENT_URI, new String[]{PinContract.Pins.CONTENT},
+                PinContract.Pins.CONTENT + " LIKE ?", new String[]{"%needle"}, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(content.toString(), cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testSecretPinsAreNotOffered() {
+        PinSpec secret = new PinSpec("secret", "content", Notification.VISIBILITY_SECRET,
+                Notification.PRIORITY_DEFAULT, false, false);
+        pinDatabase.writePin(secret);
+        provider.insert(PinContract.CONTENT_URI, values("public", Notification.PRIORITY_DEFAULT));
+
+        Cursor cursor = provider.query(PinContract.CONTENT_URI, null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+
+        cursor = provider.query(PinContract.buildPinUri(secret.getId()), null, null, null, null);
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+
+        assertEquals(1, provider.delete(PinContract.CONTENT_URI, null, null));
+        assertEquals(1, pinDatabase.count());
+    }
+
+    @Test
+    public void testUpdateAndDeleteKeepDatabaseInSync() {
+        Uri uri = provider.insert(PinContract.CONTENT_URI, values("before", Notification.PRIORITY_DEFAULT));
+        long id = Long.parseLong(uri.getLastPathSegment());
+
+        ContentValues values = new ContentValues();
+        values.put(PinContract.Pins.TITLE, "after");
+        assertEquals(1, provider.update(uri, values, null, null));
+        assertEquals("after", pinDatabase.getPin(id).getTitle());
+        assertEquals(1, pinDatabase.search("after", 10).size());
+
+        assertEquals(1, provider.delete(PinContract.CONTENT_URI, PinContract.Pins.TITLE + " = ?", new String[]{"after"}));
+        assertEquals(0, pinDatabase.count());
+    }
+
+    @Test
+    public void testChangesNotifyRowUris() throws InterruptedException {
+        Uri uri = provider.insert(PinContract.CONTENT_URI, values("observed", Notification.PRIORITY_DEFAULT));
+
+        final List<Uri> changes = new ArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange, Uri changed) {
+                synchronized (changes) {
+                    changes.add(changed);
+                }
+                latch.countDown();
+            }
+        };
+        context.getContentResolver().registerContentObserver(PinContract.CONTENT_URI, true, observer);
+
+        try {
+            ContentValues values = new ContentValues();
+            values.put(PinContract.Pins.CONTENT, "changed");
+            provider.update(uri, values, null, null);
+
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            synchronized (changes) {
+                assertEquals(uri, changes.get(0));
+            }
+        } finally {
+            context.getContentResolver().unregisterContentObserver(observer);
+        }
+    }
+
+    @Test
+    public void testApplyBatchIsAtomic() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(PinContract.CONTENT_URI)
+                .withValues(values("first", Notification.PRIORITY_DEFAULT)).build());
+        operations.add(ContentProviderOperation.newInsert(PinContract.CONTENT_URI)
+                .withValues(values("second", Notification.PRIORITY_DEFAULT)).build());
+        assertEquals(2, provider.applyBatch(operations).length);
+        assertEquals(2, pinDatabase.count());
+
+        operations.clear();
+        operations.add(ContentProviderOperation.newInsert(PinContract.CONTENT_URI)
+                .withValues(values("third", Notification.PRIORITY_DEFAULT)).build());
+        operations.add(ContentProviderOperation.newDelete(PinContract.CONTENT_URI).build());
+        // no title, so this insert fails and the whole batch is rolled back
+        operations.add(ContentProviderOperation.newInsert(PinContract.CONTENT_URI)
+                .withValue(PinContract.Pins.CONTENT, "invalid").build());
+
+        try {
+            provider.applyBatch(operations);
+            fail("Invalid batch was applied");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        assertEquals(2, pinDatabase.count());
+        assertEquals(2, pinDatabase.getPinsUpdatedSince(0).size());
+        assertEquals(0, pinDatabase.search("third", 10).size());
+    }
+
+    @Test
+    public void testApplyBatchWithWriteBehind() throws Exception {
+        pinDatabase.setWriteBehindEnabled(true);
+        Uri uri = provider.insert(PinContract.CONTENT_URI, values("before", Notification.PRIORITY_DEFAULT));
+        long id = Long.parseLong(uri.getLastPathSegment());
+
+        ContentValues values = new ContentValues();
+        values.put(PinContract.Pins.TITLE, "after");
+
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newUpdate(uri).withValues(values).build());
+        // the insert flushes the write queue while the transaction is open
+        operations.add(ContentProviderOperation.newInsert(PinContract.CONTENT_URI)
+                .withValues(values("second", Notification.PRIORITY_DEFAULT)).build());
+
+        final CountDownLatch applied = new CountDownLatch(2);
+        final Exception[] failure = new Exception[1];
+        new Thread(() -> {
+            try {
+                provider.applyBatch(operations);
+                applied.countDown();
+
+                // a queued update followed by an insert, both within one transaction
+                pinDatabase.runInTransaction(() -> {
+                    pinDatabase.writePin(new PinSpec(id, "after", "changed", Notification.VISIBILITY_PUBLIC,
+                            Notification.PRIORITY_DEFAULT, false, false, 0, 0));
+                    pinDatabase.writePin(new PinSpec("third", "", Notification.VISIBILITY_PUBLIC,
+                            Notification.PRIORITY_DEFAULT, false, false));
+                    return null;
+                });
+                applied.countDown();
+            } catch (Exception e) {
+                failure[0] = e;
+            }
+        }).start();
+
+        assertTrue(applied.await(10, TimeUnit.SECONDS));
+        assertNull(failure[0]);
+        assertEquals("after", pinDatabase.getPin(id).getTitle());
+        assertEquals("changed", pinDatabase.getPin(id).getContent());
+        assertEquals(3, pinDatabase.count());
+
+        // a failed batch also rolls back the changes that would have been queued
+        values.put(PinContract.Pins.TITLE, "rolled back");
+        operations.clear();
+        operations.add(ContentProviderOperation.newUpdate(uri).withValues(values).build());
+        operations.add(ContentProviderOperation.newDelete(PinContract.CONTENT_URI).build());
+        operations.add(ContentProviderOperation.newInsert(PinContract.CONTENT_URI)
+                .withValue(PinContract.Pins.CONTENT, "invalid").build());
+
+        try {
+            provider.applyBatch(operations);
+            fail("Invalid batch was applied");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        pinDatabase.flush();
+        assertEquals("after", pinDatabase.getPin(id).getTitle());
+        assertEquals(3, pinDatabase.count());
+    }
+}
@@ -0,0 +1,136 @@
+package de.dotwee.micropinner.database;
+
+import android.app.Notification;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies {@link PinDatabase#search(String, int)} and compares it against a LIKE scan.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PinSearchTest {
+    private static final String LOG_TAG = "PinSearchTest";
+    private static final int[] BENCHMARK_SIZES = {1000, 10000, 100000};
+    private static final int BENCHMARK_QUERIES = 20;
+
+    private PinDatabase pinDatabase;
+
+    @Before
+    public void setUp() {
+        pinDatabase = new PinDatabase(ApplicationProvider.getApplicationContext(), null);
+    }
+
+    @After
+    public void tearDown() {
+        pinDatabase.close();
+    }
+
+    private PinSpec writePin(String title, String content) {
+        PinSpec pin = new PinSpec(title, content, Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, false);
+        pinDatabase.writePin(pin);
+        return pin;
+    }
+
+    @Test
+    public void testTitleMatchesRankFirst() {
+        PinSpec inContent = writePin("Groceries", "buy milk and bread");
+        PinSpec inTitle = writePin("Milk", "from the corner shop");
+        writePin("Unrelated", "nothing to see");
+
+        List<PinSpec> result = pinDatabase.search("milk", 10);
+        assertEquals(2, result.size());
+        assertEquals(inTitle.getId(), result.get(0).getId());
+        assertEquals(inContent.getId(), result.get(1).getId());
+
+        assertEquals(1, pinDatabase.search("milk", 1).size());
+    }
+
+    @Test
+    public void testPrefixAndAllWordsMatch() {
+        PinSpec pin = writePin("Dentist appointment", "tuesday morning");
+        writePin("Dentist bill", "pay until friday");
+
+        List<PinSpec> result = pinDatabase.search("dent tues", 10);
+        assertEquals(1, result.size());
+        assertEquals(pin.getId(), result.get(0).getId());
+    }
+
+    @Test
+    public void testIndexFollowsUpdatesAndDeletes() {
+        PinSpec pin = writePin("Old title", "");
+        assertEquals(1, pinDatabase.search("old", 10).size());
+
+        PinSpec edited = new PinSpec("New title", "", pin.getVisibility(), pin.getPriority(), false, false);
+        edited.setId(pin.getId());
+        pinDatabase.writePin(edited);
+        assertEquals(0, pinDatabase.search("old", 10).size());
+        assertEquals(1, pinDatabase.search("new", 10).size());
+
+        pinDatabase.deletePin(edited);
+        assertEquals(0, pinDatabase.search("new", 10).size());
+    }
+
+    @Test
+    public void testQuerySyntaxIsEscaped() {
+        writePin("Quotes \"inside\"", "OR NOT NEAR");
+
+        assertEquals("", PinDatabase.toMatchQuery("  \" "));
+        assertEquals("\"a*\" \"b*\"", PinDatabase.toMatchQuery(" a \"b\" "));
+        assertEquals(1, pinDatabase.search("\"inside", 10).size());
+        assertEquals(1, pinDatabase.search("OR NOT", 10).size());
+        assertEquals(0, pinDatabase.search("\"", 10).size());
+    }
+
+    @Test
+    public void testSearchBenchmark() {
+        int written = 0;
+
+        for (int size : BENCHMARK_SIZES) {
+            List<PinSpec> pins = new ArrayList<>(size - written);
+            for (int i = written; i < size; i++) {
+                pins.add(new PinSpec("Pin number " + i, "word" + (i % 997) + " filler text for pin " + i,
+                        Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, false));
+            }
+            pinDatabase.writePins(pins);
+            written = size;
+
+            long ftsStart = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+                pinDatabase.search("word" + i, 20);
+            }
+            long ftsMicros = (SystemClock.elapsedRealtimeNanos() - ftsStart) / 1000 / BENCHMARK_QUERIES;
+
+            long likeStart = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+                String pattern = "%word" + i + "%";
+                Cursor cursor = pinDatabase.getWritableDatabase().rawQuery(
+                        "SELECT _id FROM pins WHERE title LIKE ? OR content LIKE ? LIMIT 20",
+                        new String[]{pattern, pattern});
+                while (cursor.moveToNext()) {
+                    cursor.getLong(0);
+                }
+                cursor.close();
+            }
+            long likeMicros = (SystemClock.elapsedRealtimeNanos() - likeStart) / 1000 / BENCHMARK_QUERIES;
+
+            Log.i(LOG_TAG, size + " pins: fts " + ftsMicros + " us/query, like " + likeMicros + " us/query");
+        }
+
+        assertTrue(pinDatabase.search("word1", 20).size() > 0);
+    }
+}
@@ -0,0 +1,200 @@
+package de.dotwee.micropinner.database;
+
+import android.app.Notification;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.dotwee.micropinner.tools.NotificationTools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that {@link PinSnapshot} keeps the pins and compares restoring from it against the database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PinSnapshotTest {
+    private static final String LOG_TAG = "PinSnapshotTest";
+    private static final String DATABASE_NAME = "pin_snapshot_test.db";
+    private static final int PINS = 500;
+
+    private Context context;
+    private File file;
+    private PinDatabase pinDatabase;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(DATABASE_NAME);
+        file = new File(context.getCacheDir(), "pin_snapshot_test.snapshot");
+        assertTrue(!file.exists() || file.delete());
+
+        pinDatabase = new PinDatabase(context, DATABASE_NAME);
+        List<PinSpec> pins = new ArrayList<>(PINS);
+        for (int i = 0; i < PINS; i++) {
+            pins.add(new PinSpec("Snapshot " + i, "Content " + i, Notification.VISIBILITY_PRIVATE,
+                    Notification.PRIORITY_DEFAULT, i % 2 == 0, true));
+        }
+        pinDatabase.writePins(pins);
+    }
+
+    @After
+    public void tearDown() {
+        pinDatabase.close();
+        context.deleteDatabase(DATABASE_NAME);
+        assertTrue(!file.exists() || file.delete());
+    }
+
+    private void corrupt(long position, int value) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.seek(position);
+            randomAccessFile.writeInt(value);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    @Test
+    public void testSnapshotKeepsAllPins() {
+        new PinSnapshot(pinDatabase, file).write();
+        assertTrue(PinSnapshot.isCurrent(file));
+
+        List<PinSpec> pins = PinSnapshot.read(file);
+        assertNotNull(pins);
+        assertEquals(PINS, pins.size());
+
+        for (PinSpec pin : pins) {
+            PinSpec expected = pinDatabase.getPin(pin.getId());
+            assertNotNull(expected);
+            assertEquals(expected.getNotificationId(), pin.getNotificationId());
+            assertEquals(expected.getTitle(), pin.getTitle());
+            assertEquals(expected.getContent(), pin.getContent());
+            assertEquals(expected.isPersistent(), pin.isPersistent());
+            assertEquals(expected.getUpdatedAt(), pin.getUpdatedAt());
+        }
+    }
+
+    @Test
+    public void testLockScreenSnapshotHidesPins() {
+        PinSpec secret = new PinSpec("Secret", "Content", Notification.VISIBILITY_SECRET,
+                Notification.PRIORITY_DEFAULT, false, true);
+        PinSpec visible = new PinSpec("Public", "Public content", Notification.VISIBILITY_PUBLIC,
+                Notification.PRIORITY_DEFAULT, false, true);
+        pinDatabase.writePin(secret);
+        pinDatabase.writePin(visible);
+
+        PinSnapshot snapshot = new PinSnapshot(pinDatabase, file, "Hidden");
+        snapshot.write();
+
+        List<PinSpec> pins = PinSnapshot.read(file);
+        assertNotNull(pins);
+        assertEquals(PINS + 1, pins.size());
+        for (PinSpec pin : pins) {
+            assertTrue(pin.getVisibility() != Notification.VISIBILITY_SECRET);
+
+            // private pins only keep their title, public ones are shown as they are
+            if (pin.getVisibility() == Notification.VISIBILITY_PRIVATE) {
+                assertTrue(pin.getTitle().startsWith("Snapshot "));
+                assertEquals("Hidden", pin.getContent());
+            } else {
+                assertEquals("Public content", pin.getContent());
+            }
+        }
+
+        // changing a secret pin leaves the snapshot alone, a rewrite would update the time
+        long modified = 1000000000000L;
+        assertTrue(file.setLastModified(modified));
+        pinDatabase.deletePin(secret);
+        snapshot.write();
+        assertEquals(modified, file.lastModified());
+    }
+
+    @Test
+    public void testDeletedSnapshotIsNotWrittenAgain() {
+        PinSnapshot snapshot = new PinSnapshot(pinDatabase, file, "Hidden");
+        snapshot.write();
+        assertTrue(file.exists());
+
+        // the pending write is dropped, shutting down waits for the delete
+        snapshot.scheduleWrite();
+        snapshot.delete();
+        snapshot.shutdown();
+        assertFalse(file.exists());
+
+        snapshot.write();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testInvalidSnapshotsAreNotRead() throws IOException {
+        assertNull(PinSnapshot.read(file));
+
+        PinSnapshot snapshot = new PinSnapshot(pinDatabase, file);
+        snapshot.write();
+        corrupt(file.length() - 4, 0x12345678);
+        assertNull(PinSnapshot.read(file));
+
+        snapshot.write();
+        corrupt(4, PinSnapshot.VERSION + 1);
+        assertFalse(PinSnapshot.isCurrent(file));
+        assertNull(PinSnapshot.read(file));
+    }
+
+    /**
+     * Compares the time until the first notification is posted after the process started,
+     * from the snapshot and from a database that has to be opened first.
+     */
+    @Test
+    public void testTimeToFirstNotification() {
+        new PinSnapshot(pinDatabase, file).write();
+        pinDatabase.close();
+
+        // nothing but reading the pin differs between both paths
+        PinSpec warmup = PinSnapshot.read(file).get(0);
+        NotificationTools.notify(context, warmup);
+        NotificationTools.cancel(context, warmup);
+
+        long start = SystemClock.elapsedRealtime();
+        pinDatabase = new PinDatabase(context, DATABASE_NAME);
+        PinSpec[] first = {null};
+        long[] databaseMs = {-1};
+        pinDatabase.forEachPin(pin -> {
+            if (first[0] == null) {
+                first[0] = pin;
+                NotificationTools.notify(context, pin);
+                databaseMs[0] = SystemClock.elapsedRealtime() - start;
+            }
+        });
+        NotificationTools.cancel(context, first[0]);
+
+        long snapshotStart = SystemClock.elapsedRealtime();
+        List<PinSpec> pins = PinSnapshot.read(file);
+        assertNotNull(pins);
+        NotificationTools.notify(context, pins.get(0));
+        long snapshotMs = SystemClock.elapsedRealtime() - snapshotStart;
+        NotificationTools.cancel(context, pins.get(0));
+
+        Log.i(LOG_TAG, "First of " + PINS + " notifications posted after " + snapshotMs
+                + " ms from the snapshot, " + databaseMs[0] + " ms from the database");
+        assertTrue(databaseMs[0] >= 0);
+    }
+}
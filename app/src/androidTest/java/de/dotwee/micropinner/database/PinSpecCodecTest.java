@@ -0,0 +1,262 @@
+package de.dotwee.micropinner.database;
+
+import android.app.Notification;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifies {@link PinSpecCodec} and compares it against Java serialization.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PinSpecCodecTest {
+    private static final String LOG_TAG = "PinSpecCodecTest";
+    private static final int WARMUP = 2000;
+    private static final int ITERATIONS = 20000;
+
+    /* new PinSpec("Title v2.2.0", "Content v2.2.0", 0, 1, true, false) with id 42, serialized by v2.2.0 */
+    private static final String V2_2_0_PIN = "aced00057372002664652e646f747765652e6d6963726f70696e6e65722e64617461626173652e50"
+            + "696e537065633de860f6ab1a28db0200074a000269645a000a70657273697374656e744900087072"
+            + "696f726974795a000b73686f77416374696f6e7349000a7669736962696c6974794c0007636f6e74"
+            + "656e747400124c6a6176612f6c616e672f537472696e673b4c00057469746c6571007e0001787000"
+            + "0000000000002a0100000001000000000074000e436f6e74656e742076322e322e3074000c546974"
+            + "6c652076322e322e30";
+
+    private static PinSpec createPin(long id, String title, String content) {
+        return new PinSpec(id, title, content, Notification.VISIBILITY_SECRET, Notification.PRIORITY_MIN,
+                true, false, 1500000000000L, 1600000000000L);
+    }
+
+    private static void assertPinEquals(PinSpec expected, PinSpec actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getTitle(), actual.getTitle());
+        assertEquals(expected.getContent(), actual.getContent());
+        assertEquals(expected.getVisibility(), actual.getVisibility());
+        assertEquals(expected.getPriority(), actual.getPriority());
+        assertEquals(expected.isPersistent(), actual.isPersistent());
+        assertEquals(expected.isShowActions(), actual.isShowActions());
+        assertEquals(expected.getCreatedAt(), actual.getCreatedAt());
+        assertEquals(expected.getUpdatedAt(), actual.getUpdatedAt());
+    }
+
+    @Test
+    public void testRoundTripKeepsAllFields() throws IOException {
+        PinSpec[] pins = {
+                createPin(-1, "", ""),
+                createPin(42, "Ümlaute & emoji 📌", "multi\nline\u0000content"),
+                new PinSpec(Long.MAX_VALUE, "max", "", Integer.MIN_VALUE, Integer.MAX_VALUE, false, true, Long.MIN_VALUE, 0),
+        };
+
+        for (PinSpec pin : pins) {
+            assertPinEquals(pin, PinSpecCodec.decode(PinSpecCodec.encode(pin)));
+        }
+    }
+
+    @Test
+    public void testStreamOfPins() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        PinSpecCodec.Writer writer = new PinSpecCodec.Writer(outputStream);
+
+        List<PinSpec> pins = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            // long content makes the internal buffers grow
+            char[] content = new char[i * 50];
+            Arrays.fill(content, 'x');
+            pins.add(createPin(i, "Pin " + i, new String(content)));
+            writer.write(pins.get(i));
+        }
+
+        PinSpecCodec.Reader reader = new PinSpecCodec.Reader(new ByteArrayInputStream(outputStream.toByteArray()));
+        assertEquals(PinSpecCodec.VERSION, reader.getVersion());
+        for (PinSpec pin : pins) {
+            assertPinEquals(pin, reader.read());
+        }
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void testOversizedPinIsNotWritten() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        PinSpecCodec.Writer writer = new PinSpecCodec.Writer(outputStream);
+        writer.write(createPin(1, "before", "content"));
+
+        char[] content = new char[PinSpecCodec.MAX_RECORD_BYTES];
+        Arrays.fill(content, 'x');
+        try {
+            writer.write(createPin(2, "oversized", new String(content)));
+            fail("Oversized pin was written");
+        } catch (PinSpecCodec.FormatException expected) {
+        }
+        writer.write(createPin(3, "after", "content"));
+
+        // the stream can still be read, without the oversized pin
+        PinSpecCodec.Reader reader = new PinSpecCodec.Reader(new ByteArrayInputStream(outputStream.toByteArray()));
+        assertEquals(1, reader.read().getId());
+        assertEquals(3, reader.read().getId());
+        assertNull(reader.read());
+    }
+
+    private static void assertRejected(byte[] bytes) {
+        try {
+            PinSpecCodec.decode(bytes);
+            fail("Invalid input was accepted: " + Arrays.toString(bytes));
+        } catch (PinSpecCodec.FormatException expected) {
+        }
+    }
+
+    @Test
+    public void testInvalidInputIsRejected() {
+        byte[] valid = PinSpecCodec.encode(createPin(1, "title", "content"));
+
+        // empty, wrong magic and unknown version
+        assertRejected(new byte[0]);
+        assertRejected(new byte[]{'X', 'P', 1});
+        assertRejected(new byte[]{'M', 'P', 99});
+        // header only
+        assertRejected(Arrays.copyOf(valid, 3));
+
+        // every truncation
+        for (int length = 4; length < valid.length; length++) {
+            assertRejected(Arrays.copyOf(valid, length));
+        }
+
+        // two pins where one is expected
+        byte[] twice = Arrays.copyOf(valid, valid.length * 2 - 3);
+        System.arraycopy(valid, 3, twice, valid.length, valid.length - 3);
+        assertRejected(twice);
+
+        // record length beyond the limit and an endless varint
+        assertRejected(new byte[]{'M', 'P', 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F});
+        assertRejected(new byte[]{'M', 'P', 1, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80,
+                (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01});
+
+        // unknown flags; the flags byte follows the id, both strings, visibility and priority
+        byte[] flags = valid.clone();
+        int flagsIndex = 3 + 1 + 1 + 1 + 5 + 1 + 7 + 1 + 1;
+        assertEquals(1, flags[flagsIndex]);
+        flags[flagsIndex] = (byte) 0x80;
+        assertRejected(flags);
+
+        // malformed UTF-8 within the title
+        byte[] utf8 = valid.clone();
+        utf8[3 + 1 + 1 + 1] = (byte) 0xC3;
+        utf8[3 + 1 + 1 + 2] = (byte) 0x28;
+        assertRejected(utf8);
+    }
+
+    @Test
+    public void testCompressedContentIsKept() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            builder.append("line ").append(i).append('\n');
+        }
+        String content = builder.toString();
+        byte[] compressed = PinContent.compress(content, PinContent.DEFAULT_THRESHOLD);
+        assertNotNull(compressed);
+        PinSpec pin = new PinSpec(7, "compressed", PinContent.preview(content), compressed,
+                Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, true, 1, 2);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new PinSpecCodec.Writer(outputStream, true).write(pin);
+        PinSpecCodec.Reader reader = new PinSpecCodec.Reader(new ByteArrayInputStream(outputStream.toByteArray()));
+        assertEquals(PinSpecCodec.VERSION_COMPRESSED, reader.getVersion());
+
+        PinSpec read = reader.read();
+        assertNotNull(read);
+        assertFalse(read.isContentInflated());
+        assertTrue(Arrays.equals(compressed, read.getCompressedContent()));
+        assertEquals(content, read.getContent());
+
+        // other streams stay readable by older releases
+        assertEquals(PinSpecCodec.VERSION, PinSpecCodec.encode(pin)[2]);
+        assertEquals(content, PinSpecCodec.decode(PinSpecCodec.encode(pin)).getContent());
+    }
+
+    @Test
+    public void testSerialVersionIsStable() throws Exception {
+        assertEquals(4460922043459315931L,
+                java.io.ObjectStreamClass.lookup(PinSpec.class).getSerialVersionUID());
+    }
+
+    @Test
+    public void testReadsPinSerializedByV2_2_0() throws Exception {
+        byte[] bytes = new byte[V2_2_0_PIN.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(V2_2_0_PIN.substring(2 * i, 2 * i + 2), 16);
+        }
+
+        PinSpec pin = deserialize(bytes);
+        assertEquals(42, pin.getId());
+        assertEquals("Title v2.2.0", pin.getTitle());
+        assertEquals("Content v2.2.0", pin.getContent());
+        assertEquals(0, pin.getVisibility());
+        assertEquals(1, pin.getPriority());
+        assertTrue(pin.isPersistent());
+        assertFalse(pin.isShowActions());
+    }
+
+    private static byte[] serialize(PinSpec pin) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream);
+        objectOutputStream.writeObject(pin);
+        objectOutputStream.close();
+        return outputStream.toByteArray();
+    }
+
+    private static PinSpec deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        return (PinSpec) objectInputStream.readObject();
+    }
+
+    @Test
+    public void testBenchmarkAgainstSerialization() throws Exception {
+        PinSpec pin = createPin(1234, "Dentist appointment", "Tuesday at 10:30, bring the insurance card and the referral");
+
+        byte[] encoded = PinSpecCodec.encode(pin);
+        byte[] serialized = serialize(pin);
+        assertPinEquals(pin, deserialize(serialized));
+
+        for (int i = 0; i < WARMUP; i++) {
+            PinSpecCodec.decode(PinSpecCodec.encode(pin));
+            deserialize(serialize(pin));
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            PinSpecCodec.decode(PinSpecCodec.encode(pin));
+        }
+        long codecNanos = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            deserialize(serialize(pin));
+        }
+        long serializationNanos = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+
+        Log.i(LOG_TAG, "Codec: " + encoded.length + " bytes, " + codecNanos + " ns per round trip");
+        Log.i(LOG_TAG, "Java serialization: " + serialized.length + " bytes, " + serializationNanos + " ns per round trip");
+
+        assertTrue(encoded.length < serialized.length);
+        assertTrue(codecNanos < serializationNanos);
+    }
+}
@@ -0,0 +1,131 @@
+package de.dotwee.micropinner.database;
+
+import android.app.Notification;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the {@link PinSpecMapper} against the previous per-row
+ * {@link ContentValues} copying when reading the pins table.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PinSpecMapperTest {
+    private static final String LOG_TAG = "PinSpecMapperTest";
+    private static final int ROWS = 500;
+    private static final int ROUNDS = 20;
+
+    private SQLiteDatabase database;
+
+    @Before
+    public void setUp() {
+        database = SQLiteDatabase.create(null);
+        PinDatabase.createSchema(database);
+
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                PinSpec pin = new PinSpec("Title " + i, "Content " + i, Notification.VISIBILITY_PRIVATE,
+                        Notification.PRIORITY_HIGH, i % 2 == 0, i % 3 == 0);
+                database.insert(PinDatabase.TABLE_PINS, null, pin.toContentValues());
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    @Test
+    public void testMapperReadsSameValues() {
+        List<PinSpec> legacy = readLegacy();
+        List<PinSpec> mapped = readMapper();
+
+        assertEquals(ROWS, mapped.size());
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals(legacy.get(i).toString(), mapped.get(i).toString());
+        }
+    }
+
+    /**
+     * This method measures the time per row for both paths.
+     */
+    @Test
+    public void testMapperBenchmark() {
+        // warm up both paths
+        readLegacy();
+        readMapper();
+
+        long legacyStart = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ROUNDS; i++) {
+            readLegacy();
+        }
+        long legacyNanos = SystemClock.elapsedRealtimeNanos() - legacyStart;
+
+        long mapperStart = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ROUNDS; i++) {
+            readMapper();
+        }
+        long mapperNanos = SystemClock.elapsedRealtimeNanos() - mapperStart;
+
+        int rows = ROWS * ROUNDS;
+        Log.i(LOG_TAG, "ContentValues: " + legacyNanos / rows + " ns/row");
+        Log.i(LOG_TAG, "PinSpecMapper: " + mapperNanos / rows + " ns/row");
+        assertEquals(ROWS, readMapper().size());
+    }
+
+    private List<PinSpec> readLegacy() {
+        List<PinSpec> pins = new ArrayList<>(ROWS);
+
+        Cursor cursor = database.query(PinDatabase.TABLE_PINS, PinDatabase.columns, null, null, null, null, null);
+        while (cursor.moveToNext()) {
+            ContentValues contentValues = new ContentValues();
+            DatabaseUtils.cursorRowToContentValues(cursor, contentValues);
+            pins.add(new PinSpec(
+                    contentValues.getAsLong(PinDatabase.COLUMN_ID),
+                    contentValues.getAsString(PinDatabase.COLUMN_TITLE),
+                    contentValues.getAsString(PinDatabase.COLUMN_CONTENT),
+                    contentValues.getAsInteger(PinDatabase.COLUMN_VISIBILITY),
+                    contentValues.getAsInteger(PinDatabase.COLUMN_PRIORITY),
+                    contentValues.getAsInteger(PinDatabase.COLUMN_PERSISTENT) != 0,
+                    contentValues.getAsInteger(PinDatabase.COLUMN_SHOW_ACTIONS) != 0,
+                    contentValues.getAsLong(PinDatabase.COLUMN_CREATED_AT),
+                    contentValues.getAsLong(PinDatabase.COLUMN_UPDATED_AT)));
+        }
+        cursor.close();
+
+        return pins;
+    }
+
+    private List<PinSpec> readMapper() {
+        List<PinSpec> pins = new ArrayList<>(ROWS);
+
+        Cursor cursor = database.query(PinDatabase.TABLE_PINS, PinDatabase.columns, null, null, null, null, null);
+        PinSpecMapper mapper = new PinSpecMapper(cursor);
+        while (cursor.moveToNext()) {
+            pins.add(mapper.map(cursor));
+        }
+        cursor.close();
+
+        return pins;
+    }
+}
@@ -0,0 +1,100 @@
+package de.dotwee.micropinner.database;
+
+import android.app.Notification;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that {@link PinDatabase#forEachPin(PinDatabase.PinVisitor)} visits
+ * every pin while only holding a page of them in memory.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PinStreamingTest {
+    private static final String LOG_TAG = "PinStreamingTest";
+    private static final String DATABASE_NAME = "pin_streaming_test.db";
+    private static final int PINS = 50000;
+    private static final int SAMPLE_INTERVAL = 5000;
+
+    private Context context;
+    private PinDatabase pinDatabase;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(DATABASE_NAME);
+
+        PinDatabase writer = new PinDatabase(context, DATABASE_NAME);
+        List<PinSpec> pins = new ArrayList<>(PINS);
+        for (int i = 0; i < PINS; i++) {
+            pins.add(new PinSpec("Title " + i, "Some longer content of pin number " + i,
+                    Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, false));
+        }
+        writer.writePins(pins);
+        writer.close();
+
+        // a fresh instance has not loaded its cache yet
+        pinDatabase = new PinDatabase(context, DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        pinDatabase.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    public void testVisitsAllPinsInOrder() {
+        final long[] state = new long[]{0, -1};
+
+        pinDatabase.forEachPin(pin -> {
+            assertTrue(pin.getId() > state[1]);
+            state[1] = pin.getId();
+            state[0]++;
+        });
+
+        assertEquals(PINS, state[0]);
+    }
+
+    @Test
+    public void testStreamingMemoryIsBounded() {
+        final long baseline = usedMemory();
+        final long[] peak = new long[]{0};
+        final int[] visited = new int[]{0};
+
+        pinDatabase.forEachPin(pin -> {
+            if (++visited[0] % SAMPLE_INTERVAL == 0) {
+                peak[0] = Math.max(peak[0], usedMemory() - baseline);
+            }
+        });
+
+        Map<Integer, PinSpec> pinMap = pinDatabase.getAllPinsMap();
+        long materialized = usedMemory() - baseline;
+
+        Log.i(LOG_TAG, "Streaming retained at most " + peak[0] / 1024 + " KiB, "
+                + "materializing " + pinMap.size() + " pins retained " + materialized / 1024 + " KiB");
+
+        assertEquals(PINS, visited[0]);
+        assertTrue(peak[0] < materialized / 4);
+    }
+}
@@ -0,0 +1,142 @@
+package de.dotwee.micropinner.database;
+
+import android.app.Notification;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies {@link PinTracer} and the latency budgets of {@link PinDatabase} operations.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PinTracerTest {
+    private static final int PINS = 500;
+    private static final long WRITE_P50_BUDGET_NANOS = 2000000;
+    private static final long WRITE_P99_BUDGET_NANOS = 20000000;
+
+    private PinDatabase pinDatabase;
+    private PinTracer tracer;
+
+    @Before
+    public void setUp() {
+        pinDatabase = new PinDatabase(ApplicationProvider.getApplicationContext(), null);
+        tracer = pinDatabase.getTracer();
+        tracer.setEnabled(true);
+        tracer.reset();
+    }
+
+    @After
+    public void tearDown() {
+        pinDatabase.close();
+    }
+
+    @Test
+    public void testBucketsCoverAllLatencies() {
+        assertEquals(0, PinTracer.bucketOf(0));
+        assertEquals(PinTracer.BUCKET_COUNT - 1, PinTracer.bucketOf(Long.MAX_VALUE));
+
+        int previous = 0;
+        for (long nanos = 1; nanos < 1L << 40; nanos += 1 + nanos / 7) {
+            int bucket = PinTracer.bucketOf(nanos);
+
+            // buckets grow with the latency and their bound is within 25%
+            assertTrue(bucket >= previous);
+            assertTrue(PinTracer.upperBoundOf(bucket) >= nanos);
+            assertTrue(PinTracer.upperBoundOf(bucket) <= nanos + nanos / 4);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        // 90 fast and 10 slow operations
+        for (int i = 0; i < 100; i++) {
+            long nanos = i < 90 ? 1000 : 1000000;
+            tracer.end(PinTracer.QUERY, System.nanoTime() - nanos, 2, "SELECT");
+        }
+
+        assertEquals(100, tracer.getCount(PinTracer.QUERY));
+        assertEquals(200, tracer.getRows(PinTracer.QUERY));
+        assertTrue(tracer.getPercentileNanos(PinTracer.QUERY, 50) < 100000);
+        assertTrue(tracer.getPercentileNanos(PinTracer.QUERY, 99) >= 1000000);
+        assertTrue(tracer.getMaxNanos(PinTracer.QUERY) >= 1000000);
+        assertEquals(0, tracer.getPercentileNanos(PinTracer.SEARCH, 50));
+
+        tracer.reset();
+        assertEquals(0, tracer.getCount(PinTracer.QUERY));
+        assertEquals(0, tracer.getPercentileNanos(PinTracer.QUERY, 99));
+    }
+
+    @Test
+    public void testDisabledTracerRecordsNothing() {
+        tracer.setEnabled(false);
+        pinDatabase.writePin(new PinSpec("title", "content", Notification.VISIBILITY_PUBLIC,
+                Notification.PRIORITY_DEFAULT, false, false));
+
+        for (int operation = 0; operation < PinTracer.OPERATION_COUNT; operation++) {
+            assertEquals(0, tracer.getCount(operation));
+        }
+    }
+
+    @Test
+    public void testSqlIsOnlySampledWhenAsked() {
+        PinSpec pin = new PinSpec("title", "secret content", Notification.VISIBILITY_PUBLIC,
+                Notification.PRIORITY_DEFAULT, false, false);
+        pinDatabase.writePin(pin);
+        assertTrue(tracer.getSamples().isEmpty());
+
+        tracer.setSampleInterval(1);
+        for (int i = 0; i < PinTracer.SAMPLE_CAPACITY + 10; i++) {
+            pinDatabase.writePin(pin);
+        }
+
+        List<PinTracer.Sample> samples = tracer.getSamples();
+        assertEquals(PinTracer.SAMPLE_CAPACITY, samples.size());
+        for (PinTracer.Sample sample : samples) {
+            assertEquals(PinTracer.UPDATE, sample.getOperation());
+            assertTrue(sample.getSql().startsWith("UPDATE pins"));
+            assertTrue(!sample.getSql().contains("secret"));
+        }
+    }
+
+    @Test
+    public void testWriteLatencyBudgets() {
+        List<PinSpec> pins = new ArrayList<>();
+        for (int i = 0; i < PINS; i++) {
+            PinSpec pin = new PinSpec("Pin " + i, "Content " + i, Notification.VISIBILITY_PUBLIC,
+                    Notification.PRIORITY_DEFAULT, false, false);
+            pinDatabase.writePin(pin);
+            pins.add(pin);
+        }
+        for (PinSpec pin : pins) {
+            pinDatabase.writePin(pin);
+        }
+        pinDatabase.writePins(pins);
+        tracer.log();
+
+        assertEquals(PINS, tracer.getCount(PinTracer.INSERT));
+        assertEquals(2 * PINS, tracer.getCount(PinTracer.UPDATE));
+        assertEquals(1, tracer.getCount(PinTracer.BATCH));
+        assertEquals(PINS, tracer.getRows(PinTracer.BATCH));
+
+        for (int operation : new int[]{PinTracer.INSERT, PinTracer.UPDATE}) {
+            long p50 = tracer.getPercentileNanos(operation, 50);
+            long p99 = tracer.getPercentileNanos(operation, 99);
+
+            assertTrue("p50 of " + p50 + " ns", p50 < WRITE_P50_BUDGET_NANOS);
+            assertTrue("p99 of " + p99 + " ns", p99 < WRITE_P99_BUDGET_NANOS);
+            assertTrue(p50 <= p99);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package de.dotwee.micropinner.database;
+
+import android.app.Notification;
+import android.database.Cursor;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the write-behind mode of {@link PinDatabase}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PinWriteQueueTest {
+    private PinDatabase pinDatabase;
+
+    @Before
+    public void setUp() {
+        pinDatabase = new PinDatabase(ApplicationProvider.getApplicationContext(), null);
+        pinDatabase.setWriteBehindEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        pinDatabase.setWriteBehindEnabled(false);
+        pinDatabase.close();
+    }
+
+    private static PinSpec newPin(String title) {
+        return new PinSpec(title, "content", Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, false);
+    }
+
+    /* the titles of the rows in the pins table by their id, read past the cache */
+    private Map<Long, String> storedTitles() {
+        Map<Long, String> titles = new HashMap<>();
+        Cursor cursor = pinDatabase.getReadableDatabase().query(PinDatabase.TABLE_PINS,
+                new String[]{PinDatabase.COLUMN_ID, PinDatabase.COLUMN_TITLE}, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                titles.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return titles;
+    }
+
+    @Test
+    public void testCreateAssignsIdImmediately() {
+        PinSpec pin = newPin("created");
+        pinDatabase.writePin(pin);
+
+        assertTrue(pin.getId() != -1);
+        assertEquals("created", storedTitles().get(pin.getId()));
+    }
+
+    @Test
+    public void testRepeatedWritesAreMerged() {
+        PinSpec pin = newPin("first");
+        pinDatabase.writePin(pin);
+        long id = pin.getId();
+
+        for (int i = 0; i < 100; i++) {
+            PinSpec edited = newPin("edit " + i);
+            edited.setId(id);
+            pinDatabase.writePin(edited);
+        }
+        pinDatabase.flush();
+
+        Map<Long, String> titles = storedTitles();
+        assertEquals(1, titles.size());
+        assertEquals("edit 99", titles.get(id));
+    }
+
+    @Test
+    public void testDeleteAfterWriteWins() {
+        PinSpec pin = newPin("doomed");
+        pinDatabase.writePin(pin);
+        long id = pin.getId();
+
+        PinSpec edited = newPin("edited");
+        edited.setId(id);
+        pinDatabase.writePin(edited);
+        pinDatabase.deletePin(edited);
+        pinDatabase.flush();
+
+        assertFalse(storedTitles().containsKey(id));
+    }
+
+    @Test
+    public void testDeleteAllKeepsLaterCreates() {
+        PinSpec old = newPin("old");
+        pinDatabase.writePin(old);
+
+        pinDatabase.deleteAll();
+
+        // creating flushes the pending delete first, so the new pin must survive it
+        PinSpec fresh = newPin("fresh");
+        pinDatabase.writePin(fresh);
+        pinDatabase.flush();
+
+        Map<Long, String> titles = storedTitles();
+        assertEquals(1, titles.size());
+        assertTrue(titles.containsKey(fresh.getId()));
+    }
+
+    @Test
+    public void testDisablingWritesPendingChanges() {
+        PinSpec pin = newPin("before");
+        pinDatabase.writePin(pin);
+
+        PinSpec edited = newPin("after");
+        edited.setId(pin.getId());
+        pinDatabase.writePin(edited);
+
+        pinDatabase.setWriteBehindEnabled(false);
+        assertEquals("after", storedTitles().get(pin.getId()));
+    }
+}
@@ -0,0 +1,52 @@
+package de.dotwee.micropinner.database;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * This class lets tests outside of this package use a database of their own
+ * in place of the one holding the pins of the app.
+ */
+public final class TestDatabases {
+    @Nullable
+    private static PinDatabase previous = null;
+
+    private TestDatabases() {
+    }
+
+    /**
+     * This method opens an empty database, which {@link PinDatabase#getInstance(Context)}
+     * returns until {@link #close(Context, PinDatabase, String)} is called
+     *
+     * @param context the context to open the database with
+     * @param name    the name of the database file
+     * @return the opened database
+     */
+    @NonNull
+    public static synchronized PinDatabase open(@NonNull Context context, @NonNull String name) {
+        context.deleteDatabase(name);
+
+        PinDatabase pinDatabase = new PinDatabase(context, name);
+        previous = PinDatabase.setInstance(pinDatabase);
+        return pinDatabase;
+    }
+
+    /**
+     * This method closes and deletes a database opened by {@link #open(Context, String)}
+     * and returns the instance used before again
+     *
+     * @param context     the context to delete the database with
+     * @param pinDatabase the database to close
+     * @param name        the name of the database file
+     */
+    public static synchronized void close(@NonNull Context context, @NonNull PinDatabase pinDatabase,
+                                          @NonNull String name) {
+        PinDatabase.setInstance(previous);
+        previous = null;
+
+        pinDatabase.close();
+        context.deleteDatabase(name);
+    }
+}
@@ -0,0 +1,66 @@
+package de.dotwee.micropinner.tools;
+
+import android.content.Context;
+import android.content.Intent;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that {@link DirectBoot} keeps the deletions recorded before the first unlock.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DirectBootTest {
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        DirectBoot.clearDeletions(context);
+    }
+
+    @After
+    public void tearDown() {
+        DirectBoot.clearDeletions(context);
+    }
+
+    private static Intent createDeletion(long id, long version, long fingerprint) {
+        return new Intent()
+                .putExtra(NotificationTools.EXTRA_PIN_ID, id)
+                .putExtra(NotificationTools.EXTRA_PIN_VERSION, version)
+                .putExtra(NotificationTools.EXTRA_PIN_FINGERPRINT, fingerprint);
+    }
+
+    @Test
+    public void testDeletionsAreKeptUntilCleared() {
+        DirectBoot.recordDeletion(context, createDeletion(7, 1000, 0x1234L));
+        DirectBoot.recordDeletion(context, createDeletion(3, 2000, -1L));
+
+        List<Intent> deletions = DirectBoot.getDeletions(context);
+        assertEquals(2, deletions.size());
+        assertEquals(7, deletions.get(0).getLongExtra(NotificationTools.EXTRA_PIN_ID, -1));
+        assertEquals(1000, deletions.get(0).getLongExtra(NotificationTools.EXTRA_PIN_VERSION, -1));
+        assertEquals(0x1234L, deletions.get(0).getLongExtra(NotificationTools.EXTRA_PIN_FINGERPRINT, 0));
+        assertArrayEquals(new long[]{3, 7}, DirectBoot.getPinIds(deletions));
+
+        DirectBoot.clearDeletions(context);
+        assertTrue(DirectBoot.getDeletions(context).isEmpty());
+    }
+
+    @Test
+    public void testIntentsWithoutPinIdAreNotRecorded() {
+        DirectBoot.recordDeletion(context, new Intent());
+        assertTrue(DirectBoot.getDeletions(context).isEmpty());
+    }
+}
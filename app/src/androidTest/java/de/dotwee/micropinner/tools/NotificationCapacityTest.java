@@ -0,0 +1,174 @@
+package de.dotwee.micropinner.tools;
+
+import android.app.Notification;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import de.dotwee.micropinner.database.PinDatabase;
+import de.dotwee.micropinner.database.PinSpec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the ranking of {@link NotificationCapacity} with far more pins than the system shows.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NotificationCapacityTest {
+    private static final int PINS = 500;
+
+    private NotificationCapacity capacity;
+
+    @Before
+    public void setUp() {
+        capacity = new NotificationCapacity(NotificationCapacity.MAX_INDIVIDUAL);
+    }
+
+    @NonNull
+    private static PinSpec newPin(long id, int priority) {
+        PinSpec pin = new PinSpec("Pin " + id, "", Notification.VISIBILITY_PUBLIC, priority, false, false);
+        pin.setId(id);
+        return pin;
+    }
+
+    private static void assertAtMostOneMove(@NonNull NotificationCapacity.Changes changes) {
+        assertTrue(changes.getPromoted().size() <= 1);
+        assertTrue(changes.getDemoted().size() <= 1);
+    }
+
+    private void fill(int highEvery) {
+        for (int id = 1; id <= PINS; id++) {
+            int priority = id % highEvery == 0 ? Notification.PRIORITY_HIGH : Notification.PRIORITY_DEFAULT;
+            NotificationCapacity.Changes changes = capacity.put(newPin(id, priority));
+            assertAtMostOneMove(changes);
+        }
+
+        assertEquals(NotificationCapacity.MAX_INDIVIDUAL, capacity.getIndividualCount());
+        assertEquals(PINS - NotificationCapacity.MAX_INDIVIDUAL, capacity.getOverflowCount());
+    }
+
+    @Test
+    public void testOnlyTheLimitIsShown() {
+        for (int id = 1; id <= PINS; id++) {
+            NotificationCapacity.Changes changes = capacity.put(newPin(id, Notification.PRIORITY_DEFAULT));
+
+            // equal pins keep their place, later ones go to the overflow
+            assertEquals(id <= NotificationCapacity.MAX_INDIVIDUAL, changes.isShown());
+            assertEquals(id > NotificationCapacity.MAX_INDIVIDUAL, changes.isOverflowChanged());
+            assertTrue(changes.getPromoted().isEmpty());
+            assertTrue(changes.getDemoted().isEmpty());
+        }
+
+        assertEquals(NotificationCapacity.MAX_INDIVIDUAL, capacity.getIndividualCount());
+        assertEquals(PINS - NotificationCapacity.MAX_INDIVIDUAL, capacity.getOverflowCount());
+        assertEquals(OverflowSummary.MAX_LINES, capacity.getOverflowTitles(OverflowSummary.MAX_LINES).size());
+    }
+
+    @Test
+    public void testSecretTitlesAreNotListed() {
+        for (int id = 1; id <= PINS; id++) {
+            PinSpec pin = new PinSpec("Pin " + id, "", id % 2 == 0 ? Notification.VISIBILITY_SECRET
+                    : Notification.VISIBILITY_PRIVATE, Notification.PRIORITY_DEFAULT, false, false);
+            pin.setId(id);
+            capacity.put(pin);
+        }
+
+        // every pin of the overflow can be opened, but only titles of private ones are listed
+        assertEquals(PINS - NotificationCapacity.MAX_INDIVIDUAL, capacity.getOverflowPinIds().length);
+        for (String title : capacity.getOverflowTitles(PINS)) {
+            assertEquals(1, Long.parseLong(title.substring("Pin ".length())) % 2);
+        }
+    }
+
+    @Test
+    public void testImportantPinsAreShown() {
+        // 50 pins of high priority, more than can be shown
+        fill(10);
+
+        for (long id : capacity.getIndividualPinIds()) {
+            assertEquals(0, id % 10);
+        }
+        for (int notificationId : capacity.getOverflowNotificationIds()) {
+            assertFalse(capacity.isIndividual(notificationId));
+        }
+    }
+
+    @Test
+    public void testRemovalPromotesOnePin() {
+        fill(10);
+        long shown = capacity.getIndividualPinIds()[0];
+
+        NotificationCapacity.Changes changes = capacity.remove((int) shown);
+        assertEquals(1, changes.getPromoted().size());
+        assertTrue(changes.getDemoted().isEmpty());
+        assertTrue(changes.isOverflowChanged());
+        assertEquals(NotificationCapacity.MAX_INDIVIDUAL, capacity.getIndividualCount());
+
+        // the last pin of high priority moved up
+        assertEquals(0, changes.getPromoted().get(0) % 10);
+
+        changes = capacity.remove(capacity.getOverflowNotificationIds()[0]);
+        assertTrue(changes.getPromoted().isEmpty());
+        assertTrue(changes.isOverflowChanged());
+        assertEquals(PINS - NotificationCapacity.MAX_INDIVIDUAL - 2, capacity.getOverflowCount());
+    }
+
+    @Test
+    public void testChangedPinMovesIncrementally() {
+        fill(PINS + 1);
+        int overflowed = capacity.getOverflowNotificationIds()[100];
+
+        // raising the priority demotes the lowest ranked pin
+        NotificationCapacity.Changes changes = capacity.put(newPin(overflowed, Notification.PRIORITY_HIGH));
+        assertTrue(changes.isShown());
+        assertTrue(changes.getPromoted().isEmpty());
+        assertEquals(1, changes.getDemoted().size());
+        assertTrue(capacity.isIndividual(overflowed));
+
+        // and lowering it again promotes that pin back
+        int demoted = changes.getDemoted().get(0);
+        changes = capacity.put(newPin(overflowed, Notification.PRIORITY_LOW));
+        assertFalse(changes.isShown());
+        assertEquals(1, changes.getPromoted().size());
+        assertEquals(demoted, changes.getPromoted().get(0).intValue());
+        assertEquals(1, changes.getDemoted().size());
+        assertEquals(overflowed, changes.getDemoted().get(0).intValue());
+
+        // changing a shown pin without moving it needs nothing else
+        changes = capacity.put(newPin(demoted, Notification.PRIORITY_DEFAULT));
+        assertTrue(changes.isShown());
+        assertTrue(changes.getPromoted().isEmpty());
+        assertTrue(changes.getDemoted().isEmpty());
+        assertFalse(changes.isOverflowChanged());
+    }
+
+    @Test
+    public void testRecentPinsAreShownFirst() {
+        capacity = new NotificationCapacity(1);
+        PinDatabase pinDatabase = PinDatabase.getInstance(ApplicationProvider.getApplicationContext());
+
+        PinSpec older = new PinSpec("Older", "", Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, false);
+        PinSpec newer = new PinSpec("Newer", "", Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, false);
+        pinDatabase.writePin(older);
+        SystemClock.sleep(5);
+        pinDatabase.writePin(newer);
+
+        try {
+            assertTrue(capacity.put(older).isShown());
+            NotificationCapacity.Changes changes = capacity.put(newer);
+            assertTrue(changes.isShown());
+            assertEquals(older.getNotificationId(), changes.getDemoted().get(0).intValue());
+        } finally {
+            pinDatabase.deletePin(older);
+            pinDatabase.deletePin(newer);
+        }
+    }
+}
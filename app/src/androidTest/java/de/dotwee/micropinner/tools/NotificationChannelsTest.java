@@ -0,0 +1,126 @@
+package de.dotwee.micropinner.tools;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Verifies that {@link NotificationChannels} sets up the channels once instead of on every notification.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NotificationChannelsTest {
+    private static final int PINS = 200;
+
+    private Context context;
+    private NotificationManager notificationManager;
+    private CountingChannelManager channelManager;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O);
+
+        context = ApplicationProvider.getApplicationContext();
+        notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        channelManager = new CountingChannelManager(notificationManager);
+    }
+
+    /**
+     * This method sets up the channels like posting every pin of a restore does
+     *
+     * @return the calls to the notification manager
+     */
+    private int restore() {
+        int before = channelManager.calls;
+        for (int i = 0; i < PINS; i++) {
+            NotificationChannels.ensureCreated(context, channelManager);
+        }
+        return channelManager.calls - before;
+    }
+
+    @Test
+    public void testChannelsAreCreatedOncePerRestore() {
+        PreferencesHandler.getInstance(context).setNotificationChannelsKey("outdated");
+        NotificationChannels.invalidate();
+
+        // one delete of the old channel and one call creating all channels
+        assertEquals(2, restore());
+        assertNotNull(notificationManager.getNotificationChannel(NotificationChannels.CHANNEL_NAME_SECRET));
+
+        // the same process does not check again
+        assertEquals(0, restore());
+    }
+
+    @Test
+    public void testNewProcessOnlyChecksChannels() {
+        NotificationChannels.invalidate();
+        restore();
+
+        // like a new process of the same version and locale
+        NotificationChannels.invalidate();
+        assertEquals(1, restore());
+    }
+
+    @Test
+    public void testDeletedChannelIsCreatedAgain() {
+        NotificationChannels.invalidate();
+        restore();
+
+        notificationManager.deleteNotificationChannel(NotificationChannels.CHANNEL_NAME_PRIVATE);
+        NotificationChannels.invalidate();
+
+        // one check, one delete of the old channel and one call creating all channels
+        assertEquals(3, restore());
+        assertNotNull(notificationManager.getNotificationChannel(NotificationChannels.CHANNEL_NAME_PRIVATE));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUnknownVisibilityIsRejected() {
+        NotificationChannels.getChannelId(42);
+    }
+
+    /**
+     * This class counts the calls to the notification manager.
+     */
+    private static final class CountingChannelManager implements NotificationChannels.ChannelManager {
+        private final NotificationManager notificationManager;
+        int calls = 0;
+
+        CountingChannelManager(@NonNull NotificationManager notificationManager) {
+            this.notificationManager = notificationManager;
+        }
+
+        @NonNull
+        @Override
+        public List<NotificationChannel> getNotificationChannels() {
+            calls++;
+            return notificationManager.getNotificationChannels();
+        }
+
+        @Override
+        public void deleteNotificationChannel(@NonNull String id) {
+            calls++;
+            notificationManager.deleteNotificationChannel(id);
+        }
+
+        @Override
+        public void createNotificationChannels(@NonNull List<NotificationChannel> channels) {
+            calls++;
+            notificationManager.createNotificationChannels(channels);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package de.dotwee.micropinner.tools;
+
+import android.app.Notification;
+import androidx.annotation.NonNull;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import de.dotwee.micropinner.database.PinSpec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the pacing, merging and ordering of {@link NotificationDispatcher}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NotificationDispatcherTest {
+    private static final int CAPACITY = 2;
+    private static final long REFILL_INTERVAL_MS = 50;
+    private static final long TIMEOUT_MS = 5000;
+
+    private RecordingPoster poster;
+
+    @Before
+    public void setUp() {
+        poster = new RecordingPoster();
+    }
+
+    @NonNull
+    private static PinSpec newPin(long id, int priority) {
+        PinSpec pin = new PinSpec("Pin " + id, "", Notification.VISIBILITY_PUBLIC, priority, false, false);
+        pin.setId(id);
+        return pin;
+    }
+
+    private static void awaitEmpty(@NonNull NotificationDispatcher dispatcher) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+
+        while (dispatcher.getQueueDepth() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(REFILL_INTERVAL_MS);
+        }
+        assertEquals(0, dispatcher.getQueueDepth());
+    }
+
+    @Test
+    public void testTokenBucket() {
+        NotificationDispatcher.TokenBucket bucket = new NotificationDispatcher.TokenBucket(2, 100, 0);
+
+        // a burst up to the capacity
+        assertTrue(bucket.tryAcquire(0));
+        assertTrue(bucket.tryAcquire(0));
+        assertFalse(bucket.tryAcquire(0));
+        assertEquals(60, bucket.getDelay(40));
+
+        // one token per interval
+        assertTrue(bucket.tryAcquire(100));
+        assertFalse(bucket.tryAcquire(150));
+        assertEquals(0, bucket.getDelay(200));
+
+        // never more than the capacity after a pause
+        assertTrue(bucket.tryAcquire(10000));
+        assertTrue(bucket.tryAcquire(10000));
+        assertFalse(bucket.tryAcquire(10000));
+    }
+
+    @Test
+    public void testBurstIsPostedRightAway() {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(poster, CAPACITY, 60000, 100);
+
+        for (int i = 1; i <= CAPACITY + 3; i++) {
+            dispatcher.enqueue(newPin(i, Notification.PRIORITY_DEFAULT));
+        }
+
+        assertEquals(CAPACITY, poster.posted.size());
+        assertEquals(3, dispatcher.getQueueDepth());
+    }
+
+    @Test
+    public void testQueuedUpdatesAreMerged() throws InterruptedException {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(poster, 1, REFILL_INTERVAL_MS, 100);
+        dispatcher.enqueue(newPin(1, Notification.PRIORITY_DEFAULT));
+
+        for (int i = 0; i < 10; i++) {
+            PinSpec pin = new PinSpec("Version " + i, "", Notification.VISIBILITY_PUBLIC,
+                    Notification.PRIORITY_DEFAULT, false, false);
+            pin.setId(2);
+            dispatcher.enqueue(pin);
+        }
+        assertEquals(1, dispatcher.getQueueDepth());
+        assertEquals(9, dispatcher.getMergedCount());
+
+        awaitEmpty(dispatcher);
+        assertEquals(2, dispatcher.getPostedCount());
+        assertEquals("Version 9", poster.posted.get(1).getTitle());
+    }
+
+    @Test
+    public void testHighPriorityIsPostedFirst() throws InterruptedException {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(poster, 1, REFILL_INTERVAL_MS, 100);
+        dispatcher.enqueue(newPin(1, Notification.PRIORITY_DEFAULT));
+
+        dispatcher.enqueue(newPin(2, Notification.PRIORITY_LOW));
+        dispatcher.enqueue(newPin(3, Notification.PRIORITY_DEFAULT));
+        dispatcher.enqueue(newPin(4, Notification.PRIORITY_HIGH));
+        dispatcher.enqueue(newPin(5, Notification.PRIORITY_DEFAULT));
+
+        awaitEmpty(dispatcher);
+        List<Long> ids = new ArrayList<>();
+        for (PinSpec pin : poster.posted) {
+            ids.add(pin.getId());
+        }
+        assertEquals(Arrays.asList(1L, 4L, 3L, 5L, 2L), ids);
+    }
+
+    @Test
+    public void testFullQueueDropsLowestPriority() {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(poster, 1, 60000, 2);
+        dispatcher.enqueue(newPin(1, Notification.PRIORITY_DEFAULT));
+
+        dispatcher.enqueue(newPin(2, Notification.PRIORITY_LOW));
+        dispatcher.enqueue(newPin(3, Notification.PRIORITY_HIGH));
+        dispatcher.enqueue(newPin(4, Notification.PRIORITY_DEFAULT));
+
+        assertEquals(2, dispatcher.getQueueDepth());
+        assertEquals(1, dispatcher.getDroppedCount());
+    }
+
+    @Test
+    public void testCancelRemovesQueuedNotification() {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(poster, 1, 60000, 100);
+        PinSpec pin = newPin(2, Notification.PRIORITY_DEFAULT);
+        dispatcher.enqueue(newPin(1, Notification.PRIORITY_DEFAULT));
+        dispatcher.enqueue(pin);
+
+        dispatcher.cancel(pin.getNotificationId());
+        assertEquals(0, dispatcher.getQueueDepth());
+        assertEquals(Collections.singletonList(pin.getNotificationId()), poster.cancelled);
+    }
+
+    private static final class RecordingPoster implements NotificationDispatcher.Poster {
+        final List<PinSpec> posted = Collections.synchronizedList(new ArrayList<>());
+        final List<Integer> cancelled = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void post(@NonNull PinSpec pin) {
+            posted.add(pin);
+        }
+
+        @Override
+        public void cancel(int notificationId) {
+            cancelled.add(notificationId);
+        }
+    }
+}
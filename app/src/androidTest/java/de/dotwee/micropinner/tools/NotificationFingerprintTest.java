@@ -0,0 +1,136 @@
+package de.dotwee.micropinner.tools;
+
+import android.app.Notification;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import de.dotwee.micropinner.database.PinDatabase;
+import de.dotwee.micropinner.database.PinSpec;
+import de.dotwee.micropinner.receiver.OnDeleteReceiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that {@link NotificationFingerprint} detects changes of pins and that
+ * unchanged pins are not posted again.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NotificationFingerprintTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    private Context context;
+    private PinDatabase pinDatabase;
+    private PinSpec pin;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        pinDatabase = PinDatabase.getInstance(context);
+
+        pin = new PinSpec("Fingerprint test", "Some content", Notification.VISIBILITY_PUBLIC,
+                Notification.PRIORITY_DEFAULT, false, false);
+        pinDatabase.writePin(pin);
+    }
+
+    @After
+    public void tearDown() {
+        NotificationTools.cancel(context, pin);
+        pinDatabase.deletePin(pin);
+    }
+
+    private PinSpec copy(String title, String content, int visibility, int priority, boolean persistent, boolean showActions) {
+        PinSpec copy = new PinSpec(title, content, visibility, priority, persistent, showActions);
+        copy.setId(pin.getId());
+        return copy;
+    }
+
+    @Test
+    public void testEveryRenderedFieldChangesTheFingerprint() {
+        Set<Long> fingerprints = new HashSet<>();
+        fingerprints.add(NotificationFingerprint.of(pin));
+
+        fingerprints.add(NotificationFingerprint.of(copy("Other", "Some content",
+                Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, false)));
+        fingerprints.add(NotificationFingerprint.of(copy("Fingerprint test", "Other content",
+                Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, false)));
+        fingerprints.add(NotificationFingerprint.of(copy("Fingerprint test", "Some content",
+                Notification.VISIBILITY_PRIVATE, Notification.PRIORITY_DEFAULT, false, false)));
+        fingerprints.add(NotificationFingerprint.of(copy("Fingerprint test", "Some content",
+                Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_HIGH, false, false)));
+        fingerprints.add(NotificationFingerprint.of(copy("Fingerprint test", "Some content",
+                Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, true, false)));
+        fingerprints.add(NotificationFingerprint.of(copy("Fingerprint test", "Some content",
+                Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, true)));
+        // moving text between title and content
+        fingerprints.add(NotificationFingerprint.of(copy("Fingerprint", " testSome content",
+                Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, false)));
+
+        assertEquals(8, fingerprints.size());
+
+        // the same values always give the same fingerprint
+        assertEquals(NotificationFingerprint.of(pin), NotificationFingerprint.of(copy("Fingerprint test", "Some content",
+                Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, false)));
+    }
+
+    @Test
+    public void testUnchangedSaveKeepsIntentsValid() {
+        Intent intent = NotificationTools.putPinExtras(new Intent(context, OnDeleteReceiver.class), pin);
+
+        PinSpec saved = copy(pin.getTitle(), pin.getContent(), pin.getVisibility(), pin.getPriority(), false, false);
+        SystemClock.sleep(5);
+        pinDatabase.writePin(saved);
+        assertFalse(NotificationTools.isStale(intent, saved));
+
+        PinSpec edited = copy("Edited", pin.getContent(), pin.getVisibility(), pin.getPriority(), false, false);
+        SystemClock.sleep(5);
+        pinDatabase.writePin(edited);
+        assertTrue(NotificationTools.isStale(intent, edited));
+        pin = edited;
+    }
+
+    @Test
+    public void testUnchangedPinIsNotPostedAgain() {
+        NotificationDispatcher dispatcher = NotificationDispatcher.getInstance(context);
+        long fingerprint = NotificationFingerprint.of(pin);
+
+        NotificationTools.post(context, pin);
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MS;
+        while (!NotificationFingerprint.isShowing(context, pin, fingerprint)
+                && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(50);
+        }
+        assertTrue(NotificationFingerprint.isShowing(context, pin, fingerprint));
+
+        long posted = dispatcher.getPostedCount();
+        NotificationTools.notify(context, pin);
+        assertEquals(posted, dispatcher.getPostedCount());
+        assertFalse(dispatcher.isQueued(pin.getNotificationId()));
+
+        // neither when notified with others, against active notifications fetched once
+        NotificationTools.notify(context, Collections.singletonList(pin));
+        assertEquals(posted, dispatcher.getPostedCount());
+        assertFalse(dispatcher.isQueued(pin.getNotificationId()));
+
+        // a changed pin is posted again
+        PinSpec edited = copy("Edited", pin.getContent(), pin.getVisibility(), pin.getPriority(), false, false);
+        pinDatabase.writePin(edited);
+        assertTrue(fingerprint != NotificationFingerprint.of(edited));
+        assertFalse(NotificationFingerprint.isShowing(context, edited, NotificationFingerprint.of(edited)));
+        pin = edited;
+    }
+}
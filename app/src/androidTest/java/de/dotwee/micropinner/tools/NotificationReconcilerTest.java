@@ -0,0 +1,57 @@
+package de.dotwee.micropinner.tools;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that {@link NotificationReconciler} plans only the differences.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NotificationReconcilerTest {
+
+    @Test
+    public void testEqualSidesPlanNothing() {
+        int[] ids = {1, 4, 9};
+        long[] fingerprints = {11, 44, 99};
+
+        NotificationReconciler.Plan plan = NotificationReconciler.diff(ids, fingerprints, ids, fingerprints);
+        assertTrue(plan.isEmpty());
+        assertEquals(0, plan.size());
+    }
+
+    @Test
+    public void testDifferencesArePlanned() {
+        int[] desiredIds = {1, 3, 4, 7};
+        long[] desiredFingerprints = {11, 33, 45, 77};
+        int[] activeIds = {2, 3, 4, 8, 9};
+        long[] activeFingerprints = {22, 33, 44, 88, 99};
+
+        NotificationReconciler.Plan plan = NotificationReconciler.diff(
+                desiredIds, desiredFingerprints, activeIds, activeFingerprints);
+
+        assertArrayEquals(new int[]{1, 7}, plan.posts);
+        assertArrayEquals(new int[]{4}, plan.updates);
+        assertArrayEquals(new int[]{2, 8, 9}, plan.cancels);
+        assertEquals(6, plan.size());
+    }
+
+    @Test
+    public void testEmptySides() {
+        int[] ids = {5, 6};
+        long[] fingerprints = {55, 66};
+
+        NotificationReconciler.Plan posts = NotificationReconciler.diff(ids, fingerprints, new int[0], new long[0]);
+        assertArrayEquals(ids, posts.posts);
+        assertEquals(0, posts.cancels.length);
+
+        NotificationReconciler.Plan cancels = NotificationReconciler.diff(new int[0], new long[0], ids, fingerprints);
+        assertArrayEquals(ids, cancels.cancels);
+        assertEquals(0, cancels.posts.length);
+    }
+}
@@ -0,0 +1,126 @@
+package de.dotwee.micropinner.tools;
+
+import android.app.Notification;
+import android.content.Context;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import de.dotwee.micropinner.database.PinDatabase;
+import de.dotwee.micropinner.database.PinSpec;
+import de.dotwee.micropinner.database.TestDatabases;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that {@link NotificationRestorer} restores in the background and reports its duration.
+ * It restores the pins of a database of its own, see {@link NotificationCapacityTest} for
+ * pins beyond the limit of notifications.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NotificationRestorerTest {
+    private static final String DATABASE_NAME = "notification_restorer_test.db";
+    private static final int PINS = 6;
+
+    private Context context;
+    private PinDatabase pinDatabase;
+    private final List<PinSpec> pins = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        pinDatabase = TestDatabases.open(context, DATABASE_NAME);
+
+        for (int i = 0; i < PINS; i++) {
+            pins.add(new PinSpec("Restore test " + i, "Content " + i, Notification.VISIBILITY_PRIVATE,
+                    Notification.PRIORITY_DEFAULT, false, i % 2 == 0));
+        }
+        pinDatabase.writePins(pins);
+    }
+
+    @After
+    public void tearDown() {
+        for (PinSpec pin : pins) {
+            NotificationTools.cancel(context, pin);
+        }
+        TestDatabases.close(context, pinDatabase, DATABASE_NAME);
+        NotificationRestorer.getInstance(context).reset();
+    }
+
+    /**
+     * This method makes the next restore read all pins again. The marker is kept within the
+     * current session, so the snapshot of the pins of the app is not restored.
+     */
+    private void reset(@NonNull NotificationRestorer restorer) {
+        restorer.reset();
+        PreferencesHandler.getInstance(context).setRestoreMarker(RestoreMarker.of(context, -1, -1));
+    }
+
+    @Test
+    public void testRestoreRunsInBackground() throws InterruptedException {
+        NotificationRestorer restorer = NotificationRestorer.getInstance(context);
+        reset(restorer);
+
+        CountDownLatch finished = new CountDownLatch(1);
+        boolean[] onMainThread = {true};
+        restorer.restore(() -> {
+            onMainThread[0] = Looper.myLooper() == Looper.getMainLooper();
+            finished.countDown();
+        });
+
+        assertTrue(finished.await(NotificationRestorer.POST_TIMEOUT_MS + 10000, TimeUnit.MILLISECONDS));
+        assertFalse(onMainThread[0]);
+        assertTrue(restorer.getLastDurationMs() >= 0);
+        assertEquals(PINS, restorer.getLastRestoredCount());
+        assertEquals(0, NotificationDispatcher.getInstance(context).getQueueDepth());
+    }
+
+    @Test
+    public void testRestoreAgainOnlyRepairsDifferences() throws InterruptedException {
+        NotificationRestorer restorer = NotificationRestorer.getInstance(context);
+        reset(restorer);
+
+        CountDownLatch first = new CountDownLatch(1);
+        restorer.restore(first::countDown);
+        assertTrue(first.await(NotificationRestorer.POST_TIMEOUT_MS + 10000, TimeUnit.MILLISECONDS));
+
+        // the marker is stored once everything is posted
+        String marker = PreferencesHandler.getInstance(context).getRestoreMarker();
+        assertTrue(marker != null && marker.startsWith(RestoreMarker.getBootId(context) + '/'));
+
+        // nothing changed, so nothing is posted again
+        CountDownLatch second = new CountDownLatch(1);
+        restorer.restore(second::countDown);
+        assertTrue(second.await(NotificationRestorer.POST_TIMEOUT_MS + 10000, TimeUnit.MILLISECONDS));
+        assertEquals(0, restorer.getLastRestoredCount());
+    }
+
+    @Test
+    public void testWaitingRestoresAreJoined() throws InterruptedException {
+        NotificationRestorer restorer = NotificationRestorer.getInstance(context);
+        reset(restorer);
+
+        // the later calls join one restore instead of each waiting behind the one before
+        CountDownLatch finished = new CountDownLatch(3);
+        restorer.restore(finished::countDown);
+        restorer.restore(finished::countDown);
+        restorer.restoreLocked(finished::countDown);
+
+        assertTrue(finished.await(2 * NotificationRestorer.POST_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(0, NotificationDispatcher.getInstance(context).getQueueDepth());
+    }
+}
@@ -0,0 +1,90 @@
+package de.dotwee.micropinner.tools;
+
+import android.app.Notification;
+import android.content.Context;
+import android.os.SystemClock;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import de.dotwee.micropinner.database.PinDatabase;
+import de.dotwee.micropinner.database.PinSpec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Verifies that {@link NotificationTemplates} reuses the parts of notifications.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NotificationTemplatesTest {
+    private Context context;
+    private PinDatabase pinDatabase;
+    private PinSpec pin;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        pinDatabase = PinDatabase.getInstance(context);
+
+        pin = new PinSpec("Template test", "Some content", Notification.VISIBILITY_PRIVATE,
+                Notification.PRIORITY_DEFAULT, false, true);
+        pinDatabase.writePin(pin);
+    }
+
+    @After
+    public void tearDown() {
+        NotificationTemplates.onCancelled(pin.getNotificationId());
+        pinDatabase.deletePin(pin);
+    }
+
+    @Test
+    public void testTextsAreKeptPerLocale() {
+        NotificationTemplates.Texts texts = NotificationTemplates.getTexts(context);
+
+        assertSame(texts, NotificationTemplates.getTexts(context));
+        assertEquals(NotificationChannels.getLocale(context), texts.locale);
+    }
+
+    @Test
+    public void testPartsAreReusedUntilThePinChanges() {
+        long fingerprint = NotificationFingerprint.of(pin);
+        NotificationTemplates.Texts texts = NotificationTemplates.getTexts(context);
+        String channelId = NotificationChannels.getChannelId(pin.getVisibility());
+
+        NotificationTemplates.PinParts parts = NotificationTemplates.getPinParts(context, pin, fingerprint);
+        Notification publicVersion = parts.getPublicVersion(context, pin, channelId, texts);
+
+        assertSame(parts, NotificationTemplates.getPinParts(context, pin, fingerprint));
+        assertSame(parts.getClipIntent(context, pin), parts.getClipIntent(context, pin));
+        assertSame(publicVersion, parts.getPublicVersion(context, pin, channelId, texts));
+
+        PinSpec edited = new PinSpec("Edited", pin.getContent(), pin.getVisibility(), pin.getPriority(), false, true);
+        edited.setId(pin.getId());
+        SystemClock.sleep(5);
+        pinDatabase.writePin(edited);
+        pin = edited;
+
+        // the intents are updated in place, so the system keeps the same tokens
+        NotificationTemplates.PinParts changed = NotificationTemplates.getPinParts(context, pin, NotificationFingerprint.of(pin));
+        assertNotSame(parts, changed);
+        assertEquals(parts.contentIntent, changed.contentIntent);
+        assertEquals(parts.deleteIntent, changed.deleteIntent);
+    }
+
+    @Test
+    public void testCancelledPinsAreForgotten() {
+        int size = NotificationTemplates.size();
+        NotificationTemplates.getPinParts(context, pin, NotificationFingerprint.of(pin));
+        assertEquals(size + 1, NotificationTemplates.size());
+
+        NotificationTemplates.onCancelled(pin.getNotificationId());
+        assertEquals(size, NotificationTemplates.size());
+    }
+}
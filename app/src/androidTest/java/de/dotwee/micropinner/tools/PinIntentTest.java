@@ -0,0 +1,125 @@
+package de.dotwee.micropinner.tools;
+
+import android.app.Notification;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import de.dotwee.micropinner.database.PinDatabase;
+import de.dotwee.micropinner.database.PinSpec;
+import de.dotwee.micropinner.receiver.OnDeleteReceiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the pin extras of intents created by {@link NotificationTools} and compares
+ * them against intents containing a serialized pin, as used up to version 2.2.0.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PinIntentTest {
+    private static final String LOG_TAG = "PinIntentTest";
+    private static final int ITERATIONS = 2000;
+
+    private Context context;
+    private PinDatabase pinDatabase;
+    private PinSpec pin;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        pinDatabase = PinDatabase.getInstance(context);
+
+        pin = new PinSpec("Intent test", "Some content that is long enough to be realistic for a pin",
+                Notification.VISIBILITY_PUBLIC, Notification.PRIORITY_DEFAULT, false, true);
+        pinDatabase.writePin(pin);
+    }
+
+    @After
+    public void tearDown() {
+        pinDatabase.deletePin(pin);
+    }
+
+    @Test
+    public void testLookupReturnsCurrentPin() {
+        Intent intent = NotificationTools.putPinExtras(new Intent(context, OnDeleteReceiver.class), pin);
+
+        PinSpec edited = new PinSpec("Edited", pin.getContent(), pin.getVisibility(), pin.getPriority(), false, true);
+        edited.setId(pin.getId());
+        SystemClock.sleep(5);
+        pinDatabase.writePin(edited);
+
+        PinSpec found = NotificationTools.getPin(context, intent);
+        assertNotNull(found);
+        assertEquals("Edited", found.getTitle());
+        assertTrue(NotificationTools.isStale(intent, found));
+        assertFalse(NotificationTools.isStale(NotificationTools.putPinExtras(new Intent(), found), found));
+        pin = found;
+    }
+
+    @Test
+    public void testLegacyIntentIsStillSupported() {
+        Intent intent = new Intent().putExtra(NotificationTools.EXTRA_INTENT, pin);
+
+        assertTrue(NotificationTools.hasPin(intent));
+        assertEquals(pin.getId(), NotificationTools.getPin(context, intent).getId());
+        assertFalse(NotificationTools.isStale(intent, pin));
+    }
+
+    private static byte[] marshall(Intent intent) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            intent.writeToParcel(parcel, 0);
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static Intent unmarshall(byte[] bytes) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(bytes, 0, bytes.length);
+            parcel.setDataPosition(0);
+            return Intent.CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    @Test
+    public void testPayloadBenchmark() {
+        byte[] legacy = marshall(new Intent(context, OnDeleteReceiver.class)
+                .putExtra(NotificationTools.EXTRA_INTENT, pin));
+        byte[] current = marshall(NotificationTools.putPinExtras(new Intent(context, OnDeleteReceiver.class), pin));
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertNotNull(unmarshall(legacy).getSerializableExtra(NotificationTools.EXTRA_INTENT));
+        }
+        long legacyNanos = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertNotNull(NotificationTools.getPin(context, unmarshall(current)));
+        }
+        long currentNanos = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+
+        Log.i(LOG_TAG, "Serialized pin: " + legacy.length + " bytes, " + legacyNanos / 1000 + " us per intent");
+        Log.i(LOG_TAG, "Id and version: " + current.length + " bytes, " + currentNanos / 1000 + " us per intent");
+
+        assertTrue(current.length < legacy.length);
+    }
+}
@@ -73,4 +73,16 @@ public class PreferencesHandlerTest {
         // should be enabled now
         assertTrue(preferencesHandler.isNotificationActionsEnabled());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testIsPinsBeforeUnlockEnabled() throws Exception {
+
+        // pins are only readable before the first unlock if the user opted in
+        assertFalse(preferencesHandler.isPinsBeforeUnlockEnabled());
+
+        preferencesHandler.setPinsBeforeUnlockEnabled(true);
+
+        // should be enabled now
+        assertTrue(preferencesHandler.isPinsBeforeUnlockEnabled());
+    }
+}
@@ -0,0 +1,132 @@
+package de.dotwee.micropinner.database;
+
+import java.util.Arrays;
+
+/**
+ * This class hands out notification ids to pins and recycles the ids of deleted pins.
+ * <p>
+ * Row ids only grow, so casting them to int would eventually overflow. Instead, every
+ * pin gets a free id, preferring recently released ones, which keeps the ids close to
+ * the amount of existing pins. Used ids are kept in a bitset. Released ids below the
+ * scan position are pushed onto a stack, ids above it are found by the scan, which
+ * only moves forward. Both make allocating and releasing O(1), the scan amortized.
+ * <p>
+ * This class is not thread safe, {@link PinDatabase} guards it with its cache lock.
+ */
+final class NotificationIdAllocator {
+    /**
+     * The lowest id handed out, 0 is never used.
+     */
+    static final int FIRST_ID = 1;
+
+    private long[] used = new long[4];
+    private int[] released = new int[16];
+    private int releasedSize = 0;
+    private int scanPosition = FIRST_ID;
+    private int size = 0;
+
+    /**
+     * This method marks an id as used, like ids read from the database
+     *
+     * @param id the id to mark
+     * @return false if the id was used already
+     */
+    boolean markUsed(int id) {
+        if (id < FIRST_ID) {
+            throw new IllegalArgumentException("Invalid notification id " + id);
+        }
+        if (isUsed(id)) {
+            return false;
+        }
+
+        set(id);
+        return true;
+    }
+
+    /**
+     * @return an id that is not used, which is marked as used
+     * @throws IllegalStateException if all ids are used
+     */
+    int allocate() {
+        while (releasedSize > 0) {
+            int id = released[--releasedSize];
+
+            // marked as used again since it was released
+            if (!isUsed(id)) {
+                set(id);
+                return id;
+            }
+        }
+
+        while (isUsed(scanPosition)) {
+            scanPosition++;
+        }
+        if (scanPosition == Integer.MAX_VALUE) {
+            throw new IllegalStateException("No notification id left");
+        }
+
+        int id = scanPosition++;
+        set(id);
+        return id;
+    }
+
+    /**
+     * This method makes an id available again
+     *
+     * @param id the id to release
+     * @return false if the id was not used
+     */
+    boolean release(int id) {
+        if (!isUsed(id)) {
+            return false;
+        }
+
+        used[id >>> 6] &= ~(1L << id);
+        size--;
+
+        // ids at or above the scan position are found by the scan
+        if (id < scanPosition) {
+            if (releasedSize == released.length) {
+                released = Arrays.copyOf(released, releasedSize * 2);
+            }
+            released[releasedSize++] = id;
+        }
+        return true;
+    }
+
+    /**
+     * @param id the id to check
+     * @return true if the id is handed out
+     */
+    boolean isUsed(int id) {
+        int word = id >>> 6;
+        return id >= FIRST_ID && word < used.length && (used[word] & (1L << id)) != 0;
+    }
+
+    /**
+     * @return the amount of used ids
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * This method releases all ids at once
+     */
+    void clear() {
+        Arrays.fill(used, 0);
+        releasedSize = 0;
+        scanPosition = FIRST_ID;
+        size = 0;
+    }
+
+    private void set(int id) {
+        int word = id >>> 6;
+        if (word >= used.length) {
+            used = Arrays.copyOf(used, Math.max(used.length * 2, word + 1));
+        }
+
+        used[word] |= 1L << id;
+        size++;
+    }
+}
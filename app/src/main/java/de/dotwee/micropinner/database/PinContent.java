@@ -0,0 +1,141 @@
+package de.dotwee.micropinner.database;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This class compresses the content of large pins for storage.
+ * <p>
+ * Content longer than the threshold of {@link PinDatabase.Config} is stored in the
+ * content_z column as a format marker byte, the length of the UTF-8 encoded content
+ * as four byte big-endian integer and the DEFLATE (zlib) compressed content.
+ * The content column keeps a plain preview of the first {@link #PREVIEW_LENGTH}
+ * characters, which is shown in collapsed notifications. The full-text index keeps
+ * the full content, so search and the content provider see all of it.
+ */
+final class PinContent {
+    /**
+     * Marker of zlib compressed UTF-8.
+     */
+    static final byte FORMAT_DEFLATE = 1;
+
+    /**
+     * Content up to this amount of characters is stored as plain text.
+     */
+    static final int DEFAULT_THRESHOLD = 2048;
+
+    /**
+     * Amount of characters kept as plain preview of compressed content.
+     */
+    static final int PREVIEW_LENGTH = 512;
+
+    private static final int HEADER_LENGTH = 5;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private PinContent() {
+    }
+
+    /**
+     * This method compresses the content if it is above the threshold and compression saves space
+     *
+     * @param content   the content to compress
+     * @param threshold the amount of characters up to which content is not compressed
+     * @return the compressed content or null if it should be stored as plain text
+     */
+    @Nullable
+    static byte[] compress(@NonNull String content, int threshold) {
+        if (content.length() <= threshold) {
+            return null;
+        }
+
+        byte[] plain = content.getBytes(UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(plain);
+            deflater.finish();
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(plain.length / 4 + HEADER_LENGTH);
+            outputStream.write(FORMAT_DEFLATE);
+            outputStream.write(plain.length >>> 24);
+            outputStream.write(plain.length >>> 16);
+            outputStream.write(plain.length >>> 8);
+            outputStream.write(plain.length);
+
+            byte[] chunk = new byte[4096];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(chunk);
+                outputStream.write(chunk, 0, length);
+
+                // the preview is stored as well, so compression has to save more than that
+                if (outputStream.size() + PREVIEW_LENGTH >= plain.length) {
+                    return null;
+                }
+            }
+
+            return outputStream.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * This method restores compressed content
+     *
+     * @param compressed the compressed content, as returned by {@link #compress(String, int)}
+     * @return the original content
+     * @throws IllegalStateException if the data is corrupted or of an unknown format
+     */
+    @NonNull
+    static String inflate(@NonNull byte[] compressed) {
+        if (compressed.length < HEADER_LENGTH || compressed[0] != FORMAT_DEFLATE) {
+            throw new IllegalStateException("Unknown format of compressed content");
+        }
+
+        int length = (compressed[1] & 0xFF) << 24 | (compressed[2] & 0xFF) << 16
+                | (compressed[3] & 0xFF) << 8 | (compressed[4] & 0xFF);
+        byte[] plain = new byte[length];
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed, HEADER_LENGTH, compressed.length - HEADER_LENGTH);
+
+            int offset = 0;
+            while (offset < length) {
+                int inflated = inflater.inflate(plain, offset, length - offset);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Compressed content ended unexpectedly");
+                }
+                offset += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Compressed content is corrupted", e);
+        } finally {
+            inflater.end();
+        }
+
+        return new String(plain, UTF_8);
+    }
+
+    /**
+     * @param content the full content
+     * @return the first {@link #PREVIEW_LENGTH} characters, without splitting a surrogate pair
+     */
+    @NonNull
+    static String preview(@NonNull String content) {
+        if (content.length() <= PREVIEW_LENGTH) {
+            return content;
+        }
+
+        int end = PREVIEW_LENGTH;
+        if (Character.isHighSurrogate(content.charAt(end - 1))) {
+            end--;
+        }
+        return content.substring(0, end);
+    }
+}
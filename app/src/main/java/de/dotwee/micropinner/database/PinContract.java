@@ -0,0 +1,57 @@
+package de.dotwee.micropinner.database;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import androidx.annotation.NonNull;
+
+import de.dotwee.micropinner.BuildConfig;
+
+/**
+ * This class describes the uris and columns offered by {@link PinProvider}.
+ * <p>
+ * Every changed pin is notified with its own uri, so observers of {@link #CONTENT_URI}
+ * that register for descendants can re-query only the pins that changed. Changes of many
+ * pins at once, like deleting all of them, are notified with {@link #CONTENT_URI} itself.
+ */
+public final class PinContract {
+    public static final String AUTHORITY = BuildConfig.APPLICATION_ID + ".pins";
+    public static final Uri CONTENT_URI = Uri.parse(ContentResolver.SCHEME_CONTENT + "://" + AUTHORITY + "/pins");
+
+    public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/vnd." + AUTHORITY + ".pin";
+    public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/vnd." + AUTHORITY + ".pin";
+
+    public static final String READ_PERMISSION = BuildConfig.APPLICATION_ID + ".permission.READ_PINS";
+    public static final String WRITE_PERMISSION = BuildConfig.APPLICATION_ID + ".permission.WRITE_PINS";
+
+    private PinContract() {
+    }
+
+    /**
+     * @param id id of the pin
+     * @return the uri of a single pin
+     */
+    @NonNull
+    public static Uri buildPinUri(long id) {
+        return ContentUris.withAppendedId(CONTENT_URI, id);
+    }
+
+    /**
+     * This class holds the columns of a pin.
+     * Timestamps are read-only and set by the database.
+     */
+    public static final class Pins implements BaseColumns {
+        public static final String TITLE = PinDatabase.COLUMN_TITLE;
+        public static final String CONTENT = PinDatabase.COLUMN_CONTENT;
+        public static final String VISIBILITY = PinDatabase.COLUMN_VISIBILITY;
+        public static final String PRIORITY = PinDatabase.COLUMN_PRIORITY;
+        public static final String PERSISTENT = PinDatabase.COLUMN_PERSISTENT;
+        public static final String SHOW_ACTIONS = PinDatabase.COLUMN_SHOW_ACTIONS;
+        public static final String CREATED_AT = PinDatabase.COLUMN_CREATED_AT;
+        public static final String UPDATED_AT = PinDatabase.COLUMN_UPDATED_AT;
+
+        private Pins() {
+        }
+    }
+}
@@ -1,22 +1,38 @@
 package de.dotwee.micropinner.database;
 
+import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.collection.ArrayMap;
+import androidx.collection.LongSparseArray;
 import android.util.Log;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import de.dotwee.micropinner.BuildConfig;
+import de.dotwee.micropinner.R;
 
+import static android.database.DatabaseUtils.longForQuery;
 import static android.database.DatabaseUtils.queryNumEntries;
-import static de.dotwee.micropinner.tools.SQLiteStatementsLogger.logDelete;
-import static de.dotwee.micropinner.tools.SQLiteStatementsLogger.logInsertWithOnConflict;
-import static de.dotwee.micropinner.tools.SQLiteStatementsLogger.logUpdate;
 
 /**
  * Created by lukas on 10.08.2016.
@@ -33,12 +49,24 @@ public class PinDatabase extends SQLiteOpenHelper {
     /* boolean columns */
     static final String COLUMN_PERSISTENT = "persistent";
     static final String COLUMN_SHOW_ACTIONS = "show_actions";
-    private static final String TABLE_PINS = "pins";
+    /* timestamp columns, milliseconds since epoch */
+    static final String COLUMN_CREATED_AT = "created_at";
+    static final String COLUMN_UPDATED_AT = "updated_at";
+    /* blob column of compressed content, see PinContent */
+    static final String COLUMN_CONTENT_Z = "content_z";
+    /* integer column, unique id of the notification, see NotificationIdAllocator */
+    static final String COLUMN_NOTIFICATION_ID = "notification_id";
+    static final String TABLE_PINS = "pins";
+    static final String TABLE_PINS_FTS = "pins_fts";
+    /* the pins with the full text of their content, see PinMigrations */
+    static final String VIEW_PINS_TEXT = "pins_text";
+    /* key-value table, see PinMigrations */
+    static final String TABLE_PIN_META = "pin_meta";
     private static final String TAG = PinDatabase.class.getSimpleName();
     private static final String DATABASE_NAME = "comments.db";
-    private static final int DATABASE_VERSION = 1;
-    // Database creation sql statement
-    private static final String DATABASE_CREATE = "create table "
+    private static final int DATABASE_VERSION = PinMigrations.LATEST_VERSION;
+    // Database creation sql statement of schema version 1, see PinMigrations for later versions
+    static final String DATABASE_CREATE = "create table "
             + TABLE_PINS + "( "
 
             + COLUMN_ID + " integer primary key autoincrement, "
@@ -50,42 +78,187 @@ public class PinDatabase extends SQLiteOpenHelper {
 
             + COLUMN_PERSISTENT + " integer not null, "
             + COLUMN_SHOW_ACTIONS + " integer not null);";
-    private static final String[] columns = {
+    static final String[] columns = {
             PinDatabase.COLUMN_ID,
             PinDatabase.COLUMN_TITLE,
             PinDatabase.COLUMN_CONTENT,
             PinDatabase.COLUMN_VISIBILITY,
             PinDatabase.COLUMN_PRIORITY,
             PinDatabase.COLUMN_PERSISTENT,
-            PinDatabase.COLUMN_SHOW_ACTIONS
+            PinDatabase.COLUMN_SHOW_ACTIONS,
+            PinDatabase.COLUMN_CREATED_AT,
+            PinDatabase.COLUMN_UPDATED_AT,
+            PinDatabase.COLUMN_CONTENT_Z,
+            PinDatabase.COLUMN_NOTIFICATION_ID
     };
+    /* statements used by the bulk methods */
+    private static final String SQL_INSERT = "INSERT INTO " + TABLE_PINS + " ("
+            + COLUMN_TITLE + ", " + COLUMN_CONTENT + ", " + COLUMN_VISIBILITY + ", "
+            + COLUMN_PRIORITY + ", " + COLUMN_PERSISTENT + ", " + COLUMN_SHOW_ACTIONS + ", "
+            + COLUMN_UPDATED_AT + ", " + COLUMN_CONTENT_Z + ", " + COLUMN_CREATED_AT + ", "
+            + COLUMN_NOTIFICATION_ID + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String SQL_UPDATE = "UPDATE " + TABLE_PINS + " SET "
+            + COLUMN_TITLE + " = ?, " + COLUMN_CONTENT + " = ?, " + COLUMN_VISIBILITY + " = ?, "
+            + COLUMN_PRIORITY + " = ?, " + COLUMN_PERSISTENT + " = ?, " + COLUMN_SHOW_ACTIONS + " = ?, "
+            + COLUMN_UPDATED_AT + " = ?, " + COLUMN_CONTENT_Z + " = ?"
+            + " WHERE " + COLUMN_ID + " = ?";
+    private static final String SQL_DELETE = "DELETE FROM " + TABLE_PINS + " WHERE " + COLUMN_ID + " = ?";
+    /* the triggers index the content column, which only holds a preview of compressed content */
+    private static final String SQL_INDEX_CONTENT = "UPDATE " + TABLE_PINS_FTS + " SET "
+            + COLUMN_CONTENT + " = ? WHERE docid = ?";
+    /* descriptions of traced operations without a single statement */
+    private static final String SQL_SELECT = "SELECT * FROM " + TABLE_PINS;
+    private static final String SQL_TRANSACTION = "BEGIN; ...; COMMIT";
+    private static final String SQL_SEARCH = "SELECT docid, matchinfo(" + TABLE_PINS_FTS + ", 'pcx') FROM "
+            + TABLE_PINS_FTS + " WHERE " + TABLE_PINS_FTS + " MATCH ?";
+    /**
+     * Weight of a match per column of the full-text index, title matches count twice
+     */
+    private static final float[] SEARCH_WEIGHTS = {2f, 1f};
+    /**
+     * Amount of pins read at once by {@link #forEachPin(PinVisitor)}
+     */
+    static final int VISIT_PAGE_SIZE = 100;
+    /**
+     * Changes of more pins at once are notified with a single uri
+     */
+    private static final int MAX_ROW_NOTIFICATIONS = 50;
     private static PinDatabase instance = null;
     private final SQLiteDatabase database;
+    private volatile PinWriteQueue writeQueue = null;
+
+    /* compiled once and guarded by statementLock, as statements are not thread safe */
+    private final Object statementLock = new Object();
+    private final SQLiteStatement insertStatement;
+    private final SQLiteStatement updateStatement;
+    private final SQLiteStatement deleteStatement;
+
+    /* copies of all pins by their id, loaded once and kept in sync by every write; guarded by cacheLock */
+    private final Object cacheLock = new Object();
+    private LongSparseArray<PinSpec> cache = null;
+    /* notification ids of the cached pins, loaded and guarded like the cache */
+    private NotificationIdAllocator notificationIds = null;
+
+    private final Config config;
+    private final PinHistory history;
+    /* written after changes, only set for the database of the app */
+    private volatile PinSnapshot[] snapshots = new PinSnapshot[0];
+    private final PinTracer tracer = new PinTracer(BuildConfig.DEBUG);
+
+    /* change notifications of a running transaction, sent once it is committed */
+    private final ContentResolver contentResolver;
+    private final Set<Uri> pendingNotifications = new LinkedHashSet<>();
 
     private PinDatabase(@NonNull Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * @param context context to open the database with
+     * @param name    name of the database file or null for an in-memory database
+     */
+    PinDatabase(@NonNull Context context, @Nullable String name) {
+        this(context, name, Config.DEFAULT);
+    }
+
+    /**
+     * @param context context to open the database with
+     * @param name    name of the database file or null for an in-memory database
+     * @param config  connection settings to apply
+     */
+    PinDatabase(@NonNull Context context, @Nullable String name, @NonNull Config config) {
+        super(context, name, null, DATABASE_VERSION);
+        this.config = config;
+        this.history = new PinHistory(this, config.historyPerPin, config.historyTotal);
+        this.contentResolver = context.getContentResolver();
+
+        setWriteAheadLoggingEnabled(config.writeAheadLogging);
         database = getWritableDatabase();
+
+        insertStatement = database.compileStatement(SQL_INSERT);
+        updateStatement = database.compileStatement(SQL_UPDATE);
+        deleteStatement = database.compileStatement(SQL_DELETE);
     }
 
     public static synchronized PinDatabase getInstance(@NonNull Context context) {
         if (PinDatabase.instance == null) {
             PinDatabase.instance = new PinDatabase(context.getApplicationContext());
+            PinDatabase.instance.addSnapshot(PinSnapshot.getFile(context), null);
+
+            // the opt-in is applied by the callers, until then an existing snapshot is kept up to date
+            File file = PinSnapshot.getDeviceProtectedFile(context);
+            if (file != null && file.exists()) {
+                PinDatabase.instance.setLockScreenSnapshot(context, true);
+            }
         }
 
         return PinDatabase.instance;
     }
 
+    /**
+     * This method replaces the instance returned by {@link #getInstance(Context)}, so tests
+     * can run the app against a database of their own
+     *
+     * @param pinDatabase the instance to return, null to open the default database on the next call
+     * @return the instance returned until now, may be null
+     */
+    @Nullable
+    static synchronized PinDatabase setInstance(@Nullable PinDatabase pinDatabase) {
+        PinDatabase previous = PinDatabase.instance;
+        PinDatabase.instance = pinDatabase;
+        return previous;
+    }
+
+    @Override
+    public synchronized void close() {
+        history.shutdown();
+
+        for (PinSnapshot snapshot : snapshots) {
+            snapshot.shutdown();
+        }
+
+        synchronized (statementLock) {
+            insertStatement.close();
+            updateStatement.close();
+            deleteStatement.close();
+        }
+
+        super.close();
+    }
+
+    /**
+     * This method applies the connection settings to the primary connection, the only one
+     * called back here. It runs every write and transaction, so synchronous mode holds for
+     * all writes. With WAL the framework also opens read-only connections for queries outside
+     * of a transaction, there cache size and temp store keep the defaults of SQLite.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("PRAGMA synchronous = " + config.synchronous);
+        sqLiteDatabase.execSQL("PRAGMA cache_size = " + (-config.cacheSizeKib));
+        sqLiteDatabase.execSQL("PRAGMA temp_store = " + config.tempStore);
+    }
+
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
-        sqLiteDatabase.execSQL(DATABASE_CREATE);
+        createSchema(sqLiteDatabase);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        Log.w(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion + ", which will destroy all old data");
+        Log.i(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
 
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_PINS);
-        onCreate(sqLiteDatabase);
+        PinMigrations.migrate(sqLiteDatabase, oldVersion, newVersion);
+    }
+
+    /**
+     * This method creates the latest schema by running all migrations on the version 1 schema
+     *
+     * @param sqLiteDatabase an empty database
+     */
+    static void createSchema(@NonNull SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL(DATABASE_CREATE);
+        PinMigrations.migrate(sqLiteDatabase, 1, DATABASE_VERSION);
     }
 
     /**
@@ -96,11 +269,40 @@ public class PinDatabase extends SQLiteOpenHelper {
     public void writePin(@NonNull PinSpec pin) {
         Log.i(TAG, "Write pin called for pin " + pin.toString());
 
+        PinWriteQueue writeQueue = getWriteQueue();
+        pin.setUpdatedAt(System.currentTimeMillis());
+
         if (pin.getId() == -1) {
-            createPin(pin);
+            // new pins need their id right away, so pending changes are written first
+            if (writeQueue != null) {
+                writeQueue.flush();
+            }
+
+            synchronized (cacheLock) {
+                createPin(pin);
+                cachePut(pin);
+            }
+            onDatabaseAction();
+            notifyPinChanged(pin.getId());
+        } else if (writeQueue != null) {
+            synchronized (cacheLock) {
+                keepStoredValues(pin);
+
+                // compressed here, so the pin has the same fingerprint as its stored form
+                compressContent(pin);
+                writeQueue.enqueueWrite(cachePut(pin));
+            }
         } else {
-            updatePin(pin);
+            synchronized (cacheLock) {
+                keepStoredValues(pin);
+                updatePin(pin.getId(), pin);
+                cachePut(pin);
+            }
+            onDatabaseAction();
+            notifyPinChanged(pin.getId());
         }
+
+        onPinsChanged();
     }
 
     /**
@@ -109,37 +311,62 @@ public class PinDatabase extends SQLiteOpenHelper {
      * @param pin the pin to create
      */
     private void createPin(@NonNull PinSpec pin) {
+        pin.setCreatedAt(pin.getUpdatedAt());
+        pin.setNotificationId(allocateNotificationId());
+        compressContent(pin);
+
         ContentValues contentValues = pin.toContentValues();
+        contentValues.put(PinDatabase.COLUMN_CREATED_AT, pin.getCreatedAt());
+        contentValues.put(PinDatabase.COLUMN_NOTIFICATION_ID, pin.getNotificationId());
 
-        if (BuildConfig.DEBUG) {
-            logInsertWithOnConflict(PinDatabase.TABLE_PINS, null, contentValues, SQLiteDatabase.CONFLICT_NONE);
+        long start = tracer.start();
+        long id;
+        database.beginTransaction();
+        try {
+            id = database.insert(PinDatabase.TABLE_PINS, null, contentValues);
+            if (id != -1) {
+                indexContent(id, pin, true);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
         }
-        long id = database.insert(PinDatabase.TABLE_PINS, null, contentValues);
-        Log.i(TAG, "Created new pin with id " + id);
+        tracer.end(PinTracer.INSERT, start, id != -1 ? 1 : 0, SQL_INSERT);
+        Log.i(TAG, "Created new pin with id " + id + " and notification id " + pin.getNotificationId());
         pin.setId(id);
 
-        onDatabaseAction();
+        if (id == -1) {
+            notificationIds.release(pin.getNotificationId());
+            pin.setNotificationId(0);
+        }
     }
 
     /**
      * This method updates a pin in the database without changing its id
      *
+     * @param id  the id of the pin to update
      * @param pin the pin to update
      */
-    private void updatePin(@NonNull PinSpec pin) {
+    private void updatePin(long id, @NonNull PinSpec pin) {
+        compressContent(pin);
         ContentValues contentValues = pin.toContentValues();
-        long id = pin.getId();
 
         String whereClause = PinDatabase.COLUMN_ID + " = ?";
         String[] whereArgs = new String[]{String.valueOf(id)};
-        if (BuildConfig.DEBUG) {
-            logUpdate(PinDatabase.TABLE_PINS, contentValues, whereClause, whereArgs);
+        long start = tracer.start();
+        int updated;
+        database.beginTransaction();
+        try {
+            updated = database.update(PinDatabase.TABLE_PINS, contentValues, whereClause, whereArgs);
+            if (updated > 0) {
+                indexContent(id, pin, false);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
         }
-        database.update(PinDatabase.TABLE_PINS, contentValues, whereClause, whereArgs);
+        tracer.end(PinTracer.UPDATE, start, updated, SQL_UPDATE);
         Log.i(TAG, "Updated new pin with id " + id);
-        pin.setId(id);
-
-        onDatabaseAction();
     }
 
     /**
@@ -150,21 +377,421 @@ public class PinDatabase extends SQLiteOpenHelper {
     public void deletePin(PinSpec pin) {
         long id = pin.getId();
 
-        String whereClause = PinDatabase.COLUMN_ID + " = ?";
-        String[] whereArgs = new String[]{String.valueOf(id)};
-        if (BuildConfig.DEBUG) {
-            logDelete(PinDatabase.TABLE_PINS, whereClause, whereArgs);
+        PinWriteQueue writeQueue = getWriteQueue();
+        synchronized (cacheLock) {
+            if (writeQueue != null) {
+                writeQueue.enqueueDelete(id);
+            } else {
+                deletePin(id);
+            }
+            cacheRemove(id);
         }
-        boolean success = database.delete(PinDatabase.TABLE_PINS, whereClause, whereArgs) > 0;
-        Log.i(TAG, "Deleting pin with id " + id + "; success " + success);
         pin.setId(-1);
 
-        onDatabaseAction();
+        if (writeQueue == null) {
+            onDatabaseAction();
+            notifyPinChanged(id);
+        }
+
+        onPinsChanged();
+    }
+
+    /**
+     * This method deletes the row of a pin from the database
+     *
+     * @param id the id of the pin to delete
+     */
+    private void deletePin(long id) {
+        String whereClause = PinDatabase.COLUMN_ID + " = ?";
+        String[] whereArgs = new String[]{String.valueOf(id)};
+        long start = tracer.start();
+        int deleted = database.delete(PinDatabase.TABLE_PINS, whereClause, whereArgs);
+        tracer.end(PinTracer.DELETE, start, deleted, SQL_DELETE);
+        boolean success = deleted > 0;
+        Log.i(TAG, "Deleting pin with id " + id + "; success " + success);
     }
 
     public void deleteAll() {
         Log.i(TAG, "Deleting all pins");
-        database.delete(PinDatabase.TABLE_PINS, null, null);
+
+        PinWriteQueue writeQueue = getWriteQueue();
+        synchronized (cacheLock) {
+            if (writeQueue != null) {
+                writeQueue.enqueueDeleteAll();
+            } else {
+                database.delete(PinDatabase.TABLE_PINS, null, null);
+            }
+
+            if (cache != null) {
+                cache.clear();
+                notificationIds.clear();
+            }
+        }
+
+        if (writeQueue == null) {
+            notifyChange(PinContract.CONTENT_URI);
+        }
+
+        onPinsChanged();
+    }
+
+    /**
+     * This method inserts a pin that was deleted before with its previous id
+     *
+     * @param pin the pin to insert, its id must not be in use
+     */
+    void restorePin(@NonNull PinSpec pin) {
+        flush();
+
+        synchronized (cacheLock) {
+            pin.setUpdatedAt(System.currentTimeMillis());
+            pin.setNotificationId(allocateNotificationId());
+            compressContent(pin);
+            ContentValues contentValues = pin.toContentValues();
+            contentValues.put(PinDatabase.COLUMN_ID, pin.getId());
+            contentValues.put(PinDatabase.COLUMN_CREATED_AT, pin.getCreatedAt());
+            contentValues.put(PinDatabase.COLUMN_NOTIFICATION_ID, pin.getNotificationId());
+
+            database.beginTransaction();
+            try {
+                database.insertOrThrow(PinDatabase.TABLE_PINS, null, contentValues);
+                indexContent(pin.getId(), pin, true);
+                database.setTransactionSuccessful();
+            } catch (RuntimeException e) {
+                notificationIds.release(pin.getNotificationId());
+                throw e;
+            } finally {
+                database.endTransaction();
+            }
+            Log.i(TAG, "Restored pin with id " + pin.getId());
+            cachePut(pin);
+        }
+
+        notifyPinChanged(pin.getId());
+
+        onPinsChanged();
+    }
+
+    /**
+     * This method returns the tracer of the operations of this database.
+     * It is enabled in debug builds, without sampling SQL.
+     *
+     * @return the tracer
+     */
+    @NonNull
+    public PinTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * @return the history of deleted and overwritten pins
+     */
+    @NonNull
+    public PinHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * This method enables or disables the write-behind mode.
+     * <p>
+     * While enabled, updates and deletes are queued and written by a single background thread.
+     * Queued writes to the same pin are merged into one and every batch is committed within
+     * a single transaction. Disabling the mode writes all pending changes first.
+     *
+     * @param enabled true to queue writes, false to write on the calling thread
+     */
+    public synchronized void setWriteBehindEnabled(boolean enabled) {
+        if (enabled && writeQueue == null) {
+            writeQueue = new PinWriteQueue(this);
+
+        } else if (!enabled && writeQueue != null) {
+            writeQueue.shutdown();
+            writeQueue = null;
+        }
+    }
+
+    /**
+     * This method returns the write queue, or null if changes should be written right away.
+     * Changes within a transaction are never queued: the writer thread would wait for the
+     * transaction while the transaction waits for the writer thread on the next flush.
+     *
+     * @return the write queue or null
+     */
+    @Nullable
+    private PinWriteQueue getWriteQueue() {
+        return database.inTransaction() ? null : writeQueue;
+    }
+
+    /**
+     * This method blocks until all queued writes are committed.
+     * It does nothing if the write-behind mode is disabled.
+     */
+    public void flush() {
+        PinWriteQueue writeQueue = getWriteQueue();
+        if (writeQueue != null) {
+            writeQueue.flush();
+        }
+    }
+
+    /**
+     * This method writes a batch of queued changes within one transaction
+     *
+     * @param batch     the pins to update by their id, a null value marks a deleted pin
+     * @param deleteAll true if all pins should be deleted before applying the batch
+     */
+    void writeBatch(@NonNull Map<Long, PinSpec> batch, boolean deleteAll) {
+        long start = tracer.start();
+        database.beginTransaction();
+        try {
+            if (deleteAll) {
+                database.delete(PinDatabase.TABLE_PINS, null, null);
+            }
+
+            synchronized (statementLock) {
+                for (Map.Entry<Long, PinSpec> entry : batch.entrySet()) {
+                    PinSpec pin = entry.getValue();
+
+                    if (pin == null) {
+                        executeDelete(entry.getKey());
+                    } else {
+                        executeUpdate(entry.getKey(), pin);
+                    }
+                }
+            }
+
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        tracer.end(PinTracer.BATCH, start, batch.size(), SQL_TRANSACTION);
+
+        onDatabaseAction();
+
+        if (deleteAll || batch.size() > MAX_ROW_NOTIFICATIONS) {
+            notifyChange(PinContract.CONTENT_URI);
+        } else {
+            for (long id : batch.keySet()) {
+                notifyPinChanged(id);
+            }
+        }
+        onPinsChanged();
+    }
+
+    /**
+     * This method creates or updates all given pins within one transaction.
+     * New pins get their id assigned like with {@link #writePin(PinSpec)}.
+     *
+     * @param pins the pins to write
+     */
+    public void writePins(@NonNull Collection<PinSpec> pins) {
+        flush();
+
+        long now = System.currentTimeMillis();
+        synchronized (cacheLock) {
+            boolean success = false;
+            long start = tracer.start();
+            database.beginTransaction();
+            try {
+                synchronized (statementLock) {
+                    for (PinSpec pin : pins) {
+                        pin.setUpdatedAt(now);
+
+                        if (pin.getId() == -1) {
+                            pin.setCreatedAt(now);
+                            pin.setNotificationId(allocateNotificationId());
+                            bindPin(insertStatement, pin);
+                            insertStatement.bindLong(9, pin.getCreatedAt());
+                            insertStatement.bindLong(10, pin.getNotificationId());
+
+                            long insertStart = tracer.start();
+                            pin.setId(insertStatement.executeInsert());
+                            indexContent(pin.getId(), pin, true);
+                            tracer.end(PinTracer.INSERT, insertStart, 1, SQL_INSERT);
+                        } else {
+                            keepStoredValues(pin);
+                            executeUpdate(pin.getId(), pin);
+                        }
+                    }
+                }
+
+                database.setTransactionSuccessful();
+                success = true;
+            } finally {
+                database.endTransaction();
+
+                // allocated notification ids were not stored
+                if (!success) {
+                    invalidateCache();
+                }
+            }
+            tracer.end(PinTracer.BATCH, start, pins.size(), SQL_TRANSACTION);
+
+            for (PinSpec pin : pins) {
+                cachePut(pin);
+            }
+        }
+
+        if (pins.size() > MAX_ROW_NOTIFICATIONS) {
+            notifyChange(PinContract.CONTENT_URI);
+        } else {
+            for (PinSpec pin : pins) {
+                notifyPinChanged(pin.getId());
+            }
+        }
+        onPinsChanged();
+    }
+
+    /**
+     * This method deletes all pins with the given ids within one transaction
+     *
+     * @param ids the ids of the pins to delete
+     * @return the amount of deleted pins
+     */
+    public int deletePins(@NonNull long[] ids) {
+        flush();
+
+        int deleted = 0;
+        synchronized (cacheLock) {
+            long start = tracer.start();
+            database.beginTransaction();
+            try {
+                synchronized (statementLock) {
+                    for (long id : ids) {
+                        deleted += executeDelete(id);
+                    }
+                }
+
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            tracer.end(PinTracer.BATCH, start, ids.length, SQL_TRANSACTION);
+
+            for (long id : ids) {
+                cacheRemove(id);
+            }
+        }
+
+        if (ids.length > MAX_ROW_NOTIFICATIONS) {
+            notifyChange(PinContract.CONTENT_URI);
+        } else {
+            for (long id : ids) {
+                notifyPinChanged(id);
+            }
+        }
+        onPinsChanged();
+        return deleted;
+    }
+
+    /**
+     * This method returns all pins with the given ids.
+     * Ids without a pin are skipped.
+     *
+     * @param ids the ids of the pins to return
+     * @return the found pins
+     */
+    @NonNull
+    public List<PinSpec> getPins(@NonNull long[] ids) {
+        List<PinSpec> pins = new ArrayList<>(ids.length);
+
+        synchronized (cacheLock) {
+            LongSparseArray<PinSpec> cache = getCache();
+            for (long id : ids) {
+                PinSpec pin = cache.get(id);
+
+                if (pin != null) {
+                    pins.add(pin);
+                }
+            }
+        }
+
+        return pins;
+    }
+
+    /**
+     * This method returns the pin with the given id.
+     * Like all pins returned by this class it is shared with the cache and must not be changed,
+     * write a new {@link PinSpec} with the same id instead.
+     *
+     * @param id the id of the pin
+     * @return the pin or null if there is no pin with this id
+     */
+    @Nullable
+    public PinSpec getPin(long id) {
+        synchronized (cacheLock) {
+            return getCache().get(id);
+        }
+    }
+
+    /**
+     * This method binds the values of a pin to an insert or update statement
+     */
+    private void bindPin(@NonNull SQLiteStatement statement, @NonNull PinSpec pin) {
+        compressContent(pin);
+        byte[] compressedContent = pin.getCompressedContent();
+
+        statement.bindString(1, pin.getTitle());
+        statement.bindLong(3, pin.getVisibility());
+        statement.bindLong(4, pin.getPriority());
+        statement.bindLong(5, pin.isPersistent() ? 1 : 0);
+        statement.bindLong(6, pin.isShowActions() ? 1 : 0);
+        statement.bindLong(7, pin.getUpdatedAt());
+
+        if (compressedContent != null) {
+            statement.bindString(2, pin.getContentPreview());
+            statement.bindBlob(8, compressedContent);
+        } else {
+            statement.bindString(2, pin.getContent());
+            statement.bindNull(8);
+        }
+    }
+
+    /**
+     * This method compresses the content of a pin if it is longer than the configured threshold.
+     * Content that was read compressed is kept as it is, without inflating it.
+     */
+    private void compressContent(@NonNull PinSpec pin) {
+        if (pin.getCompressedContent() == null) {
+            pin.setCompressedContent(PinContent.compress(pin.getContent(), config.compressionThreshold));
+        }
+    }
+
+    /* callers must hold statementLock */
+    private void executeUpdate(long id, @NonNull PinSpec pin) {
+        bindPin(updateStatement, pin);
+        updateStatement.bindLong(9, id);
+
+        long start = tracer.start();
+        int updated = updateStatement.executeUpdateDelete();
+        if (updated > 0) {
+            indexContent(id, pin, false);
+        }
+        tracer.end(PinTracer.UPDATE, start, updated, SQL_UPDATE);
+    }
+
+    /**
+     * This method indexes the full text of compressed content for search, after the triggers
+     * indexed its preview. Content that was read compressed and not inflated since is unchanged
+     * and already indexed. Callers must be within the transaction of the write.
+     *
+     * @param id       the id of the written pin
+     * @param pin      the written pin
+     * @param inserted true if the pin was inserted, false if it was updated
+     */
+    private void indexContent(long id, @NonNull PinSpec pin, boolean inserted) {
+        if (pin.getCompressedContent() != null && (inserted || pin.isContentInflated())) {
+            database.execSQL(SQL_INDEX_CONTENT, new Object[]{pin.getContent(), id});
+        }
+    }
+
+    /* callers must hold statementLock */
+    private int executeDelete(long id) {
+        deleteStatement.bindLong(1, id);
+
+        long start = tracer.start();
+        int deleted = deleteStatement.executeUpdateDelete();
+        tracer.end(PinTracer.DELETE, start, deleted, SQL_DELETE);
+        return deleted;
     }
 
     /**
@@ -173,16 +800,176 @@ public class PinDatabase extends SQLiteOpenHelper {
      * @return the amount of entries
      */
     public long count() {
-        return queryNumEntries(database, PinDatabase.TABLE_PINS);
+        synchronized (cacheLock) {
+            return getCache().size();
+        }
+    }
+
+    /**
+     * This method returns a version that grows with every insert, update and delete of a pin,
+     * including changes made by other processes. Queued writes are committed first.
+     *
+     * @return the change version of the pins
+     */
+    public long getChangeVersion() {
+        flush();
+
+        return longForQuery(database, "SELECT value FROM " + TABLE_PIN_META
+                + " WHERE key = 'change_version'", null);
+    }
+
+    /**
+     * This method runs several changes of pins within one transaction.
+     * <p>
+     * Pending queued writes are committed first and other writers wait until the
+     * transaction ends. Changes of the callable bypass the write queue, so they are
+     * written on the calling thread and rolled back with the transaction. If it fails, the cache is reloaded and no change is notified.
+     *
+     * @param callable the changes to run, using the methods of this class
+     * @return the result of the callable
+     * @throws Exception the exception thrown by the callable
+     */
+    <T> T runInTransaction(@NonNull Callable<T> callable) throws Exception {
+        // the cache lock is taken before the database lock, like every other writer does
+        synchronized (cacheLock) {
+            flush();
+
+            boolean success = false;
+            database.beginTransaction();
+            try {
+                T result = callable.call();
+                database.setTransactionSuccessful();
+                success = true;
+                return result;
+            } finally {
+                database.endTransaction();
+
+                if (!success) {
+                    invalidateCache();
+                }
+                sendPendingNotifications(success);
+            }
+        }
+    }
+
+    private void notifyPinChanged(long id) {
+        notifyChange(PinContract.buildPinUri(id));
+    }
+
+    /**
+     * This method notifies observers of {@link PinProvider} about a change,
+     * or keeps the notification until the running transaction has ended
+     *
+     * @param uri uri of the changed pin or all pins
+     */
+    private void notifyChange(@NonNull Uri uri) {
+        if (database.inTransaction()) {
+            synchronized (pendingNotifications) {
+                pendingNotifications.add(uri);
+            }
+        } else {
+            contentResolver.notifyChange(uri, null);
+        }
+    }
+
+    private void sendPendingNotifications(boolean send) {
+        Uri[] uris;
+        synchronized (pendingNotifications) {
+            uris = pendingNotifications.toArray(new Uri[0]);
+            pendingNotifications.clear();
+        }
+
+        if (!send) {
+            return;
+        }
+
+        if (uris.length > MAX_ROW_NOTIFICATIONS) {
+            contentResolver.notifyChange(PinContract.CONTENT_URI, null);
+        } else {
+            for (Uri uri : uris) {
+                contentResolver.notifyChange(uri, null);
+            }
+        }
+    }
+
+    /**
+     * This method gets called after every change of the pins, including queued ones
+     */
+    private void onPinsChanged() {
+        history.scheduleCompaction();
+
+        for (PinSnapshot snapshot : snapshots) {
+            snapshot.scheduleWrite();
+        }
+    }
+
+    /**
+     * This method keeps a snapshot of the pins in a file, see {@link PinSnapshot}.
+     * It is written now if it does not exist or was written by another version.
+     *
+     * @param file          the file of the snapshot
+     * @param hiddenContent the content kept instead of that of private pins, secret pins are
+     *                      left out as well; null to keep all pins as they are
+     */
+    synchronized void addSnapshot(@NonNull File file, @Nullable String hiddenContent) {
+        PinSnapshot snapshot = new PinSnapshot(this, file, hiddenContent);
+
+        PinSnapshot[] snapshots = Arrays.copyOf(this.snapshots, this.snapshots.length + 1);
+        snapshots[snapshots.length - 1] = snapshot;
+        this.snapshots = snapshots;
+
+        snapshot.scheduleWriteIfOutdated();
+    }
+
+    /**
+     * This method keeps the snapshot in device protected storage, which restores the pins on the
+     * lock screen before the first unlock. It leaves out secret pins and the content of private
+     * ones, but their titles can be read without the credentials of the user, so it is opt-in.
+     * The file is written or deleted on the thread of the snapshot.
+     *
+     * @param context the context to get the device protected storage with
+     * @param enabled false to delete the snapshot, so no pin is readable before the first unlock
+     */
+    public synchronized void setLockScreenSnapshot(@NonNull Context context, boolean enabled) {
+        File file = PinSnapshot.getDeviceProtectedFile(context);
+        if (file == null) {
+            return;
+        }
+
+        for (int i = 0; i < snapshots.length; i++) {
+            if (snapshots[i].writesTo(file)) {
+                if (enabled) {
+                    return;
+                }
+
+                PinSnapshot snapshot = snapshots[i];
+                PinSnapshot[] remaining = new PinSnapshot[snapshots.length - 1];
+                System.arraycopy(snapshots, 0, remaining, 0, i);
+                System.arraycopy(snapshots, i + 1, remaining, i, remaining.length - i);
+                snapshots = remaining;
+                snapshot.delete();
+                return;
+            }
+        }
+
+        if (enabled) {
+            addSnapshot(file, context.getString(R.string.message_hidden_private_content));
+        } else {
+            // a snapshot written by an earlier process
+            new PinSnapshot(this, file).delete();
+        }
     }
 
     /**
      * This method gets called on insert() and delete()
      */
     private void onDatabaseAction() {
-        long count = count();
+        // counting needs an extra query, so only do it for debug builds
+        if (BuildConfig.DEBUG) {
+            long count = queryNumEntries(database, PinDatabase.TABLE_PINS);
 
-        Log.i(TAG, "onDatabaseAction() count " + count);
+            Log.i(TAG, "onDatabaseAction() count " + count);
+        }
     }
 
 
@@ -193,18 +980,399 @@ public class PinDatabase extends SQLiteOpenHelper {
      */
     @NonNull
     public Map<Integer, PinSpec> getAllPinsMap() {
-        Map<Integer, PinSpec> pinMap = new ArrayMap<>();
+        synchronized (cacheLock) {
+            LongSparseArray<PinSpec> cache = getCache();
+
+            Map<Integer, PinSpec> pinMap = new ArrayMap<>(cache.size());
+            for (int i = 0; i < cache.size(); i++) {
+                PinSpec pinSpec = cache.valueAt(i);
+                pinMap.put(pinSpec.getIdAsInt(), pinSpec);
+            }
+
+            return pinMap;
+        }
+    }
+
+    /**
+     * This method reads all pins changed after the given time from the database.
+     * Deleted pins are not part of the result.
+     *
+     * @param timestamp time in milliseconds since epoch
+     * @return the changed pins, ordered by their modification time
+     */
+    @NonNull
+    public List<PinSpec> getPinsUpdatedSince(long timestamp) {
+        flush();
+
+        List<PinSpec> pins = new ArrayList<>();
+        long start = tracer.start();
+        Cursor cursor = database.query(PinDatabase.TABLE_PINS, columns,
+                PinDatabase.COLUMN_UPDATED_AT + " > ?", new String[]{String.valueOf(timestamp)},
+                null, null, PinDatabase.COLUMN_UPDATED_AT);
+
+        if (cursor.moveToFirst()) {
+            PinSpecMapper mapper = new PinSpecMapper(cursor);
+
+            while (!cursor.isAfterLast()) {
+                pins.add(mapper.map(cursor));
+                cursor.moveToNext();
+            }
+        }
+
+        cursor.close();
+        tracer.end(PinTracer.QUERY, start, pins.size(), SQL_SELECT);
+        return pins;
+    }
+
+    /**
+     * This method passes every pin to the visitor, ordered by id if read from the database.
+     * <p>
+     * If the pin cache is loaded it is used, otherwise the pins are read in pages of
+     * {@link #VISIT_PAGE_SIZE} without loading the cache, so memory stays bounded regardless
+     * of the amount of pins. No lock or cursor is held while the visitor runs.
+     *
+     * @param visitor the visitor to call for each pin
+     */
+    public void forEachPin(@NonNull PinVisitor visitor) {
+        PinSpec[] cached = null;
+
+        synchronized (cacheLock) {
+            if (cache != null) {
+                cached = new PinSpec[cache.size()];
+                for (int i = 0; i < cached.length; i++) {
+                    cached[i] = cache.valueAt(i);
+                }
+            }
+        }
+
+        if (cached != null) {
+            for (PinSpec pin : cached) {
+                visitor.visit(pin);
+            }
+            return;
+        }
+
+        flush();
+
+        PinSpec[] page = new PinSpec[VISIT_PAGE_SIZE];
+        String[] args = new String[1];
+        String limit = String.valueOf(VISIT_PAGE_SIZE);
+        long lastId = -1;
+        int size;
+
+        do {
+            // continue after the last id instead of using an offset, so every page is an index lookup
+            args[0] = String.valueOf(lastId);
+            size = 0;
+
+            long start = tracer.start();
+            Cursor cursor = database.query(PinDatabase.TABLE_PINS, columns, PinDatabase.COLUMN_ID + " > ?",
+                    args, null, null, PinDatabase.COLUMN_ID, limit);
+            if (cursor.moveToFirst()) {
+                PinSpecMapper mapper = new PinSpecMapper(cursor);
 
+                while (!cursor.isAfterLast()) {
+                    page[size++] = mapper.map(cursor);
+                    cursor.moveToNext();
+                }
+            }
+            cursor.close();
+            tracer.end(PinTracer.QUERY, start, size, SQL_SELECT);
+
+            for (int i = 0; i < size; i++) {
+                lastId = page[i].getId();
+                visitor.visit(page[i]);
+                page[i] = null;
+            }
+        } while (size == VISIT_PAGE_SIZE);
+    }
+
+    /**
+     * This method searches the title and content of all pins.
+     * <p>
+     * Every word of the query has to match the start of a word within the pin.
+     * Matches are ranked by how often the words occur within a pin compared to
+     * all pins, with matches within the title counting twice.
+     *
+     * @param query the words to search for
+     * @param limit the maximum amount of pins to return
+     * @return the matching pins, best match first
+     */
+    @NonNull
+    public List<PinSpec> search(@NonNull String query, int limit) {
+        String match = toMatchQuery(query);
+        if (match.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        flush();
+
+        // keep only the best matches, the worst of them on top
+        PriorityQueue<SearchMatch> best = new PriorityQueue<>(Math.min(limit, 64));
+        long start = tracer.start();
+        int matches = 0;
+        Cursor cursor = database.rawQuery(SQL_SEARCH, new String[]{match});
+        while (cursor.moveToNext()) {
+            matches++;
+            SearchMatch searchMatch = new SearchMatch(cursor.getLong(0), rank(cursor.getBlob(1)));
+
+            if (best.size() < limit) {
+                best.add(searchMatch);
+            } else if (best.peek().score < searchMatch.score) {
+                best.poll();
+                best.add(searchMatch);
+            }
+        }
+        cursor.close();
+        tracer.end(PinTracer.SEARCH, start, matches, SQL_SEARCH);
+
+        PinSpec[] pins = new PinSpec[best.size()];
+        int size = 0;
+        synchronized (cacheLock) {
+            LongSparseArray<PinSpec> cache = getCache();
+
+            for (int i = pins.length - 1; i >= 0; i--) {
+                PinSpec pin = cache.get(best.poll().id);
+
+                if (pin != null) {
+                    pins[i] = pin;
+                    size++;
+                }
+            }
+        }
+
+        List<PinSpec> result = new ArrayList<>(size);
+        for (PinSpec pin : pins) {
+            if (pin != null) {
+                result.add(pin);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * This method turns user input into a full-text query that matches every word as prefix.
+     * Quotes are dropped so the input can not use the query syntax.
+     *
+     * @param query the user input
+     * @return the full-text query, empty if the input contains no words
+     */
+    @NonNull
+    static String toMatchQuery(@NonNull String query) {
+        StringBuilder match = new StringBuilder(query.length() + 8);
+
+        for (String word : query.replace("\"", " ").trim().split("\\s+")) {
+            if (!word.isEmpty()) {
+                match.append(match.length() > 0 ? " \"" : "\"").append(word).append("*\"");
+            }
+        }
+
+        return match.toString();
+    }
+
+    /**
+     * This method ranks a full-text match by the result of matchinfo with the arguments pcx
+     *
+     * @param matchInfo 32-bit integers in native byte order; the amount of phrases, the amount
+     *                  of columns and for each phrase and column the hits within this row,
+     *                  the hits within all rows and the amount of rows with hits
+     * @return the score of the match, higher is better
+     */
+    static float rank(@NonNull byte[] matchInfo) {
+        IntBuffer info = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phrases = info.get(0);
+        int columnCount = info.get(1);
+
+        float score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columnCount; column++) {
+                int offset = 2 + 3 * (phrase * columnCount + column);
+                int rowHits = info.get(offset);
+                int allHits = info.get(offset + 1);
+
+                if (rowHits > 0) {
+                    float weight = column < SEARCH_WEIGHTS.length ? SEARCH_WEIGHTS[column] : 1f;
+                    score += weight * rowHits / allHits;
+                }
+            }
+        }
+
+        return score;
+    }
+
+    private static final class SearchMatch implements Comparable<SearchMatch> {
+        final long id;
+        final float score;
+
+        SearchMatch(long id, float score) {
+            this.id = id;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(@NonNull SearchMatch other) {
+            return Float.compare(score, other.score);
+        }
+    }
+
+    /**
+     * This method returns the pin cache and loads it from the database on first use.
+     * Callers must hold cacheLock.
+     *
+     * @return all pins by their id
+     */
+    @NonNull
+    private LongSparseArray<PinSpec> getCache() {
+        if (cache == null) {
+            // the writer thread never takes cacheLock, so waiting for it here is safe
+            flush();
+            cache = loadPins();
+            notificationIds = new NotificationIdAllocator();
+
+            for (int i = 0; i < cache.size(); i++) {
+                PinSpec pin = cache.valueAt(i);
+
+                if (!pin.hasNotificationId() || !notificationIds.markUsed(pin.getNotificationId())) {
+                    Log.w(TAG, "Pin with id " + pin.getId() + " has no unique notification id");
+                }
+            }
+        }
+
+        return cache;
+    }
+
+    /* callers must hold cacheLock */
+    private void invalidateCache() {
+        cache = null;
+        notificationIds = null;
+    }
+
+    /**
+     * This method reserves a notification id for a new pin.
+     * Callers must hold cacheLock.
+     *
+     * @return an id no other pin uses
+     */
+    private int allocateNotificationId() {
+        getCache();
+        return notificationIds.allocate();
+    }
+
+    /**
+     * This method copies the creation time and notification id of the cached pin to a pin
+     * that replaces it, as updates never change them within the database.
+     * Callers must hold cacheLock.
+     *
+     * @param pin the pin that replaces the cached one
+     */
+    private void keepStoredValues(@NonNull PinSpec pin) {
+        PinSpec previous = getCache().get(pin.getId());
+
+        if (previous != null) {
+            pin.setCreatedAt(previous.getCreatedAt());
+            pin.setNotificationId(previous.getNotificationId());
+        }
+    }
+
+    /**
+     * This method keeps a copy of a written pin, so later changes of the
+     * instance of the caller do not reach the cache. Callers must hold cacheLock.
+     *
+     * @param pin the written pin
+     * @return the copy held by the cache
+     */
+    @NonNull
+    private PinSpec cachePut(@NonNull PinSpec pin) {
+        PinSpec copy = new PinSpec(pin);
+        if (cache != null) {
+            cache.put(copy.getId(), copy);
+        }
+        return copy;
+    }
+
+    /* callers must hold cacheLock */
+    private void cacheRemove(long id) {
+        if (cache != null) {
+            PinSpec previous = cache.get(id);
+
+            if (previous != null) {
+                // queued deletes are written before any new pin, so the id can not be taken twice
+                notificationIds.release(previous.getNotificationId());
+                cache.remove(id);
+            }
+        }
+    }
+
+    /**
+     * This method reads all pins from the database
+     *
+     * @return all pins by their id
+     */
+    @NonNull
+    private LongSparseArray<PinSpec> loadPins() {
+        long start = tracer.start();
         Cursor cursor = database.query(PinDatabase.TABLE_PINS, columns, null, null, null, null, null);
+        LongSparseArray<PinSpec> pins = new LongSparseArray<>(cursor.getCount());
+
         if (cursor.moveToFirst()) {
+            PinSpecMapper mapper = new PinSpecMapper(cursor);
+
             while (!cursor.isAfterLast()) {
-                PinSpec pinSpec = new PinSpec(cursor);
-                pinMap.put(pinSpec.getIdAsInt(), pinSpec);
+                PinSpec pinSpec = mapper.map(cursor);
+                pins.put(pinSpec.getId(), pinSpec);
                 cursor.moveToNext();
             }
         }
 
         cursor.close();
-        return pinMap;
+        tracer.end(PinTracer.LOAD, start, pins.size(), SQL_SELECT);
+        Log.i(TAG, "Loaded " + pins.size() + " pins into cache");
+        return pins;
+    }
+
+    /**
+     * This class holds the connection settings of the pins database.
+     */
+    static final class Config {
+        /**
+         * Write-ahead logging lets the receivers and the dialog read while a write is in
+         * progress. Synchronous mode NORMAL is safe with WAL and syncs only on checkpoints.
+         * The table is small, so a page cache of 512 KiB is plenty for the primary connection,
+         * most reads are served by the pin cache anyway. The history keeps
+         * up to 10 versions of a pin and 500 versions in total. Content of more than
+         * 2048 characters, like log excerpts, is stored compressed.
+         */
+        static final Config DEFAULT = new Config(true, "NORMAL", 512, "MEMORY", 10, 500,
+                PinContent.DEFAULT_THRESHOLD);
+
+        final boolean writeAheadLogging;
+        /* OFF, NORMAL, FULL or EXTRA */
+        final String synchronous;
+        final int cacheSizeKib;
+        /* DEFAULT, FILE or MEMORY */
+        final String tempStore;
+        /* retention of the pin history */
+        final int historyPerPin;
+        final int historyTotal;
+        /* content of more characters gets compressed */
+        final int compressionThreshold;
+
+        Config(boolean writeAheadLogging, @NonNull String synchronous, int cacheSizeKib, @NonNull String tempStore,
+               int historyPerPin, int historyTotal, int compressionThreshold) {
+            this.writeAheadLogging = writeAheadLogging;
+            this.synchronous = synchronous;
+            this.cacheSizeKib = cacheSizeKib;
+            this.tempStore = tempStore;
+            this.historyPerPin = historyPerPin;
+            this.historyTotal = historyTotal;
+            this.compressionThreshold = compressionThreshold;
+        }
+    }
+
+    /**
+     * This interface is used to visit pins one by one.
+     */
+    public interface PinVisitor {
+        void visit(@NonNull PinSpec pin);
     }
 }
@@ -0,0 +1,287 @@
+package de.dotwee.micropinner.database;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class gives access to deleted and overwritten versions of pins.
+ * <p>
+ * Versions are recorded by triggers on the pins table, see {@link PinMigrations},
+ * so every way of changing a pin is covered. The history is kept within a cap per
+ * pin and a global cap. Entries above the caps are removed by a background thread
+ * in small batches, shortly after the pins were changed.
+ */
+public final class PinHistory {
+    /**
+     * The pin was replaced by a newer version.
+     */
+    public static final int REASON_OVERWRITTEN = 1;
+    /**
+     * The pin was deleted.
+     */
+    public static final int REASON_DELETED = 2;
+
+    static final String TABLE_PIN_HISTORY = "pin_history";
+    private static final String TAG = PinHistory.class.getSimpleName();
+
+    /**
+     * Time to wait for further changes before the history gets compacted.
+     */
+    private static final long COMPACTION_DELAY_MS = 2000;
+    /**
+     * Maximum amount of entries removed within one statement.
+     */
+    private static final int COMPACTION_BATCH_SIZE = 200;
+
+    private static final String SQL_SELECT = "SELECT _id AS history_id, pin_id AS " + PinDatabase.COLUMN_ID + ", "
+            + "title, content, content_z, visibility, priority, persistent, show_actions, created_at, updated_at, "
+            + "reason, recorded_at, NULL AS " + PinDatabase.COLUMN_NOTIFICATION_ID + " FROM " + TABLE_PIN_HISTORY;
+    private static final String SQL_PINS_OVER_CAP = "SELECT pin_id FROM " + TABLE_PIN_HISTORY
+            + " GROUP BY pin_id HAVING COUNT(*) > ?";
+    private static final String SQL_TRIM_PIN = "DELETE FROM " + TABLE_PIN_HISTORY + " WHERE pin_id = ? AND _id IN ("
+            + "SELECT _id FROM " + TABLE_PIN_HISTORY + " WHERE pin_id = ? ORDER BY _id DESC LIMIT ? OFFSET ?)";
+    private static final String SQL_TRIM_ALL = "DELETE FROM " + TABLE_PIN_HISTORY + " WHERE _id IN ("
+            + "SELECT _id FROM " + TABLE_PIN_HISTORY + " ORDER BY _id DESC LIMIT ? OFFSET ?)";
+
+    private final PinDatabase pinDatabase;
+    private final int maxPerPin;
+    private final int maxTotal;
+    private final ScheduledExecutorService executor;
+    private final Runnable compaction = this::compact;
+
+    private final Object lock = new Object();
+    private boolean scheduled = false;
+
+    PinHistory(@NonNull PinDatabase pinDatabase, int maxPerPin, int maxTotal) {
+        this.pinDatabase = pinDatabase;
+        this.maxPerPin = maxPerPin;
+        this.maxTotal = maxTotal;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                runnable -> new Thread(runnable, TAG));
+    }
+
+    /**
+     * This method lists the recorded versions of a pin
+     *
+     * @param pinId id of the pin
+     * @return the versions of the pin, latest first
+     */
+    @NonNull
+    public List<Entry> list(long pinId) {
+        return query(SQL_SELECT + " WHERE pin_id = ? ORDER BY history_id DESC",
+                new String[]{String.valueOf(pinId)});
+    }
+
+    /**
+     * This method lists the recorded versions of all pins
+     *
+     * @param limit maximum amount of entries to return
+     * @return the versions of all pins, latest first
+     */
+    @NonNull
+    public List<Entry> list(int limit) {
+        return query(SQL_SELECT + " ORDER BY history_id DESC LIMIT ?",
+                new String[]{String.valueOf(limit)});
+    }
+
+    /**
+     * This method restores a recorded version of a pin.
+     * <p>
+     * If the pin still exists it gets overwritten, so its current version is kept in
+     * the history as well. Otherwise the pin is inserted again with its previous id.
+     *
+     * @param historyId id of the history entry
+     * @return the restored pin or null if there is no such entry
+     */
+    @Nullable
+    public PinSpec restore(long historyId) {
+        List<Entry> entries = query(SQL_SELECT + " WHERE history_id = ?",
+                new String[]{String.valueOf(historyId)});
+        if (entries.isEmpty()) {
+            return null;
+        }
+
+        PinSpec pin = entries.get(0).getPin();
+        if (pinDatabase.getPin(pin.getId()) != null) {
+            pinDatabase.writePin(pin);
+        } else {
+            pinDatabase.restorePin(pin);
+        }
+
+        Log.i(TAG, "Restored history entry " + historyId + " of pin " + pin.getId());
+        return pin;
+    }
+
+    /**
+     * @return the amount of recorded versions of all pins
+     */
+    public long count() {
+        return DatabaseUtils.queryNumEntries(pinDatabase.getWritableDatabase(), TABLE_PIN_HISTORY);
+    }
+
+    /**
+     * This method schedules a compaction, unless one is already pending
+     */
+    void scheduleCompaction() {
+        synchronized (lock) {
+            if (!scheduled && !executor.isShutdown()) {
+                scheduled = true;
+                executor.schedule(compaction, COMPACTION_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * This method drops pending compactions and waits for a running one
+     */
+    void shutdown() {
+        executor.shutdownNow();
+
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * This method removes all entries above the caps.
+     * <p>
+     * Every batch is a statement of its own, so writers only wait for a single batch.
+     */
+    void compact() {
+        synchronized (lock) {
+            scheduled = false;
+        }
+
+        SQLiteDatabase database = pinDatabase.getWritableDatabase();
+        int removed = 0;
+
+        List<Long> pinIds = new ArrayList<>();
+        Cursor cursor = database.rawQuery(SQL_PINS_OVER_CAP, new String[]{String.valueOf(maxPerPin)});
+        while (cursor.moveToNext()) {
+            pinIds.add(cursor.getLong(0));
+        }
+        cursor.close();
+
+        SQLiteStatement trimPin = database.compileStatement(SQL_TRIM_PIN);
+        try {
+            for (long pinId : pinIds) {
+                int deleted;
+                do {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+
+                    trimPin.bindLong(1, pinId);
+                    trimPin.bindLong(2, pinId);
+                    trimPin.bindLong(3, COMPACTION_BATCH_SIZE);
+                    trimPin.bindLong(4, maxPerPin);
+                    deleted = trimPin.executeUpdateDelete();
+                    removed += deleted;
+                } while (deleted == COMPACTION_BATCH_SIZE);
+            }
+        } finally {
+            trimPin.close();
+        }
+
+        SQLiteStatement trimAll = database.compileStatement(SQL_TRIM_ALL);
+        try {
+            int deleted;
+            do {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+
+                trimAll.bindLong(1, COMPACTION_BATCH_SIZE);
+                trimAll.bindLong(2, maxTotal);
+                deleted = trimAll.executeUpdateDelete();
+                removed += deleted;
+            } while (deleted == COMPACTION_BATCH_SIZE);
+        } finally {
+            trimAll.close();
+        }
+
+        if (removed > 0) {
+            Log.i(TAG, "Compaction removed " + removed + " history entries");
+        }
+    }
+
+    @NonNull
+    private List<Entry> query(@NonNull String sql, @NonNull String[] args) {
+        pinDatabase.flush();
+
+        List<Entry> entries = new ArrayList<>();
+        Cursor cursor = pinDatabase.getWritableDatabase().rawQuery(sql, args);
+
+        if (cursor.moveToFirst()) {
+            PinSpecMapper mapper = new PinSpecMapper(cursor);
+            int historyIdIndex = cursor.getColumnIndexOrThrow("history_id");
+            int reasonIndex = cursor.getColumnIndexOrThrow("reason");
+            int recordedAtIndex = cursor.getColumnIndexOrThrow("recorded_at");
+
+            while (!cursor.isAfterLast()) {
+                entries.add(new Entry(cursor.getLong(historyIdIndex), cursor.getInt(reasonIndex),
+                        cursor.getLong(recordedAtIndex), mapper.map(cursor)));
+                cursor.moveToNext();
+            }
+        }
+
+        cursor.close();
+        return entries;
+    }
+
+    /**
+     * This class represents a recorded version of a pin.
+     */
+    public static final class Entry {
+        private final long historyId;
+        private final int reason;
+        private final long recordedAt;
+        private final PinSpec pin;
+
+        Entry(long historyId, int reason, long recordedAt, @NonNull PinSpec pin) {
+            this.historyId = historyId;
+            this.reason = reason;
+            this.recordedAt = recordedAt;
+            this.pin = pin;
+        }
+
+        public long getHistoryId() {
+            return historyId;
+        }
+
+        /**
+         * @return {@link #REASON_OVERWRITTEN} or {@link #REASON_DELETED}
+         */
+        public int getReason() {
+            return reason;
+        }
+
+        /**
+         * @return time the version was replaced, milliseconds since epoch
+         */
+        public long getRecordedAt() {
+            return recordedAt;
+        }
+
+        /**
+         * @return the pin as it was before, with its original id
+         */
+        @NonNull
+        public PinSpec getPin() {
+            return pin;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package de.dotwee.micropinner.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import androidx.annotation.NonNull;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * This class contains the ordered steps to upgrade the pins database.
+ * <p>
+ * The step at index n upgrades the schema from version n + 1 to version n + 2.
+ * New databases are created with the version 1 schema and then run through every
+ * step, so each schema change exists only once and no step drops existing pins.
+ * <p>
+ * Steps use plain SQL instead of the column constants of {@link PinDatabase},
+ * as they have to keep describing the schema of the time they were written.
+ */
+final class PinMigrations {
+    private static final String TAG = PinMigrations.class.getSimpleName();
+    /**
+     * Row ids up to this value are kept as notification id of existing pins
+     */
+    private static final int MAX_KEPT_NOTIFICATION_ID = 0xFFFF;
+
+    interface Step {
+        void migrate(@NonNull SQLiteDatabase database);
+    }
+
+    private static final Step[] STEPS = {
+
+            // 1 -> 2: track creation and modification time, indexed for incremental queries
+            database -> {
+                long now = System.currentTimeMillis();
+
+                database.execSQL("ALTER TABLE pins ADD COLUMN created_at integer not null default 0");
+                database.execSQL("ALTER TABLE pins ADD COLUMN updated_at integer not null default 0");
+                database.execSQL("UPDATE pins SET created_at = ?, updated_at = ?", new Object[]{now, now});
+                database.execSQL("CREATE INDEX pins_updated_at ON pins (updated_at)");
+            },
+
+            // 2 -> 3: full-text index over title and content, kept in sync by triggers
+            database -> {
+                database.execSQL("CREATE VIRTUAL TABLE pins_fts USING fts4(content=\"pins\", title, content)");
+
+                // terms are removed with the old row values, so this has to happen before the change
+                database.execSQL("CREATE TRIGGER pins_fts_before_update BEFORE UPDATE ON pins BEGIN "
+                        + "DELETE FROM pins_fts WHERE docid = old._id; END");
+                database.execSQL("CREATE TRIGGER pins_fts_before_delete BEFORE DELETE ON pins BEGIN "
+                        + "DELETE FROM pins_fts WHERE docid = old._id; END");
+                database.execSQL("CREATE TRIGGER pins_fts_after_update AFTER UPDATE ON pins BEGIN "
+                        + "INSERT INTO pins_fts (docid, title, content) VALUES (new._id, new.title, new.content); END");
+                database.execSQL("CREATE TRIGGER pins_fts_after_insert AFTER INSERT ON pins BEGIN "
+                        + "INSERT INTO pins_fts (docid, title, content) VALUES (new._id, new.title, new.content); END");
+
+                database.execSQL("INSERT INTO pins_fts (pins_fts) VALUES ('rebuild')");
+            },
+
+            // 3 -> 4: keep deleted and overwritten versions of pins
+            database -> {
+                database.execSQL("CREATE TABLE pin_history ("
+                        + "_id integer primary key autoincrement, "
+                        + "pin_id integer not null, "
+                        + "title text not null, "
+                        + "content text not null, "
+                        + "visibility integer not null, "
+                        + "priority integer not null, "
+                        + "persistent integer not null, "
+                        + "show_actions integer not null, "
+                        + "created_at integer not null, "
+                        + "updated_at integer not null, "
+                        + "reason integer not null, "
+                        + "recorded_at integer not null)");
+                database.execSQL("CREATE INDEX pin_history_pin_id ON pin_history (pin_id, _id)");
+
+                String copyOld = "INSERT INTO pin_history (pin_id, title, content, visibility, priority, persistent, "
+                        + "show_actions, created_at, updated_at, reason, recorded_at) VALUES (old._id, old.title, "
+                        + "old.content, old.visibility, old.priority, old.persistent, old.show_actions, old.created_at, "
+                        + "old.updated_at, %d, CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)); ";
+
+                // only changes of what the user sees are recorded, not changed timestamps
+                database.execSQL("CREATE TRIGGER pin_history_on_update AFTER UPDATE ON pins WHEN "
+                        + "old.title IS NOT new.title OR old.content IS NOT new.content "
+                        + "OR old.visibility IS NOT new.visibility OR old.priority IS NOT new.priority "
+                        + "OR old.persistent IS NOT new.persistent OR old.show_actions IS NOT new.show_actions "
+                        + "BEGIN " + String.format(Locale.ROOT, copyOld, 1) + "END");
+                database.execSQL("CREATE TRIGGER pin_history_on_delete AFTER DELETE ON pins "
+                        + "BEGIN " + String.format(Locale.ROOT, copyOld, 2) + "END");
+            },
+
+            // 4 -> 5: large content is stored compressed, with a plain preview in the content column
+            database -> {
+                database.execSQL("DROP TRIGGER pin_history_on_update");
+                database.execSQL("DROP TRIGGER pin_history_on_delete");
+                database.execSQL("ALTER TABLE pins ADD COLUMN content_z blob");
+                database.execSQL("ALTER TABLE pin_history ADD COLUMN content_z blob");
+
+                // compressing existing pins is not a change worth keeping in the history
+                compressContent(database);
+
+                String copyOld = "INSERT INTO pin_history (pin_id, title, content, content_z, visibility, priority, "
+                        + "persistent, show_actions, created_at, updated_at, reason, recorded_at) VALUES (old._id, "
+                        + "old.title, old.content, old.content_z, old.visibility, old.priority, old.persistent, "
+                        + "old.show_actions, old.created_at, old.updated_at, %d, "
+                        + "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)); ";
+
+                database.execSQL("CREATE TRIGGER pin_history_on_update AFTER UPDATE ON pins WHEN "
+                        + "old.title IS NOT new.title OR old.content IS NOT new.content "
+                        + "OR old.content_z IS NOT new.content_z "
+                        + "OR old.visibility IS NOT new.visibility OR old.priority IS NOT new.priority "
+                        + "OR old.persistent IS NOT new.persistent OR old.show_actions IS NOT new.show_actions "
+                        + "BEGIN " + String.format(Locale.ROOT, copyOld, 1) + "END");
+                database.execSQL("CREATE TRIGGER pin_history_on_delete AFTER DELETE ON pins "
+                        + "BEGIN " + String.format(Locale.ROOT, copyOld, 2) + "END");
+            },
+
+            // 5 -> 6: notification ids that are recycled, instead of casting the growing row id
+            database -> {
+                database.execSQL("ALTER TABLE pins ADD COLUMN notification_id integer");
+
+                // posted notifications use the row id, so it is kept unless it is far beyond the amount of pins
+                database.execSQL("UPDATE pins SET notification_id = _id WHERE _id BETWEEN 1 AND ?",
+                        new Object[]{MAX_KEPT_NOTIFICATION_ID});
+                assignNotificationIds(database);
+
+                database.execSQL("CREATE UNIQUE INDEX pins_notification_id ON pins (notification_id)");
+            },
+
+            // 6 -> 7: a version that grows with every change of the pins, kept by triggers
+            database -> {
+                database.execSQL("CREATE TABLE pin_meta (key text primary key, value integer not null)");
+                database.execSQL("INSERT INTO pin_meta (key, value) VALUES ('change_version', 0)");
+
+                String increment = "BEGIN UPDATE pin_meta SET value = value + 1 WHERE key = 'change_version'; END";
+                database.execSQL("CREATE TRIGGER pin_meta_on_insert AFTER INSERT ON pins " + increment);
+                database.execSQL("CREATE TRIGGER pin_meta_on_update AFTER UPDATE ON pins " + increment);
+                database.execSQL("CREATE TRIGGER pin_meta_on_delete AFTER DELETE ON pins " + increment);
+            },
+
+            // 7 -> 8: the full-text index keeps the full content of its own, as the content
+            // column only holds a preview of compressed content
+            database -> {
+                database.execSQL("DROP TRIGGER pins_fts_before_update");
+                database.execSQL("DROP TRIGGER pins_fts_before_delete");
+                database.execSQL("DROP TRIGGER pins_fts_after_update");
+                database.execSQL("DROP TRIGGER pins_fts_after_insert");
+                database.execSQL("DROP TABLE pins_fts");
+
+                // PinDatabase indexes the full text of compressed content after the triggers ran
+                database.execSQL("CREATE VIRTUAL TABLE pins_fts USING fts4(title, content)");
+                database.execSQL("CREATE TRIGGER pins_fts_on_insert AFTER INSERT ON pins BEGIN "
+                        + "INSERT INTO pins_fts (docid, title, content) VALUES (new._id, new.title, new.content); END");
+                database.execSQL("CREATE TRIGGER pins_fts_on_update AFTER UPDATE ON pins BEGIN "
+                        + "UPDATE pins_fts SET title = new.title, "
+                        + "content = CASE WHEN new.content_z IS NULL THEN new.content ELSE content END "
+                        + "WHERE docid = new._id; END");
+                database.execSQL("CREATE TRIGGER pins_fts_on_delete AFTER DELETE ON pins BEGIN "
+                        + "DELETE FROM pins_fts WHERE docid = old._id; END");
+
+                database.execSQL("INSERT INTO pins_fts (docid, title, content) SELECT _id, title, content FROM pins");
+                indexCompressedContent(database);
+
+                // the pins with their full content, for queries of the content provider
+                database.execSQL("CREATE VIEW pins_text AS SELECT pins._id AS _id, pins.title AS title, "
+                        + "pins_fts.content AS content, visibility, priority, persistent, show_actions, "
+                        + "created_at, updated_at FROM pins JOIN pins_fts ON pins_fts.docid = pins._id");
+            },
+    };
+
+    /**
+     * The schema version reached after running all steps
+     */
+    static final int LATEST_VERSION = STEPS.length + 1;
+
+    private PinMigrations() {
+    }
+
+    /**
+     * This method gives every pin without a notification id the next free one
+     */
+    private static void assignNotificationIds(@NonNull SQLiteDatabase database) {
+        NotificationIdAllocator allocator = new NotificationIdAllocator();
+
+        Cursor cursor = database.rawQuery("SELECT notification_id FROM pins WHERE notification_id IS NOT NULL", null);
+        while (cursor.moveToNext()) {
+            allocator.markUsed(cursor.getInt(0));
+        }
+        cursor.close();
+
+        cursor = database.rawQuery("SELECT _id FROM pins WHERE notification_id IS NULL", null);
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+
+        SQLiteStatement update = database.compileStatement("UPDATE pins SET notification_id = ? WHERE _id = ?");
+        try {
+            for (long id : ids) {
+                update.bindLong(1, allocator.allocate());
+                update.bindLong(2, id);
+                update.executeUpdateDelete();
+            }
+        } finally {
+            update.close();
+        }
+    }
+
+    /**
+     * This method compresses the content of all pins above the default threshold.
+     * The format of {@link PinContent} is versioned by its marker byte, so this stays valid.
+     */
+    private static void compressContent(@NonNull SQLiteDatabase database) {
+        SQLiteStatement update = database.compileStatement("UPDATE pins SET content = ?, content_z = ? WHERE _id = ?");
+        long lastId = -1;
+        int size;
+
+        try {
+            // pages by id, as updated rows leave the result of the query
+            do {
+                Cursor cursor = database.rawQuery("SELECT _id, content FROM pins "
+                                + "WHERE length(content) > ? AND _id > ? ORDER BY _id LIMIT 50",
+                        new String[]{String.valueOf(PinContent.DEFAULT_THRESHOLD), String.valueOf(lastId)});
+                long[] ids = new long[cursor.getCount()];
+                String[] contents = new String[ids.length];
+
+                for (size = 0; cursor.moveToNext(); size++) {
+                    ids[size] = cursor.getLong(0);
+                    contents[size] = cursor.getString(1);
+                }
+                cursor.close();
+
+                for (int i = 0; i < size; i++) {
+                    lastId = ids[i];
+                    byte[] compressed = PinContent.compress(contents[i], PinContent.DEFAULT_THRESHOLD);
+
+                    if (compressed != null) {
+                        update.bindString(1, PinContent.preview(contents[i]));
+                        update.bindBlob(2, compressed);
+                        update.bindLong(3, ids[i]);
+                        update.executeUpdateDelete();
+                    }
+                }
+            } while (size == 50);
+        } finally {
+            update.close();
+        }
+    }
+
+    /**
+     * This method replaces the indexed preview of all compressed pins with their full content
+     */
+    private static void indexCompressedContent(@NonNull SQLiteDatabase database) {
+        SQLiteStatement update = database.compileStatement("UPDATE pins_fts SET content = ? WHERE docid = ?");
+        long lastId = -1;
+        int size;
+
+        try {
+            do {
+                Cursor cursor = database.rawQuery("SELECT _id, content_z FROM pins "
+                                + "WHERE content_z IS NOT NULL AND _id > ? ORDER BY _id LIMIT 50",
+                        new String[]{String.valueOf(lastId)});
+                long[] ids = new long[cursor.getCount()];
+                byte[][] contents = new byte[ids.length][];
+
+                for (size = 0; cursor.moveToNext(); size++) {
+                    ids[size] = cursor.getLong(0);
+                    contents[size] = cursor.getBlob(1);
+                }
+                cursor.close();
+
+                for (int i = 0; i < size; i++) {
+                    lastId = ids[i];
+                    update.bindString(1, PinContent.inflate(contents[i]));
+                    update.bindLong(2, ids[i]);
+                    update.executeUpdateDelete();
+                }
+            } while (size == 50);
+        } finally {
+            update.close();
+        }
+    }
+
+    /**
+     * This method runs all steps between two versions in order
+     *
+     * @param database   the database to upgrade
+     * @param oldVersion the current schema version of the database
+     * @param newVersion the schema version to upgrade to
+     */
+    static void migrate(@NonNull SQLiteDatabase database, int oldVersion, int newVersion) {
+        if (oldVersion < 1 || newVersion > LATEST_VERSION) {
+            throw new IllegalArgumentException("Unknown database version " + oldVersion + " or " + newVersion);
+        }
+
+        for (int version = oldVersion; version < newVersion; version++) {
+            Log.i(TAG, "Migrating database from version " + version + " to " + (version + 1));
+            STEPS[version - 1].migrate(database);
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package de.dotwee.micropinner.database;
+
+import android.app.Notification;
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.os.Build;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.dotwee.micropinner.tools.NotificationTools;
+
+/**
+ * This class offers the pins to other apps and processes.
+ * <p>
+ * Queries run directly against the pins and the full text of their content, so projection,
+ * selection and sort order are handled by SQLite, also for compressed content, see
+ * {@link PinContent}. Writes go through {@link PinDatabase}, which keeps
+ * its cache, the history and the search index in sync and notifies the uri of every
+ * changed pin, see {@link PinContract}. The notifications of written pins are posted
+ * and cancelled through {@link NotificationTools}, like the dialog does.
+ * <p>
+ * Secret pins are not offered at all, other apps can neither read nor change them.
+ */
+public class PinProvider extends ContentProvider {
+    private static final int MATCH_PINS = 1;
+    private static final int MATCH_PIN_ID = 2;
+
+    private static final UriMatcher uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+    /* only the columns of the contract can be queried */
+    private static final Map<String, String> projectionMap = new HashMap<>();
+    private static final List<String> WRITABLE_COLUMNS = Arrays.asList(PinContract.Pins.TITLE,
+            PinContract.Pins.CONTENT, PinContract.Pins.VISIBILITY, PinContract.Pins.PRIORITY,
+            PinContract.Pins.PERSISTENT, PinContract.Pins.SHOW_ACTIONS);
+    /* columns returned without a projection */
+    private static final String[] CONTRACT_COLUMNS = {PinContract.Pins._ID, PinContract.Pins.TITLE,
+            PinContract.Pins.CONTENT, PinContract.Pins.VISIBILITY, PinContract.Pins.PRIORITY,
+            PinContract.Pins.PERSISTENT, PinContract.Pins.SHOW_ACTIONS, PinContract.Pins.CREATED_AT,
+            PinContract.Pins.UPDATED_AT};
+    /* values of inserted pins that are not given */
+    private static final PinSpec DEFAULT_PIN = new PinSpec("", "", Notification.VISIBILITY_PUBLIC,
+            Notification.PRIORITY_DEFAULT, false, false);
+
+    static {
+        uriMatcher.addURI(PinContract.AUTHORITY, "pins", MATCH_PINS);
+        uriMatcher.addURI(PinContract.AUTHORITY, "pins/#", MATCH_PIN_ID);
+
+        for (String column : CONTRACT_COLUMNS) {
+            projectionMap.put(column, column);
+        }
+    }
+
+    private volatile PinDatabase pinDatabase = null;
+    /* notification updates of the running applyBatch, applied once it is committed */
+    private final ThreadLocal<List<Runnable>> pendingUpdates = new ThreadLocal<>();
+
+    @Override
+    public boolean onCreate() {
+        // the database is opened on first access, not on the main thread during startup
+        return true;
+    }
+
+    @NonNull
+    private PinDatabase getPinDatabase() {
+        PinDatabase pinDatabase = this.pinDatabase;
+        if (pinDatabase == null) {
+            Context context = getContext();
+            if (context == null) {
+                throw new IllegalStateException("Provider is not attached");
+            }
+
+            pinDatabase = PinDatabase.getInstance(context);
+            this.pinDatabase = pinDatabase;
+        }
+
+        return pinDatabase;
+    }
+
+    /**
+     * This method lets tests use their own database
+     *
+     * @param pinDatabase the database to offer
+     */
+    void setPinDatabase(@NonNull PinDatabase pinDatabase) {
+        this.pinDatabase = pinDatabase;
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        switch (uriMatcher.match(uri)) {
+            case MATCH_PINS:
+                return PinContract.CONTENT_TYPE;
+
+            case MATCH_PIN_ID:
+                return PinContract.CONTENT_ITEM_TYPE;
+
+            default:
+                return null;
+        }
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        PinDatabase pinDatabase = getPinDatabase();
+        // queued writes have to be visible to the query
+        pinDatabase.flush();
+
+        String[] columns = projection != null ? projection : CONTRACT_COLUMNS;
+        Cursor cursor = newQueryBuilder(uri).query(pinDatabase.getReadableDatabase(),
+                columns, selection, selectionArgs, null, null, sortOrder);
+
+        Context context = getContext();
+        if (context != null) {
+            cursor.setNotificationUri(context.getContentResolver(), uri);
+        }
+        return cursor;
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        if (uriMatcher.match(uri) != MATCH_PINS) {
+            throw new IllegalArgumentException("Unsupported uri " + uri);
+        }
+        if (values == null || values.getAsString(PinContract.Pins.TITLE) == null) {
+            throw new IllegalArgumentException("A pin needs a title");
+        }
+
+        PinSpec pin = withValues(DEFAULT_PIN, values);
+
+        getPinDatabase().writePin(pin);
+        updateNotifications(Collections.singletonList(pin), false);
+        return PinContract.buildPinUri(pin.getId());
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection,
+                      @Nullable String[] selectionArgs) {
+        if (values == null || values.size() == 0) {
+            return 0;
+        }
+
+        PinDatabase pinDatabase = getPinDatabase();
+        List<PinSpec> pins = pinDatabase.getPins(queryIds(uri, selection, selectionArgs));
+
+        List<PinSpec> updated = new ArrayList<>(pins.size());
+        for (PinSpec pin : pins) {
+            updated.add(withValues(pin, values));
+        }
+
+        if (!updated.isEmpty()) {
+            pinDatabase.writePins(updated);
+            updateNotifications(updated, false);
+        }
+        return updated.size();
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        long[] ids = queryIds(uri, selection, selectionArgs);
+        if (ids.length == 0) {
+            return 0;
+        }
+
+        PinDatabase pinDatabase = getPinDatabase();
+        List<PinSpec> pins = pinDatabase.getPins(ids);
+        int deleted = pinDatabase.deletePins(ids);
+        updateNotifications(pins, true);
+        return deleted;
+    }
+
+    /**
+     * This method applies all operations within one transaction of the pins database.
+     * If one of them fails, none of them is applied and no change is notified.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        List<Runnable> updates = new ArrayList<>();
+        pendingUpdates.set(updates);
+
+        ContentProviderResult[] results;
+        try {
+            results = getPinDatabase().runInTransaction(() -> super.applyBatch(operations));
+        } catch (OperationApplicationException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        } finally {
+            pendingUpdates.remove();
+        }
+
+        for (Runnable update : updates) {
+            update.run();
+        }
+        return results;
+    }
+
+    /**
+     * This method posts or cancels the notifications of written pins,
+     * within {@link #applyBatch(ArrayList)} only after the transaction is committed
+     *
+     * @param pins    the written pins
+     * @param deleted true if the pins were deleted
+     */
+    private void updateNotifications(@NonNull List<PinSpec> pins, boolean deleted) {
+        Context context = getContext();
+        if (context == null) {
+            // tests use the provider with a database of their own and without attaching it
+            return;
+        }
+
+        Runnable update = () -> {
+            if (!deleted) {
+                NotificationTools.notify(context, pins);
+                return;
+            }
+
+            for (PinSpec pin : pins) {
+                NotificationTools.cancel(context, pin);
+            }
+        };
+
+        List<Runnable> updates = pendingUpdates.get();
+        if (updates != null) {
+            updates.add(update);
+        } else {
+            update.run();
+        }
+    }
+
+    @NonNull
+    private static SQLiteQueryBuilder newQueryBuilder(@NonNull Uri uri) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(PinDatabase.VIEW_PINS_TEXT);
+        builder.setProjectionMap(projectionMap);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            builder.setStrict(true);
+        }
+
+        builder.appendWhere(PinDatabase.COLUMN_VISIBILITY + " != " + Notification.VISIBILITY_SECRET);
+
+        switch (uriMatcher.match(uri)) {
+            case MATCH_PINS:
+                break;
+
+            case MATCH_PIN_ID:
+                builder.appendWhere(" AND " + PinDatabase.COLUMN_ID + " = " + Long.parseLong(uri.getLastPathSegment()));
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unsupported uri " + uri);
+        }
+
+        return builder;
+    }
+
+    /**
+     * This method resolves the pins an update or delete applies to
+     *
+     * @return the ids of all matching pins
+     */
+    @NonNull
+    private long[] queryIds(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        PinDatabase pinDatabase = getPinDatabase();
+        pinDatabase.flush();
+
+        Cursor cursor = newQueryBuilder(uri).query(pinDatabase.getReadableDatabase(),
+                new String[]{PinDatabase.COLUMN_ID}, selection, selectionArgs, null, null, null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * This method creates a pin from another one with the given values replaced
+     *
+     * @param base   the pin to take all other values from
+     * @param values the values to replace, only writable columns of {@link PinContract.Pins}
+     * @return a new pin with the id of the base pin
+     */
+    @NonNull
+    private static PinSpec withValues(@NonNull PinSpec base, @NonNull ContentValues values) {
+        for (String key : values.keySet()) {
+            if (!WRITABLE_COLUMNS.contains(key)) {
+                throw new IllegalArgumentException("Column " + key + " can not be written");
+            }
+        }
+
+        // unchanged compressed content is kept as it is
+        String content;
+        byte[] compressedContent = null;
+        if (values.containsKey(PinContract.Pins.CONTENT) || base.getCompressedContent() == null) {
+            content = getValue(values, PinContract.Pins.CONTENT, base.getContent());
+        } else {
+            content = base.getContentPreview();
+            compressedContent = base.getCompressedContent();
+        }
+
+        return new PinSpec(base.getId(),
+                getValue(values, PinContract.Pins.TITLE, base.getTitle()),
+                content, compressedContent,
+                getValue(values, PinContract.Pins.VISIBILITY, base.getVisibility()),
+                getValue(values, PinContract.Pins.PRIORITY, base.getPriority()),
+                getValue(values, PinContract.Pins.PERSISTENT, base.isPersistent()),
+                getValue(values, PinContract.Pins.SHOW_ACTIONS, base.isShowActions()),
+                base.getCreatedAt(), base.getUpdatedAt());
+    }
+
+    @NonNull
+    private static String getValue(@NonNull ContentValues values, @NonNull String key, @NonNull String fallback) {
+        return values.containsKey(key) ? requireValue(key, values.getAsString(key)) : fallback;
+    }
+
+    private static int getValue(@NonNull ContentValues values, @NonNull String key, int fallback) {
+        return values.containsKey(key) ? requireValue(key, values.getAsInteger(key)) : fallback;
+    }
+
+    private static boolean getValue(@NonNull ContentValues values, @NonNull String key, boolean fallback) {
+        return values.containsKey(key) ? requireValue(key, values.getAsBoolean(key)) : fallback;
+    }
+
+    @NonNull
+    private static <T> T requireValue(@NonNull String key, @Nullable T value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Invalid value for column " + key);
+        }
+        return value;
+    }
+}
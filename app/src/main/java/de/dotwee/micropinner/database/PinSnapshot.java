@@ -0,0 +1,462 @@
+package de.dotwee.micropinner.database;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * This class keeps a copy of all pins in a file, so their notifications can be restored
+ * before the database is opened.
+ * <p>
+ * The file starts with a header of the magic "MPSN", the snapshot version, the amount of pins,
+ * the length of the payload and its CRC32. The payload holds the notification ids of all pins,
+ * followed by the pins as a stream of {@link PinSpecCodec}. Compressed content is kept as it is
+ * stored in the database, so writing the snapshot does not inflate it. It is read through a
+ * memory mapping.
+ * <p>
+ * Shortly after pins were changed, the file is written again to a temporary file which then
+ * replaces it, so readers never see a partial snapshot. It is left alone if its pins did not
+ * change. Since changes within the delay are written together and content stays compressed,
+ * a full rewrite is cheap enough that the file does not need a log of changes. A snapshot that is missing, of another version or corrupted is not read, the
+ * database is used instead.
+ * <p>
+ * On API 24 and later the user can opt in to a second snapshot in device protected storage,
+ * so pins can be shown on the lock screen before the first unlock. That storage is readable
+ * without the credentials of the user, so it leaves out secret pins and only keeps the title
+ * of private pins, their content is replaced by the placeholder shown on the lock screen.
+ */
+public final class PinSnapshot {
+    private static final String TAG = PinSnapshot.class.getSimpleName();
+
+    static final String FILE_NAME = "pins.snapshot";
+
+    /**
+     * The snapshot version written by this class
+     */
+    static final int VERSION = 1;
+
+    private static final int MAGIC = 0x4D50534E;
+
+    /* magic, version, amount of pins, payload length and checksum */
+    static final int HEADER_BYTES = 5 * 4;
+
+    /* limits protect against mapping a corrupted file */
+    private static final int MAX_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * Changes within this delay are written at once
+     */
+    static final long WRITE_DELAY_MS = 500;
+
+    private final PinDatabase pinDatabase;
+    private final File file;
+    @Nullable
+    private final String hiddenContent;
+    private final ScheduledExecutorService executor;
+    private final Runnable write = this::write;
+
+    private final Object lock = new Object();
+    private boolean scheduled = false;
+    private boolean deleted = false;
+
+    PinSnapshot(@NonNull PinDatabase pinDatabase, @NonNull File file) {
+        this(pinDatabase, file, null);
+    }
+
+    /**
+     * @param hiddenContent the content kept instead of that of private pins, secret pins are
+     *                      left out as well; null to keep all pins as they are
+     */
+    PinSnapshot(@NonNull PinDatabase pinDatabase, @NonNull File file, @Nullable String hiddenContent) {
+        this.pinDatabase = pinDatabase;
+        this.file = file;
+        this.hiddenContent = hiddenContent;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                runnable -> new Thread(runnable, TAG));
+    }
+
+    /**
+     * @param context the context to get the files directory with
+     * @return the file of the snapshot of the pins database
+     */
+    @NonNull
+    public static File getFile(@NonNull Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * @param context the context to get the device protected storage with
+     * @return the file of the snapshot readable before the first unlock, null before API 24
+     */
+    @Nullable
+    public static File getDeviceProtectedFile(@NonNull Context context) {
+        Context storageContext = ContextCompat.createDeviceProtectedStorageContext(context);
+        return storageContext != null ? new File(storageContext.getFilesDir(), FILE_NAME) : null;
+    }
+
+    /**
+     * @param file the file of a snapshot
+     * @return true if this snapshot is written to the file
+     */
+    boolean writesTo(@NonNull File file) {
+        return this.file.equals(file);
+    }
+
+    /**
+     * This method schedules writing the snapshot, unless it is already pending
+     */
+    void scheduleWrite() {
+        synchronized (lock) {
+            if (!scheduled && !deleted && !executor.isShutdown()) {
+                scheduled = true;
+                executor.schedule(write, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * This method schedules writing the snapshot if its file is missing or of another version.
+     * The file is checked on the thread of the snapshot.
+     */
+    void scheduleWriteIfOutdated() {
+        synchronized (lock) {
+            if (!executor.isShutdown()) {
+                executor.execute(() -> {
+                    if (!isCurrent(file)) {
+                        scheduleWrite();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * This method drops a pending write and deletes the file on the thread of the snapshot,
+     * after a running write. The snapshot is not written again and the caller does not wait.
+     */
+    void delete() {
+        synchronized (lock) {
+            deleted = true;
+
+            if (!executor.isShutdown()) {
+                executor.execute(this::deleteFile);
+                executor.shutdown();
+            }
+        }
+    }
+
+    private void deleteFile() {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Could not delete " + file);
+        }
+    }
+
+    /**
+     * This method drops a pending write and waits for a running one.
+     * A pending delete is done right away.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (lock) {
+            if (deleted) {
+                deleteFile();
+            }
+        }
+    }
+
+    /**
+     * This method writes all pins to a temporary file, which then replaces the snapshot
+     */
+    void write() {
+        synchronized (lock) {
+            scheduled = false;
+
+            if (deleted) {
+                return;
+            }
+        }
+
+        ByteArrayOutputStream notificationIds = new ByteArrayOutputStream();
+        DataOutputStream idStream = new DataOutputStream(notificationIds);
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        int[] count = {0};
+
+        try {
+            PinSpecCodec.Writer writer = new PinSpecCodec.Writer(records, true);
+            pinDatabase.forEachPin(pin -> {
+                if (hiddenContent != null && pin.getVisibility() == NotificationCompat.VISIBILITY_SECRET) {
+                    return;
+                }
+
+                try {
+                    writer.write(hide(pin));
+                    idStream.writeInt(pin.getNotificationId());
+                    count[0]++;
+                } catch (PinSpecCodec.FormatException e) {
+                    // restored from the database instead, like pins changed after the snapshot
+                    Log.w(TAG, "Left pin " + pin.getId() + " out of the snapshot", e);
+                } catch (IOException e) {
+                    // a ByteArrayOutputStream does not throw
+                    throw new IllegalStateException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        CRC32 crc = new CRC32();
+        byte[] ids = notificationIds.toByteArray();
+        byte[] pins = records.toByteArray();
+        crc.update(ids);
+        crc.update(pins);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(count[0])
+                .putInt(ids.length + pins.length)
+                .putInt((int) crc.getValue());
+
+        // changes of pins that are left out do not change the snapshot
+        if (Arrays.equals(header.array(), readHeader(file))) {
+            return;
+        }
+
+        File temporary = new File(file.getPath() + ".tmp");
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(temporary);
+            outputStream.write(header.array());
+            outputStream.write(ids);
+            outputStream.write(pins);
+            outputStream.getFD().sync();
+            outputStream.close();
+            outputStream = null;
+
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+            Log.i(TAG, "Wrote snapshot of " + count[0] + " pins");
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write snapshot", e);
+
+            if (!temporary.delete()) {
+                Log.w(TAG, "Could not delete " + temporary);
+            }
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * @param pin the pin to write
+     * @return the pin or, if it is private and its content must be hidden, a copy with the placeholder
+     */
+    @NonNull
+    private PinSpec hide(@NonNull PinSpec pin) {
+        if (hiddenContent == null || pin.getVisibility() != NotificationCompat.VISIBILITY_PRIVATE) {
+            return pin;
+        }
+
+        return new PinSpec(pin.getId(), pin.getTitle(), hiddenContent, pin.getVisibility(), pin.getPriority(),
+                pin.isPersistent(), pin.isShowActions(), pin.getCreatedAt(), pin.getUpdatedAt());
+    }
+
+    /**
+     * @param file the file of the snapshot
+     * @return the header of the snapshot, null if it has none
+     */
+    @Nullable
+    private static byte[] readHeader(@NonNull File file) {
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            byte[] header = new byte[HEADER_BYTES];
+            randomAccessFile.readFully(header);
+            return header;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            close(randomAccessFile);
+        }
+    }
+
+    /**
+     * This method checks if a snapshot can be read by this version, without reading its pins
+     *
+     * @param file the file of the snapshot
+     * @return true if the snapshot exists and has the current version
+     */
+    static boolean isCurrent(@NonNull File file) {
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            return randomAccessFile.length() >= HEADER_BYTES
+                    && randomAccessFile.readInt() == MAGIC && randomAccessFile.readInt() == VERSION;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            close(randomAccessFile);
+        }
+    }
+
+    /**
+     * This method reads all pins of a snapshot
+     *
+     * @param file the file of the snapshot
+     * @return the pins in the order they were written or null if the snapshot is missing or invalid
+     */
+    @Nullable
+    public static List<PinSpec> read(@NonNull File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+
+            if (size < HEADER_BYTES || size > MAX_BYTES) {
+                throw new PinSpecCodec.FormatException("Snapshot of " + size + " bytes");
+            }
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read snapshot, the database has to be used", e);
+            return null;
+        } finally {
+            close(randomAccessFile);
+        }
+    }
+
+    /**
+     * This method reads the pins of a mapped snapshot
+     *
+     * @param buffer the snapshot, from its header to its end
+     * @return the pins in the order they were written
+     * @throws IOException if the snapshot is of another version or corrupted
+     */
+    @NonNull
+    static List<PinSpec> read(@NonNull ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new PinSpecCodec.FormatException("Snapshot does not start with the magic");
+        }
+
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new PinSpecCodec.FormatException("Unsupported snapshot version " + version);
+        }
+
+        int count = buffer.getInt();
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (count < 0 || length != buffer.remaining() || (long) count * 4 > length) {
+            throw new PinSpecCodec.FormatException("Snapshot of " + count + " pins has " + length + " bytes");
+        }
+
+        // the payload is checked before anything is decoded
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        int payload = buffer.position();
+        while (buffer.hasRemaining()) {
+            int size = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, size);
+            crc.update(chunk, 0, size);
+        }
+        if ((int) crc.getValue() != checksum) {
+            throw new PinSpecCodec.FormatException("Snapshot checksum does not match");
+        }
+        buffer.position(payload);
+
+        int[] notificationIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            notificationIds[i] = buffer.getInt();
+        }
+
+        PinSpecCodec.Reader reader = new PinSpecCodec.Reader(new BufferInputStream(buffer));
+        List<PinSpec> pins = new ArrayList<>(count);
+        for (int notificationId : notificationIds) {
+            PinSpec pin = reader.read();
+            if (pin == null) {
+                throw new PinSpecCodec.FormatException("Snapshot ended after " + pins.size() + " pins");
+            }
+
+            pin.setNotificationId(notificationId);
+            pins.add(pin);
+        }
+
+        if (reader.read() != null) {
+            throw new PinSpecCodec.FormatException("Snapshot contains more than " + count + " pins");
+        }
+        return pins;
+    }
+
+    private static void close(@Nullable RandomAccessFile randomAccessFile) {
+        if (randomAccessFile != null) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * This class reads the remaining bytes of a buffer.
+     */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(@NonNull ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(@NonNull byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
@@ -1,23 +1,33 @@
 package de.dotwee.micropinner.database;
 
 import android.content.ContentValues;
-import android.database.Cursor;
-import android.database.DatabaseUtils;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat.NotificationVisibility;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 /**
  * Created by lukas on 10.08.2016.
  */
 public class PinSpec implements Serializable {
+    /**
+     * Computed with serialver against the class as shipped with v2.2.0, so serialized pins
+     * within their pending intents can still be read. Use {@link PinSpecCodec} for new data.
+     */
+    private static final long serialVersionUID = 4460922043459315931L;
     private static final String TAG = PinSpec.class.getSimpleName();
 
 
     private long id;
     private String title;
+    /* null until a compressed content is inflated on first access */
     private String content;
+    /* stored form of large content and its plain preview, see PinContent */
+    private transient byte[] compressedContent;
+    private transient String contentPreview;
 
     private int visibility;
     private int priority;
@@ -25,6 +35,12 @@ public class PinSpec implements Serializable {
     private boolean persistent;
     private boolean showActions;
 
+    private long createdAt;
+    private long updatedAt;
+
+    /* assigned by the database, not part of serialized pins */
+    private transient int notificationId;
+
     public PinSpec(@NonNull String title, @NonNull String content, int visibility, int priority, boolean persistent, boolean showActions) {
 
         this.id = -1;
@@ -36,16 +52,51 @@ public class PinSpec implements Serializable {
         this.showActions = showActions;
     }
 
-    PinSpec(@NonNull Cursor cursor) {
-        ContentValues contentValues = new ContentValues();
-        DatabaseUtils.cursorRowToContentValues(cursor, contentValues);
-        setId(contentValues.getAsLong(PinDatabase.COLUMN_ID));
-        setTitle(contentValues.getAsString(PinDatabase.COLUMN_TITLE));
-        setContent(contentValues.getAsString(PinDatabase.COLUMN_CONTENT));
-        setVisibility(contentValues.getAsInteger(PinDatabase.COLUMN_VISIBILITY));
-        setPriority(contentValues.getAsInteger(PinDatabase.COLUMN_PRIORITY));
-        setPersistent(contentValues.getAsInteger(PinDatabase.COLUMN_PERSISTENT) != 0);
-        setShowActions(contentValues.getAsInteger(PinDatabase.COLUMN_SHOW_ACTIONS) != 0);
+    PinSpec(long id, @NonNull String title, @NonNull String content, int visibility, int priority,
+            boolean persistent, boolean showActions, long createdAt, long updatedAt) {
+
+        this(id, title, content, null, visibility, priority, persistent, showActions, createdAt, updatedAt);
+    }
+
+    /**
+     * @param content           the content, or its preview if compressed content is given
+     * @param compressedContent the compressed content, which is inflated on first access
+     */
+    PinSpec(long id, @NonNull String title, @NonNull String content, @Nullable byte[] compressedContent,
+            int visibility, int priority, boolean persistent, boolean showActions, long createdAt, long updatedAt) {
+
+        this.id = id;
+        this.title = title;
+        if (compressedContent != null) {
+            this.compressedContent = compressedContent;
+            this.contentPreview = content;
+        } else {
+            this.content = content;
+        }
+        this.visibility = visibility;
+        this.priority = priority;
+        this.persistent = persistent;
+        this.showActions = showActions;
+        this.createdAt = createdAt;
+        this.updatedAt = updatedAt;
+    }
+
+    /**
+     * @param pin the pin to copy, including its stored form and notification id
+     */
+    PinSpec(@NonNull PinSpec pin) {
+        this.id = pin.id;
+        this.title = pin.title;
+        this.content = pin.content;
+        this.compressedContent = pin.compressedContent;
+        this.contentPreview = pin.contentPreview;
+        this.visibility = pin.visibility;
+        this.priority = pin.priority;
+        this.persistent = pin.persistent;
+        this.showActions = pin.showActions;
+        this.createdAt = pin.createdAt;
+        this.updatedAt = pin.updatedAt;
+        this.notificationId = pin.notificationId;
     }
 
     private PinSpec(int visibility, int priority, @NonNull String title, @NonNull String content,
@@ -69,10 +120,36 @@ public class PinSpec implements Serializable {
         this.id = id;
     }
 
+    /**
+     * @return the id truncated to an int, which is not unique; use {@link #getNotificationId()}
+     * to identify the notification of the pin
+     */
     public int getIdAsInt() {
         return (int) id;
     }
 
+    /**
+     * This method returns the id of the notification and its pending intents.
+     * Ids of deleted pins are given to new pins, so ids stay small and unique.
+     * Pins read from intents of app version 2.2.0 and earlier use their id, as before.
+     *
+     * @return the notification id of the pin
+     */
+    public int getNotificationId() {
+        return notificationId != 0 ? notificationId : getIdAsInt();
+    }
+
+    void setNotificationId(int notificationId) {
+        this.notificationId = notificationId;
+    }
+
+    /**
+     * @return true if the database assigned a notification id to this pin
+     */
+    boolean hasNotificationId() {
+        return notificationId != 0;
+    }
+
     @NonNull
     public String getTitle() {
         return title;
@@ -82,11 +159,52 @@ public class PinSpec implements Serializable {
         this.title = title;
     }
 
+    /**
+     * This method returns the full content, which inflates compressed content on first access.
+     * Use {@link #getContentPreview()} if only the beginning is shown.
+     */
     @NonNull
     public String getContent() {
+        String content = this.content;
+        if (content == null) {
+            content = PinContent.inflate(compressedContent);
+            this.content = content;
+        }
         return content;
     }
 
+    /**
+     * @return the beginning of the content, without inflating compressed content
+     */
+    @NonNull
+    public String getContentPreview() {
+        if (contentPreview == null) {
+            contentPreview = PinContent.preview(content);
+        }
+        return contentPreview;
+    }
+
+    /**
+     * @return the compressed content or null if the content is stored as plain text,
+     * it is shared with the pin and must not be modified
+     */
+    @Nullable
+    public byte[] getCompressedContent() {
+        return compressedContent;
+    }
+
+    void setCompressedContent(@Nullable byte[] compressedContent) {
+        getContentPreview();
+        this.compressedContent = compressedContent;
+    }
+
+    /**
+     * @return true if the full content is held in memory
+     */
+    boolean isContentInflated() {
+        return content != null;
+    }
+
     private void setContent(@NonNull String content) {
         this.content = content;
     }
@@ -124,40 +242,81 @@ public class PinSpec implements Serializable {
         this.showActions = showActions;
     }
 
+    /**
+     * @return time of creation in milliseconds since epoch, 0 if not written yet
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    /**
+     * @return time of the last modification in milliseconds since epoch, 0 if not written yet
+     */
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    void setUpdatedAt(long updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
     @NonNull
     ContentValues toContentValues() {
         ContentValues contentValues = new ContentValues();
 
         contentValues.put(PinDatabase.COLUMN_TITLE, getTitle());
-        contentValues.put(PinDatabase.COLUMN_CONTENT, getContent());
+        if (compressedContent != null) {
+            contentValues.put(PinDatabase.COLUMN_CONTENT, getContentPreview());
+            contentValues.put(PinDatabase.COLUMN_CONTENT_Z, compressedContent);
+        } else {
+            contentValues.put(PinDatabase.COLUMN_CONTENT, getContent());
+            contentValues.putNull(PinDatabase.COLUMN_CONTENT_Z);
+        }
         contentValues.put(PinDatabase.COLUMN_VISIBILITY, getVisibility());
         contentValues.put(PinDatabase.COLUMN_PRIORITY, getPriority());
         contentValues.put(PinDatabase.COLUMN_PERSISTENT, isPersistent() ? 1 : 0);
         contentValues.put(PinDatabase.COLUMN_SHOW_ACTIONS, isShowActions() ? 1: 0);
+        contentValues.put(PinDatabase.COLUMN_UPDATED_AT, getUpdatedAt());
 
         return contentValues;
     }
 
     @NonNull
     public String toClipString() {
-        if (content != null && !content.isEmpty()) {
+        String content = getContent();
+        if (!content.isEmpty()) {
             return title + " - " + content;
         } else {
             return title;
         }
     }
 
+    /**
+     * Serialized pins always contain the full content.
+     */
+    private void writeObject(@NonNull ObjectOutputStream outputStream) throws IOException {
+        getContent();
+        outputStream.defaultWriteObject();
+    }
+
     @NonNull
     @Override
     public String toString() {
         return "PinSpec{" +
                 "id=" + id +
                 ", title='" + title + '\'' +
-                ", content='" + content + '\'' +
+                ", content='" + getContentPreview() + '\'' +
                 ", visibility=" + visibility +
                 ", priority=" + priority +
                 ", persistent=" + persistent +
                 ", showActions=" + showActions +
+                ", createdAt=" + createdAt +
+                ", updatedAt=" + updatedAt +
+                ", notificationId=" + notificationId +
                 '}';
     }
 }
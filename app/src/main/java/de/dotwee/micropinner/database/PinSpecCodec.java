@@ -0,0 +1,400 @@
+package de.dotwee.micropinner.database;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * This class encodes pins into a compact binary format, used for backups, exports and IPC.
+ * <p>
+ * A stream starts with the magic bytes "MP" and the format version, followed by any
+ * amount of records. Every record is prefixed with its length in bytes and contains:
+ * <ul>
+ * <li>id, visibility and priority as zigzag varints</li>
+ * <li>title and content as length-prefixed UTF-8</li>
+ * <li>one flags byte for the boolean values</li>
+ * <li>time of creation and last modification as zigzag varints</li>
+ * </ul>
+ * Version 2 streams may keep the content compressed, as it is stored in the database.
+ * Such records hold the content preview instead of the content, a flag and the compressed
+ * content as length-prefixed bytes at their end. They are only written for the snapshot,
+ * other streams keep version 1, which older releases can read.
+ * Invalid input is rejected with a {@link FormatException}.
+ */
+public final class PinSpecCodec {
+    /**
+     * The format version written by this class.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The format version of streams that keep compressed content.
+     */
+    static final int VERSION_COMPRESSED = 2;
+
+    private static final byte MAGIC_0 = 'M';
+    private static final byte MAGIC_1 = 'P';
+
+    private static final int FLAG_PERSISTENT = 1;
+    private static final int FLAG_SHOW_ACTIONS = 1 << 1;
+    private static final int FLAG_COMPRESSED_CONTENT = 1 << 2;
+    private static final int FLAGS_KNOWN = FLAG_PERSISTENT | FLAG_SHOW_ACTIONS;
+
+    /* limits protect against corrupted or hostile length prefixes */
+    static final int MAX_RECORD_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_VARINT_BYTES = 10;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private PinSpecCodec() {
+    }
+
+    /**
+     * This method encodes a single pin
+     *
+     * @param pin the pin to encode
+     * @return a stream containing only this pin
+     * @throws IllegalArgumentException if the pin exceeds the size of a record
+     */
+    @NonNull
+    public static byte[] encode(@NonNull PinSpec pin) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(64 + 3 * (pin.getTitle().length() + pin.getContent().length()));
+        try {
+            new Writer(outputStream).write(pin);
+        } catch (FormatException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        } catch (IOException e) {
+            // a ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * This method decodes a single pin
+     *
+     * @param bytes a stream containing exactly one pin
+     * @return the decoded pin
+     * @throws FormatException if the bytes are not a valid stream of one pin
+     */
+    @NonNull
+    public static PinSpec decode(@NonNull byte[] bytes) throws FormatException {
+        try {
+            Reader reader = new Reader(new ByteArrayInputStream(bytes));
+            PinSpec pin = reader.read();
+
+            if (pin == null) {
+                throw new FormatException("Stream does not contain a pin");
+            }
+            if (reader.read() != null) {
+                throw new FormatException("Stream contains more than one pin");
+            }
+            return pin;
+        } catch (FormatException e) {
+            throw e;
+        } catch (IOException e) {
+            // a ByteArrayInputStream only ends early
+            throw new FormatException("Stream ended unexpectedly");
+        }
+    }
+
+    /**
+     * This exception signals invalid encoded data.
+     */
+    public static final class FormatException extends IOException {
+        FormatException(@NonNull String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * This class writes a stream of pins.
+     * The header is written on creation, every pin is written at once.
+     */
+    public static final class Writer {
+        private final OutputStream outputStream;
+        private final boolean keepCompressed;
+        private byte[] buffer = new byte[256];
+        private int position;
+
+        public Writer(@NonNull OutputStream outputStream) throws IOException {
+            this(outputStream, false);
+        }
+
+        /**
+         * @param keepCompressed true to write compressed content as it is, without inflating it
+         */
+        Writer(@NonNull OutputStream outputStream, boolean keepCompressed) throws IOException {
+            this.outputStream = outputStream;
+            this.keepCompressed = keepCompressed;
+            outputStream.write(new byte[]{MAGIC_0, MAGIC_1, (byte) (keepCompressed ? VERSION_COMPRESSED : VERSION)});
+        }
+
+        /**
+         * This method appends a pin to the stream. A pin that exceeds the size of a record
+         * could not be read back, so nothing is written and the stream stays valid.
+         *
+         * @param pin the pin to append to the stream
+         * @throws FormatException if the pin exceeds the size of a record
+         */
+        public void write(@NonNull PinSpec pin) throws IOException {
+            position = 0;
+            byte[] compressedContent = keepCompressed ? pin.getCompressedContent() : null;
+
+            writeVarLong(zigzag(pin.getId()));
+            writeString(pin.getTitle());
+            writeString(compressedContent != null ? pin.getContentPreview() : pin.getContent());
+            writeVarLong(zigzag(pin.getVisibility()));
+            writeVarLong(zigzag(pin.getPriority()));
+            writeByte((pin.isPersistent() ? FLAG_PERSISTENT : 0) | (pin.isShowActions() ? FLAG_SHOW_ACTIONS : 0)
+                    | (compressedContent != null ? FLAG_COMPRESSED_CONTENT : 0));
+            writeVarLong(zigzag(pin.getCreatedAt()));
+            writeVarLong(zigzag(pin.getUpdatedAt()));
+            if (compressedContent != null) {
+                writeBytes(compressedContent);
+            }
+
+            // the length prefix is put behind the record within the buffer, but written first
+            int length = position;
+            if (length > MAX_RECORD_BYTES) {
+                throw new FormatException("Record of " + length + " bytes exceeds the limit");
+            }
+            writeVarLong(length);
+            outputStream.write(buffer, length, position - length);
+            outputStream.write(buffer, 0, length);
+        }
+
+        private void ensureCapacity(int additional) {
+            if (position + additional > buffer.length) {
+                byte[] grown = new byte[Math.max(buffer.length * 2, position + additional)];
+                System.arraycopy(buffer, 0, grown, 0, position);
+                buffer = grown;
+            }
+        }
+
+        private void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[position++] = (byte) value;
+        }
+
+        private void writeVarLong(long value) {
+            ensureCapacity(MAX_VARINT_BYTES);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        private void writeString(@NonNull String value) {
+            writeBytes(value.getBytes(UTF_8));
+        }
+
+        private void writeBytes(@NonNull byte[] bytes) {
+            writeVarLong(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        private static long zigzag(long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+    }
+
+    /**
+     * This class reads a stream of pins written by a {@link Writer}.
+     * The header is read on creation. Record lengths are read byte by byte,
+     * so file streams should be wrapped in a buffered stream.
+     */
+    public static final class Reader {
+        private final InputStream inputStream;
+        private final CharsetDecoder decoder = UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        private final int version;
+        private byte[] buffer = new byte[256];
+        private int position;
+        private int limit;
+
+        public Reader(@NonNull InputStream inputStream) throws IOException {
+            this.inputStream = inputStream;
+
+            int magic0 = inputStream.read();
+            int magic1 = inputStream.read();
+            if (magic0 != MAGIC_0 || magic1 != MAGIC_1) {
+                throw new FormatException("Stream does not start with the pin magic");
+            }
+
+            version = inputStream.read();
+            if (version < 1 || version > VERSION_COMPRESSED) {
+                throw new FormatException("Unsupported format version " + version);
+            }
+        }
+
+        /**
+         * @return the format version of the stream
+         */
+        public int getVersion() {
+            return version;
+        }
+
+        /**
+         * @return the next pin or null at the end of the stream
+         */
+        @Nullable
+        public PinSpec read() throws IOException {
+            long length = readStreamVarLong();
+            if (length < 0) {
+                return null;
+            }
+            if (length > MAX_RECORD_BYTES) {
+                throw new FormatException("Record of " + length + " bytes exceeds the limit");
+            }
+
+            fill((int) length);
+
+            long id = unzigzag(readVarLong());
+            String title = readString();
+            String content = readString();
+            int visibility = toInt(unzigzag(readVarLong()));
+            int priority = toInt(unzigzag(readVarLong()));
+
+            int flags = readByte();
+            int known = version >= VERSION_COMPRESSED ? FLAGS_KNOWN | FLAG_COMPRESSED_CONTENT : FLAGS_KNOWN;
+            if ((flags & ~known) != 0) {
+                throw new FormatException("Unknown flags " + flags);
+            }
+
+            long createdAt = unzigzag(readVarLong());
+            long updatedAt = unzigzag(readVarLong());
+
+            byte[] compressedContent = null;
+            if ((flags & FLAG_COMPRESSED_CONTENT) != 0) {
+                compressedContent = readBytes();
+                if (compressedContent.length == 0) {
+                    throw new FormatException("Compressed content is empty");
+                }
+            }
+
+            if (position != limit) {
+                throw new FormatException("Record contains " + (limit - position) + " unexpected bytes");
+            }
+
+            return new PinSpec(id, title, content, compressedContent, visibility, priority,
+                    (flags & FLAG_PERSISTENT) != 0, (flags & FLAG_SHOW_ACTIONS) != 0, createdAt, updatedAt);
+        }
+
+        /**
+         * This method reads a record length from the stream
+         *
+         * @return the length or -1 if the stream ended before the record
+         */
+        private long readStreamVarLong() throws IOException {
+            long value = 0;
+            for (int i = 0; i < MAX_VARINT_BYTES; i++) {
+                int b = inputStream.read();
+                if (b < 0) {
+                    if (i == 0) {
+                        return -1;
+                    }
+                    throw new FormatException("Stream ended within a record length");
+                }
+
+                value |= (long) (b & 0x7F) << (7 * i);
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new FormatException("Record length is too long");
+        }
+
+        private void fill(int length) throws IOException {
+            if (buffer.length < length) {
+                buffer = new byte[Math.max(buffer.length * 2, length)];
+            }
+
+            int read = 0;
+            while (read < length) {
+                int count = inputStream.read(buffer, read, length - read);
+                if (count < 0) {
+                    throw new FormatException("Stream ended within a record");
+                }
+                read += count;
+            }
+
+            position = 0;
+            limit = length;
+        }
+
+        private int readByte() throws FormatException {
+            if (position >= limit) {
+                throw new FormatException("Record ended unexpectedly");
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        private long readVarLong() throws FormatException {
+            long value = 0;
+            for (int i = 0; i < MAX_VARINT_BYTES; i++) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << (7 * i);
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new FormatException("Varint is too long");
+        }
+
+        @NonNull
+        private String readString() throws FormatException {
+            long length = readVarLong();
+            if (length < 0 || length > limit - position) {
+                throw new FormatException("String length " + length + " exceeds the record");
+            }
+
+            try {
+                CharBuffer chars = decoder.decode(ByteBuffer.wrap(buffer, position, (int) length));
+                position += (int) length;
+                return chars.toString();
+            } catch (CharacterCodingException e) {
+                throw new FormatException("String is not valid UTF-8");
+            }
+        }
+
+        @NonNull
+        private byte[] readBytes() throws FormatException {
+            long length = readVarLong();
+            if (length < 0 || length > limit - position) {
+                throw new FormatException("Byte length " + length + " exceeds the record");
+            }
+
+            byte[] bytes = new byte[(int) length];
+            System.arraycopy(buffer, position, bytes, 0, bytes.length);
+            position += bytes.length;
+            return bytes;
+        }
+
+        private static long unzigzag(long value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private static int toInt(long value) throws FormatException {
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                throw new FormatException("Value " + value + " is out of range");
+            }
+            return (int) value;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package de.dotwee.micropinner.database;
+
+import android.database.Cursor;
+import androidx.annotation.NonNull;
+
+/**
+ * This class maps rows of the pins table to {@link PinSpec} objects.
+ * <p>
+ * Column indices are resolved once per cursor and every value is read
+ * as a primitive, so no {@link android.content.ContentValues} copy or
+ * boxed values are created per row. Compressed content is not inflated
+ * until the content of the pin is accessed.
+ */
+final class PinSpecMapper {
+    private final int idIndex;
+    private final int titleIndex;
+    private final int contentIndex;
+    private final int visibilityIndex;
+    private final int priorityIndex;
+    private final int persistentIndex;
+    private final int showActionsIndex;
+    private final int createdAtIndex;
+    private final int updatedAtIndex;
+    private final int contentZIndex;
+    private final int notificationIdIndex;
+
+    /**
+     * @param cursor cursor over the pins table, must contain all pin columns
+     */
+    PinSpecMapper(@NonNull Cursor cursor) {
+        idIndex = cursor.getColumnIndexOrThrow(PinDatabase.COLUMN_ID);
+        titleIndex = cursor.getColumnIndexOrThrow(PinDatabase.COLUMN_TITLE);
+        contentIndex = cursor.getColumnIndexOrThrow(PinDatabase.COLUMN_CONTENT);
+        visibilityIndex = cursor.getColumnIndexOrThrow(PinDatabase.COLUMN_VISIBILITY);
+        priorityIndex = cursor.getColumnIndexOrThrow(PinDatabase.COLUMN_PRIORITY);
+        persistentIndex = cursor.getColumnIndexOrThrow(PinDatabase.COLUMN_PERSISTENT);
+        showActionsIndex = cursor.getColumnIndexOrThrow(PinDatabase.COLUMN_SHOW_ACTIONS);
+        createdAtIndex = cursor.getColumnIndexOrThrow(PinDatabase.COLUMN_CREATED_AT);
+        updatedAtIndex = cursor.getColumnIndexOrThrow(PinDatabase.COLUMN_UPDATED_AT);
+        contentZIndex = cursor.getColumnIndexOrThrow(PinDatabase.COLUMN_CONTENT_Z);
+        notificationIdIndex = cursor.getColumnIndexOrThrow(PinDatabase.COLUMN_NOTIFICATION_ID);
+    }
+
+    /**
+     * This method creates a pin from the row the cursor is currently positioned at
+     *
+     * @param cursor the same cursor this mapper was created for
+     * @return the pin of the current row
+     */
+    @NonNull
+    PinSpec map(@NonNull Cursor cursor) {
+        PinSpec pin = new PinSpec(
+                cursor.getLong(idIndex),
+                cursor.getString(titleIndex),
+                cursor.getString(contentIndex),
+                cursor.getBlob(contentZIndex),
+                cursor.getInt(visibilityIndex),
+                cursor.getInt(priorityIndex),
+                cursor.getInt(persistentIndex) != 0,
+                cursor.getInt(showActionsIndex) != 0,
+                cursor.getLong(createdAtIndex),
+                cursor.getLong(updatedAtIndex));
+        pin.setNotificationId(cursor.getInt(notificationIdIndex));
+        return pin;
+    }
+}
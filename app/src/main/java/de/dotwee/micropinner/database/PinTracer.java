@@ -0,0 +1,324 @@
+package de.dotwee.micropinner.database;
+
+import androidx.annotation.NonNull;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class records the latency and row counts of the operations of {@link PinDatabase}.
+ * <p>
+ * Latencies are counted in log-scale histograms with four buckets per power of two,
+ * so a percentile is accurate within 25%. All buckets are allocated up front and
+ * updated atomically, recording never allocates. While disabled, an operation costs
+ * a single volatile read.
+ * <p>
+ * The SQL of an operation is only kept if sampling is enabled, and only the statement
+ * itself, as bind arguments contain the content of pins.
+ */
+public final class PinTracer {
+    /* traced operations */
+    public static final int INSERT = 0;
+    public static final int UPDATE = 1;
+    public static final int DELETE = 2;
+    /* writes of several pins within one transaction */
+    public static final int BATCH = 3;
+    /* reads of pins from the database, not from the cache */
+    public static final int QUERY = 4;
+    public static final int LOAD = 5;
+    public static final int SEARCH = 6;
+    static final int OPERATION_COUNT = 7;
+    private static final String[] OPERATION_NAMES = {"insert", "update", "delete", "batch", "query", "load", "search"};
+
+    /* values below 4 ns get a bucket each, everything above 2^40 ns lands in the last bucket */
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    /**
+     * Amount of SQL samples kept, older ones are overwritten
+     */
+    static final int SAMPLE_CAPACITY = 32;
+
+    /**
+     * Returned by {@link #start()} while disabled
+     */
+    private static final long NOT_TRACED = Long.MIN_VALUE;
+
+    private static final String TAG = PinTracer.class.getSimpleName();
+
+    private volatile boolean enabled;
+    private volatile int sampleInterval = 0;
+
+    private final AtomicLongArray histograms = new AtomicLongArray(OPERATION_COUNT * BUCKET_COUNT);
+    private final AtomicLongArray counts = new AtomicLongArray(OPERATION_COUNT);
+    private final AtomicLongArray rows = new AtomicLongArray(OPERATION_COUNT);
+    private final AtomicLongArray maxNanos = new AtomicLongArray(OPERATION_COUNT);
+    private final AtomicLong sampleCounter = new AtomicLong();
+
+    /* ring buffer of SQL samples, guarded by itself */
+    private final Sample[] samples = new Sample[SAMPLE_CAPACITY];
+    private int sampleCount = 0;
+
+    /**
+     * @param enabled true to trace from the start
+     */
+    PinTracer(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param enabled false to stop tracing, recorded values are kept
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * This method enables sampling of SQL statements
+     *
+     * @param interval keep the SQL of every n-th traced operation, 0 to keep none
+     */
+    public void setSampleInterval(int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("Invalid sample interval " + interval);
+        }
+        this.sampleInterval = interval;
+    }
+
+    /**
+     * This method starts tracing an operation
+     *
+     * @return the start time to pass to {@link #end(int, long, int, String)}
+     */
+    long start() {
+        return enabled ? System.nanoTime() : NOT_TRACED;
+    }
+
+    /**
+     * This method records an operation started with {@link #start()}
+     *
+     * @param operation the traced operation, like {@link #INSERT}
+     * @param start     the value returned by {@link #start()}
+     * @param rowCount  the amount of rows written or read
+     * @param sql       the statement that was run, only kept if sampled
+     */
+    void end(int operation, long start, int rowCount, @NonNull String sql) {
+        if (start == NOT_TRACED) {
+            return;
+        }
+
+        long nanos = Math.max(0, System.nanoTime() - start);
+        histograms.incrementAndGet(operation * BUCKET_COUNT + bucketOf(nanos));
+        counts.incrementAndGet(operation);
+        rows.addAndGet(operation, rowCount);
+
+        long max;
+        do {
+            max = maxNanos.get(operation);
+        } while (nanos > max && !maxNanos.compareAndSet(operation, max, nanos));
+
+        int interval = sampleInterval;
+        if (interval > 0 && sampleCounter.incrementAndGet() % interval == 0) {
+            sample(new Sample(operation, sql, nanos, rowCount));
+        }
+    }
+
+    private void sample(@NonNull Sample sample) {
+        synchronized (samples) {
+            samples[sampleCount++ % SAMPLE_CAPACITY] = sample;
+        }
+        Log.d(TAG, sample.toString());
+    }
+
+    /**
+     * @param nanos a latency in nanoseconds
+     * @return the index of its histogram bucket
+     */
+    static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(0, nanos);
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @param bucket the index of a histogram bucket
+     * @return the highest latency in nanoseconds counted in this bucket
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        long lowerBound = (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * @param operation the traced operation, like {@link #INSERT}
+     * @return the amount of recorded operations
+     */
+    public long getCount(int operation) {
+        return counts.get(operation);
+    }
+
+    /**
+     * @param operation the traced operation, like {@link #INSERT}
+     * @return the amount of rows of all recorded operations
+     */
+    public long getRows(int operation) {
+        return rows.get(operation);
+    }
+
+    /**
+     * @param operation the traced operation, like {@link #INSERT}
+     * @return the highest recorded latency in nanoseconds
+     */
+    public long getMaxNanos(int operation) {
+        return maxNanos.get(operation);
+    }
+
+    /**
+     * This method returns a percentile of the recorded latencies.
+     * The value is rounded up to the bucket bound, so it can be checked against a budget.
+     *
+     * @param operation  the traced operation, like {@link #INSERT}
+     * @param percentile the percentile between 0 and 100, like 50 for the median
+     * @return the latency in nanoseconds, 0 if nothing was recorded
+     */
+    public long getPercentileNanos(int operation, double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Invalid percentile " + percentile);
+        }
+
+        // the histogram may change while reading, so the total is counted from the same values
+        long[] buckets = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = histograms.get(operation * BUCKET_COUNT + i);
+            total += buckets[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), getMaxNanos(operation));
+            }
+        }
+        return getMaxNanos(operation);
+    }
+
+    /**
+     * @return the kept SQL samples, oldest first
+     */
+    @NonNull
+    public List<Sample> getSamples() {
+        synchronized (samples) {
+            int size = Math.min(sampleCount, SAMPLE_CAPACITY);
+            List<Sample> result = new ArrayList<>(size);
+
+            for (int i = sampleCount - size; i < sampleCount; i++) {
+                result.add(samples[i % SAMPLE_CAPACITY]);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * This method clears all recorded values and samples
+     */
+    public void reset() {
+        for (int i = 0; i < histograms.length(); i++) {
+            histograms.set(i, 0);
+        }
+        for (int i = 0; i < OPERATION_COUNT; i++) {
+            counts.set(i, 0);
+            rows.set(i, 0);
+            maxNanos.set(i, 0);
+        }
+
+        synchronized (samples) {
+            sampleCount = 0;
+        }
+    }
+
+    /**
+     * This method logs a summary of every operation that was recorded
+     */
+    public void log() {
+        for (int operation = 0; operation < OPERATION_COUNT; operation++) {
+            long count = getCount(operation);
+
+            if (count > 0) {
+                Log.i(TAG, String.format(Locale.ROOT, "%s: %d operations, %d rows, p50 %d µs, p99 %d µs, max %d µs",
+                        OPERATION_NAMES[operation], count, getRows(operation),
+                        getPercentileNanos(operation, 50) / 1000, getPercentileNanos(operation, 99) / 1000,
+                        getMaxNanos(operation) / 1000));
+            }
+        }
+    }
+
+    /**
+     * This class holds the SQL of a sampled operation.
+     */
+    public static final class Sample {
+        private final int operation;
+        private final String sql;
+        private final long nanos;
+        private final int rowCount;
+
+        Sample(int operation, @NonNull String sql, long nanos, int rowCount) {
+            this.operation = operation;
+            this.sql = sql;
+            this.nanos = nanos;
+            this.rowCount = rowCount;
+        }
+
+        public int getOperation() {
+            return operation;
+        }
+
+        @NonNull
+        public String getSql() {
+            return sql;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return OPERATION_NAMES[operation] + " of " + rowCount + " rows in " + nanos / 1000 + " µs: " + sql;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package de.dotwee.micropinner.database;
+
+import androidx.annotation.NonNull;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class queues pin updates and deletes for the write-behind mode of {@link PinDatabase}.
+ * <p>
+ * Changes are written by a single thread. Changes to the same pin that are still
+ * pending get merged, so only the last one is written. All pending changes are
+ * committed as one batch within a single transaction.
+ */
+final class PinWriteQueue {
+    private static final String TAG = PinWriteQueue.class.getSimpleName();
+
+    /**
+     * Time to wait for further changes before a batch gets written.
+     */
+    private static final long BATCH_DELAY_MS = 100;
+
+    private final PinDatabase pinDatabase;
+    private final ScheduledExecutorService executor;
+    private final Runnable drain = this::drain;
+
+    private final Object lock = new Object();
+    /* pending changes by pin id, a null value marks a delete */
+    private Map<Long, PinSpec> pending = new LinkedHashMap<>();
+    private boolean pendingDeleteAll = false;
+    private boolean scheduled = false;
+
+    PinWriteQueue(@NonNull PinDatabase pinDatabase) {
+        this.pinDatabase = pinDatabase;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                runnable -> new Thread(runnable, TAG));
+    }
+
+    void enqueueWrite(@NonNull PinSpec pin) {
+        synchronized (lock) {
+            pending.put(pin.getId(), pin);
+            schedule();
+        }
+    }
+
+    void enqueueDelete(long id) {
+        synchronized (lock) {
+            pending.put(id, null);
+            schedule();
+        }
+    }
+
+    void enqueueDeleteAll() {
+        synchronized (lock) {
+            // nothing pending would survive the delete anyway
+            pending.clear();
+            pendingDeleteAll = true;
+            schedule();
+        }
+    }
+
+    /**
+     * This method blocks until all pending changes are committed
+     */
+    void flush() {
+        try {
+            executor.submit(drain).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Writing pending pins failed", e.getCause());
+        }
+    }
+
+    /**
+     * This method commits all pending changes and stops the writer thread
+     */
+    void shutdown() {
+        flush();
+        executor.shutdown();
+    }
+
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            executor.schedule(drain, BATCH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void drain() {
+        Map<Long, PinSpec> batch;
+        boolean deleteAll;
+
+        synchronized (lock) {
+            batch = pending;
+            deleteAll = pendingDeleteAll;
+
+            pending = new LinkedHashMap<>();
+            pendingDeleteAll = false;
+            scheduled = false;
+        }
+
+        if (!batch.isEmpty() || deleteAll) {
+            Log.i(TAG, "Writing batch of " + batch.size() + " pins; deleteAll " + deleteAll);
+            pinDatabase.writeBatch(batch, deleteAll);
+        }
+    }
+}
@@ -45,6 +45,11 @@ public interface MainPresenter {
      */
     void onShowActions();
 
+    /**
+     * This method handles the click on the pins-before-unlock checkbox.
+     */
+    void onPinsBeforeUnlock();
+
     /**
      * This method handles the expand action.
      *
@@ -3,8 +3,6 @@ package de.dotwee.micropinner.presenter;
 import android.Manifest;
 import android.app.Activity;
 import android.app.Notification;
-import android.app.NotificationManager;
-import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Build;
@@ -22,8 +20,6 @@ import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.io.Serializable;
-
 import de.dotwee.micropinner.R;
 import de.dotwee.micropinner.database.PinDatabase;
 import de.dotwee.micropinner.database.PinSpec;
@@ -37,7 +33,6 @@ import de.dotwee.micropinner.tools.PreferencesHandler;
 public class MainPresenterImpl implements MainPresenter {
     private static final String TAG = MainPresenterImpl.class.getSimpleName();
     private final PreferencesHandler preferencesHandler;
-    private final NotificationManager notificationManager;
     private final Activity activity;
     private final int activityPermissionRequestCode;
 
@@ -53,9 +48,6 @@ public class MainPresenterImpl implements MainPresenter {
 
         pinDatabase = PinDatabase.getInstance(activity.getApplicationContext());
 
-        notificationManager =
-                (NotificationManager) activity.getSystemService(Context.NOTIFICATION_SERVICE);
-
         // check if first use
         if (preferencesHandler.isFirstUse()) {
 
@@ -151,10 +143,10 @@ public class MainPresenterImpl implements MainPresenter {
     @Override
     public void onButtonNegative() {
         if (hasParentPin()) {
-            notificationManager.cancel(parentPin.getIdAsInt());
+            NotificationTools.cancel(activity, parentPin);
 
             Intent intent = new Intent(activity, OnDeleteReceiver.class);
-            intent.putExtra(NotificationTools.EXTRA_INTENT, parentPin);
+            NotificationTools.putPinExtras(intent, parentPin);
             activity.sendBroadcast(intent);
         }
 
@@ -180,6 +172,12 @@ public class MainPresenterImpl implements MainPresenter {
             checkBox.setChecked(true);
         }
 
+        // restore pins-before-unlock checkbox
+        if (preferencesHandler.isPinsBeforeUnlockEnabled()) {
+            CheckBox checkBox = activity.findViewById(R.id.checkBoxPinsBeforeUnlock);
+            checkBox.setChecked(true);
+        }
+
         // restore advanced layout
         this.onViewExpand(preferencesHandler.isAdvancedUsed());
 
@@ -196,6 +194,16 @@ public class MainPresenterImpl implements MainPresenter {
         preferencesHandler.setNotificationActionsEnabled(checkBox.isChecked());
     }
 
+    /**
+     * This method handles the click on the pins-before-unlock checkbox.
+     */
+    @Override
+    public void onPinsBeforeUnlock() {
+        CheckBox checkBox = activity.findViewById(R.id.checkBoxPinsBeforeUnlock);
+        preferencesHandler.setPinsBeforeUnlockEnabled(checkBox.isChecked());
+        pinDatabase.setLockScreenSnapshot(activity, checkBox.isChecked());
+    }
+
     /**
      * This method handles the expand action.
      *
@@ -203,7 +211,8 @@ public class MainPresenterImpl implements MainPresenter {
      */
     @Override
     public void onViewExpand(boolean expand) {
-        int[] expandedIds = new int[]{R.id.checkBoxPersistentPin, R.id.checkBoxShowActions};
+        int[] expandedIds = new int[]{R.id.checkBoxPersistentPin, R.id.checkBoxShowActions,
+                R.id.checkBoxPinsBeforeUnlock};
 
         for (int id : expandedIds) {
             View view = activity.findViewById(id);
@@ -213,6 +222,12 @@ public class MainPresenterImpl implements MainPresenter {
             }
         }
 
+        // pins can only be shown before the first unlock since Android 7.0
+        View pinsBeforeUnlock = activity.findViewById(R.id.checkBoxPinsBeforeUnlock);
+        if (pinsBeforeUnlock != null && Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            pinsBeforeUnlock.setVisibility(View.GONE);
+        }
+
         preferencesHandler.setAdvancedUse(expand);
     }
 
@@ -221,16 +236,15 @@ public class MainPresenterImpl implements MainPresenter {
      */
     @Override
     public boolean hasParentPin() {
-        if (intent != null) {
-            Serializable extra = intent.getSerializableExtra(NotificationTools.EXTRA_INTENT);
+        if (parentPin != null) {
+            return true;
+        }
 
-            if (extra instanceof PinSpec) {
-                this.parentPin = (PinSpec) extra;
-                return true;
-            }
+        if (intent != null) {
+            this.parentPin = NotificationTools.getPin(activity, intent);
         }
 
-        return false;
+        return parentPin != null;
     }
 
     /**
@@ -8,7 +8,7 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import de.dotwee.micropinner.tools.NotificationTools;
+import de.dotwee.micropinner.tools.NotificationRestorer;
 
 public class OnBootReceiver extends BroadcastReceiver {
     private final static String TAG = OnBootReceiver.class.getSimpleName();
@@ -21,13 +21,22 @@ public class OnBootReceiver extends BroadcastReceiver {
             return;
         }
 
-        if (!intent.getAction().equals(Intent.ACTION_BOOT_COMPLETED)) {
-            Log.w(TAG, "OnBootReceiver's intent actions is not "
-                    + Intent.ACTION_BOOT_COMPLETED
-                    + ", returning without work");
-            return;
-        }
+        // restoring reads every pin, so it must not block the main thread
+        switch (intent.getAction()) {
+            case Intent.ACTION_LOCKED_BOOT_COMPLETED:
+                PendingResult lockedResult = goAsync();
+                NotificationRestorer.getInstance(context).restoreLocked(lockedResult::finish);
+                break;
 
-        NotificationTools.restoreNotifications(context);
+            case Intent.ACTION_BOOT_COMPLETED:
+                PendingResult result = goAsync();
+                NotificationRestorer.getInstance(context).restore(result::finish);
+                break;
+
+            default:
+                Log.w(TAG, "OnBootReceiver's intent actions is not "
+                        + Intent.ACTION_BOOT_COMPLETED + " or " + Intent.ACTION_LOCKED_BOOT_COMPLETED
+                        + ", returning without work");
+        }
     }
 }
@@ -10,6 +10,7 @@ import android.util.Log;
 import android.widget.Toast;
 
 import de.dotwee.micropinner.R;
+import de.dotwee.micropinner.database.PinDatabase;
 import de.dotwee.micropinner.database.PinSpec;
 import de.dotwee.micropinner.tools.NotificationTools;
 
@@ -19,10 +20,10 @@ import de.dotwee.micropinner.tools.NotificationTools;
  * This class represents a broadcast receiver for
  * {@link android.app.Notification} OnAction intents.
  * <p>
- * Intents should contain a serialized {@link PinSpec}
+ * Intents should contain the id of a {@link PinSpec}
  * as extra.
  * <p>
- * If yes, the onReceive method will copy the serialized
+ * If yes, the onReceive method will copy the current
  * pin-content to the clipboard and notify the user with
  * a {@link Toast}.
  */
@@ -32,7 +33,12 @@ public class OnClipReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
 
-        PinSpec pin = (PinSpec) intent.getSerializableExtra(NotificationTools.EXTRA_INTENT);
+        if (!NotificationTools.hasPin(intent)) {
+            throw new IllegalArgumentException(
+                    "Intent did not contain a pin as extra! " + intent.toString());
+        }
+
+        PinSpec pin = NotificationTools.getPin(context, intent);
 
         if (pin != null) {
             Log.i(TAG, "Received clipIntent from pin " + pin.getId());
@@ -45,8 +51,7 @@ public class OnClipReceiver extends BroadcastReceiver {
             Toast.makeText(context, context.getString(R.string.message_clipped_pin), Toast.LENGTH_SHORT)
                     .show();
         } else {
-            throw new IllegalArgumentException(
-                    "Intent did not contain a pin as serialized extra! " + intent.toString());
+            Log.i(TAG, "Received clipIntent from a pin that does not exist anymore");
         }
     }
 }
@@ -8,6 +8,7 @@ import android.util.Log;
 
 import de.dotwee.micropinner.database.PinDatabase;
 import de.dotwee.micropinner.database.PinSpec;
+import de.dotwee.micropinner.tools.DirectBoot;
 import de.dotwee.micropinner.tools.NotificationTools;
 
 /**
@@ -16,8 +17,10 @@ import de.dotwee.micropinner.tools.NotificationTools;
  * This class is a broadcast receiver for {@link android.app.Notification}
  * DeleteIntents.
  * <p>
- * Intents should contain a serialized pin as extra.
- * If yes, tell the {@link PinDatabase} to delete the pin
+ * Intents should contain the id of a pin as extra.
+ * If yes, tell the {@link PinDatabase} to delete the pin,
+ * unless the pin was changed after the intent was created.
+ * Before the first unlock the intent is recorded, see {@link DirectBoot}.
  */
 public class OnDeleteReceiver extends BroadcastReceiver {
     private final static String TAG = OnDeleteReceiver.class.getSimpleName();
@@ -25,17 +28,44 @@ public class OnDeleteReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
 
-        // deserialize our pin from the intent
-        PinSpec pin = (PinSpec) intent.getSerializableExtra(NotificationTools.EXTRA_INTENT);
+        if (!NotificationTools.hasPin(intent)) {
+            throw new IllegalArgumentException(
+                    "Intent did not contain a pin as extra! " + intent.toString());
+        }
+
+        // the database can not be opened before the first unlock, the pin is deleted afterwards
+        if (DirectBoot.isLocked(context)) {
+            Log.i(TAG, "Recording deleteIntent until the user unlocks");
+            DirectBoot.recordDeletion(context, intent);
+            return;
+        }
+
+        deletePin(context, intent);
+    }
 
-        if (pin != null) {
+    /**
+     * This method deletes the pin of a delete intent, unless it was changed after the intent was created
+     *
+     * @param context the context to open the database with
+     * @param intent  the delete intent of the notification of the pin
+     */
+    public static void deletePin(@NonNull Context context, @NonNull Intent intent) {
+        // look up the current state of our pin
+        PinSpec pin = NotificationTools.getPin(context, intent);
+
+        if (pin == null) {
+            Log.i(TAG, "Received deleteIntent from a pin that does not exist anymore");
+        } else if (NotificationTools.isStale(intent, pin)) {
+            // the notification was replaced by a newer version of the pin in the meantime
+            Log.i(TAG, "Ignored stale deleteIntent from pin " + pin.getId());
+        } else {
             Log.i(TAG, "Received deleteIntent from pin " + pin.getId());
 
+            // drop an update of the notification that may still be queued
+            NotificationTools.cancel(context, pin);
+
             // and tell the pin handler to remove it from the index
             PinDatabase.getInstance(context).deletePin(pin);
-        } else {
-            throw new IllegalArgumentException(
-                    "Intent did not contain a pin as serialized extra! " + intent.toString());
         }
     }
 }
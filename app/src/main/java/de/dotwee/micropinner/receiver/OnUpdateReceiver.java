@@ -8,7 +8,7 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import de.dotwee.micropinner.tools.NotificationTools;
+import de.dotwee.micropinner.tools.NotificationRestorer;
 
 /**
  * This receiver is used when the app is updated to ensure notifications are restored immediately.
@@ -33,6 +33,8 @@ public class OnUpdateReceiver extends BroadcastReceiver {
             return;
         }
 
-        NotificationTools.restoreNotifications(context);
+        // restoring reads every pin, so it must not block the main thread
+        PendingResult result = goAsync();
+        NotificationRestorer.getInstance(context).restore(result::finish);
     }
 }
\ No newline at end of file
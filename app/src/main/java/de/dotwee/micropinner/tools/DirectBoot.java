@@ -0,0 +1,154 @@
+package de.dotwee.micropinner.tools;
+
+import android.content.Context;
+import android.content.Intent;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+import androidx.core.os.UserManagerCompat;
+import android.util.Log;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class handles pins before the first unlock after a boot, when only device
+ * protected storage is available.
+ * <p>
+ * If the user opted in, notifications are restored from the snapshot in device protected
+ * storage, see {@link de.dotwee.micropinner.database.PinSnapshot}. Notifications dismissed meanwhile
+ * cannot delete their pin, so their delete intents are recorded in a journal there and
+ * replayed once the database can be opened.
+ */
+public final class DirectBoot {
+    private static final String TAG = DirectBoot.class.getSimpleName();
+
+    static final String JOURNAL_NAME = "pins.journal";
+
+    /* pin id, version and fingerprint */
+    private static final int RECORD_BYTES = 3 * 8;
+
+    private DirectBoot() {
+    }
+
+    /**
+     * @param context the context to check the user with
+     * @return true if credential protected storage, including the database, is not available yet
+     */
+    public static boolean isLocked(@NonNull Context context) {
+        return !UserManagerCompat.isUserUnlocked(context);
+    }
+
+    @Nullable
+    private static File getJournal(@NonNull Context context) {
+        Context storageContext = ContextCompat.createDeviceProtectedStorageContext(context);
+        return storageContext != null ? new File(storageContext.getFilesDir(), JOURNAL_NAME) : null;
+    }
+
+    /**
+     * This method records the delete intent of a notification dismissed before the first unlock
+     *
+     * @param context the context to get the device protected storage with
+     * @param intent  the delete intent of the notification
+     */
+    public static synchronized void recordDeletion(@NonNull Context context, @NonNull Intent intent) {
+        File journal = getJournal(context);
+        if (journal == null || !intent.hasExtra(NotificationTools.EXTRA_PIN_ID)) {
+            Log.w(TAG, "Could not record deletion of " + intent);
+            return;
+        }
+
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(journal, true);
+            DataOutputStream dataStream = new DataOutputStream(outputStream);
+            dataStream.writeLong(intent.getLongExtra(NotificationTools.EXTRA_PIN_ID, -1));
+            dataStream.writeLong(intent.getLongExtra(NotificationTools.EXTRA_PIN_VERSION, 0));
+            dataStream.writeLong(intent.getLongExtra(NotificationTools.EXTRA_PIN_FINGERPRINT, 0));
+            dataStream.flush();
+            outputStream.getFD().sync();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not record deletion", e);
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * This method reads the recorded delete intents, a record cut off by a crash is left out
+     *
+     * @param context the context to get the device protected storage with
+     * @return the delete intents in the order they were recorded
+     */
+    @NonNull
+    static synchronized List<Intent> getDeletions(@NonNull Context context) {
+        List<Intent> deletions = new ArrayList<>();
+        File journal = getJournal(context);
+        if (journal == null || !journal.exists()) {
+            return deletions;
+        }
+
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(journal, "r");
+            byte[] bytes = new byte[(int) (randomAccessFile.length() / RECORD_BYTES * RECORD_BYTES)];
+            randomAccessFile.readFully(bytes);
+
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                deletions.add(new Intent()
+                        .putExtra(NotificationTools.EXTRA_PIN_ID, buffer.getLong())
+                        .putExtra(NotificationTools.EXTRA_PIN_VERSION, buffer.getLong())
+                        .putExtra(NotificationTools.EXTRA_PIN_FINGERPRINT, buffer.getLong()));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read recorded deletions", e);
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return deletions;
+    }
+
+    /**
+     * @param deletions the recorded delete intents
+     * @return the ids of their pins, in ascending order
+     */
+    @NonNull
+    static long[] getPinIds(@NonNull List<Intent> deletions) {
+        long[] ids = new long[deletions.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = deletions.get(i).getLongExtra(NotificationTools.EXTRA_PIN_ID, -1);
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * This method forgets the recorded delete intents, once they are applied to the database
+     *
+     * @param context the context to get the device protected storage with
+     */
+    static synchronized void clearDeletions(@NonNull Context context) {
+        File journal = getJournal(context);
+        if (journal != null && journal.exists() && !journal.delete()) {
+            Log.w(TAG, "Could not delete " + journal);
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package de.dotwee.micropinner.tools;
+
+import androidx.annotation.NonNull;
+import androidx.core.app.NotificationCompat;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+import de.dotwee.micropinner.database.PinSpec;
+
+/**
+ * This class decides which pins get a notification of their own, as the system only
+ * keeps about 50 active notifications per package and silently drops the rest.
+ * <p>
+ * Pins are ranked by priority, then by their last modification. The highest ranked
+ * pins are shown individually, the others are listed by the {@link OverflowSummary}.
+ * Adding, changing or removing a pin moves at most one other pin between both sets,
+ * so nothing else has to be posted again.
+ */
+public final class NotificationCapacity {
+
+    /**
+     * Pins shown individually, leaving room for the summary and a spare notification
+     */
+    static final int MAX_INDIVIDUAL = 48;
+
+    private static NotificationCapacity instance = null;
+
+    private final int maxIndividual;
+
+    /* ranked pins, guarded by this */
+    private final TreeSet<Slot> individual = new TreeSet<>(Slot.RANK);
+    private final TreeSet<Slot> overflow = new TreeSet<>(Slot.RANK);
+    private final SparseArray<Slot> slots = new SparseArray<>();
+
+    /**
+     * @param maxIndividual the amount of pins shown individually
+     */
+    NotificationCapacity(int maxIndividual) {
+        this.maxIndividual = maxIndividual;
+    }
+
+    public static synchronized NotificationCapacity getInstance() {
+        if (instance == null) {
+            instance = new NotificationCapacity(MAX_INDIVIDUAL);
+        }
+
+        return instance;
+    }
+
+    /**
+     * This method adds a pin or updates its rank after it was changed
+     *
+     * @param pin the pin, it has to be written to the database
+     * @return the notifications that have to be posted or cancelled
+     */
+    @NonNull
+    public synchronized Changes put(@NonNull PinSpec pin) {
+        Changes changes = new Changes();
+        Slot previous = slots.get(pin.getNotificationId());
+        boolean wasIndividual = previous != null && individual.contains(previous);
+
+        if (previous != null) {
+            detach(previous);
+        }
+
+        Slot slot = new Slot(pin);
+        slots.put(slot.notificationId, slot);
+        overflow.add(slot);
+        rebalance(changes);
+
+        changes.shown = individual.contains(slot);
+        changes.promoted.remove(slot.pinId);
+
+        if (wasIndividual && !changes.shown) {
+            changes.demoted.add(slot.notificationId);
+        }
+
+        changes.overflowChanged = (previous != null && !wasIndividual) || !changes.shown
+                || !changes.promoted.isEmpty() || !changes.demoted.isEmpty();
+        return changes;
+    }
+
+    /**
+     * This method removes a deleted pin
+     *
+     * @param notificationId the notification id of the pin
+     * @return the notifications that have to be posted or cancelled
+     */
+    @NonNull
+    public synchronized Changes remove(int notificationId) {
+        Changes changes = new Changes();
+        Slot slot = slots.get(notificationId);
+
+        if (slot != null) {
+            boolean wasIndividual = individual.contains(slot);
+            detach(slot);
+            slots.remove(notificationId);
+            rebalance(changes);
+
+            changes.overflowChanged = !wasIndividual || !changes.promoted.isEmpty();
+        }
+        return changes;
+    }
+
+    /**
+     * This method forgets all pins, before they are restored
+     */
+    public synchronized void clear() {
+        individual.clear();
+        overflow.clear();
+        slots.clear();
+    }
+
+    private void detach(@NonNull Slot slot) {
+        if (!individual.remove(slot)) {
+            overflow.remove(slot);
+        }
+    }
+
+    /* moves pins until the best ones are shown individually, records every move */
+    private void rebalance(@NonNull Changes changes) {
+        while (individual.size() > maxIndividual) {
+            demote(individual.pollLast(), changes);
+        }
+
+        while (!overflow.isEmpty() && individual.size() < maxIndividual) {
+            promote(overflow.pollFirst(), changes);
+        }
+
+        while (!overflow.isEmpty() && !individual.isEmpty()
+                && Slot.RANK.compare(overflow.first(), individual.last()) < 0) {
+            demote(individual.pollLast(), changes);
+            promote(overflow.pollFirst(), changes);
+        }
+    }
+
+    private void promote(@NonNull Slot slot, @NonNull Changes changes) {
+        individual.add(slot);
+
+        if (!changes.demoted.remove(Integer.valueOf(slot.notificationId))) {
+            changes.promoted.add(slot.pinId);
+        }
+    }
+
+    private void demote(@NonNull Slot slot, @NonNull Changes changes) {
+        overflow.add(slot);
+
+        if (!changes.promoted.remove(slot.pinId)) {
+            changes.demoted.add(slot.notificationId);
+        }
+    }
+
+    /**
+     * @param notificationId the notification id of a pin
+     * @return true if the pin is shown individually
+     */
+    public synchronized boolean isIndividual(int notificationId) {
+        Slot slot = slots.get(notificationId);
+        return slot != null && individual.contains(slot);
+    }
+
+    /**
+     * @return the ids of the pins shown individually, highest ranked first
+     */
+    @NonNull
+    public synchronized long[] getIndividualPinIds() {
+        long[] ids = new long[individual.size()];
+        int i = 0;
+
+        for (Slot slot : individual) {
+            ids[i++] = slot.pinId;
+        }
+        return ids;
+    }
+
+    /**
+     * @return the notification ids of the pins shown individually, in ascending order
+     */
+    @NonNull
+    public synchronized int[] getIndividualNotificationIds() {
+        int[] ids = new int[individual.size()];
+        int i = 0;
+
+        for (Slot slot : individual) {
+            ids[i++] = slot.notificationId;
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * @param notificationId the notification id of a pin
+     * @return the id of the pin, -1 if it is unknown
+     */
+    public synchronized long getPinId(int notificationId) {
+        Slot slot = slots.get(notificationId);
+        return slot != null ? slot.pinId : -1;
+    }
+
+    /**
+     * @param notificationId the notification id of a pin
+     * @return the fingerprint of the notification of the pin, 0 if it is unknown
+     * @see NotificationFingerprint
+     */
+    public synchronized long getFingerprint(int notificationId) {
+        Slot slot = slots.get(notificationId);
+        return slot != null ? slot.fingerprint : 0;
+    }
+
+    /**
+     * @return the notification ids of the pins within the overflow
+     */
+    @NonNull
+    public synchronized int[] getOverflowNotificationIds() {
+        int[] ids = new int[overflow.size()];
+        int i = 0;
+
+        for (Slot slot : overflow) {
+            ids[i++] = slot.notificationId;
+        }
+        return ids;
+    }
+
+    /**
+     * @return the ids of the pins within the overflow, highest ranked first
+     */
+    @NonNull
+    public synchronized long[] getOverflowPinIds() {
+        long[] ids = new long[overflow.size()];
+        int i = 0;
+
+        for (Slot slot : overflow) {
+            ids[i++] = slot.pinId;
+        }
+        return ids;
+    }
+
+    /**
+     * @param limit the maximum amount of titles
+     * @return the titles of the highest ranked pins within the overflow, secret pins are left out
+     */
+    @NonNull
+    public synchronized List<String> getOverflowTitles(int limit) {
+        List<String> titles = new ArrayList<>(Math.min(limit, overflow.size()));
+        Iterator<Slot> iterator = overflow.iterator();
+
+        while (titles.size() < limit && iterator.hasNext()) {
+            Slot slot = iterator.next();
+
+            if (slot.visibility != NotificationCompat.VISIBILITY_SECRET) {
+                titles.add(slot.title);
+            }
+        }
+        return titles;
+    }
+
+    /**
+     * @return the amount of pins shown individually
+     */
+    public synchronized int getIndividualCount() {
+        return individual.size();
+    }
+
+    /**
+     * @return the amount of pins within the overflow
+     */
+    public synchronized int getOverflowCount() {
+        return overflow.size();
+    }
+
+    /**
+     * @return the amount of all ranked pins
+     */
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    /**
+     * This class holds the notifications affected by adding, changing or removing a pin.
+     */
+    public static final class Changes {
+        /* ids of the pins that get a notification of their own */
+        final List<Long> promoted = new ArrayList<>(1);
+        /* notification ids of the pins that moved to the overflow */
+        final List<Integer> demoted = new ArrayList<>(1);
+        boolean overflowChanged = false;
+        boolean shown = false;
+
+        /**
+         * @return true if the pin that was put is shown individually
+         */
+        public boolean isShown() {
+            return shown;
+        }
+
+        /**
+         * @return true if the overflow summary has to be updated
+         */
+        public boolean isOverflowChanged() {
+            return overflowChanged;
+        }
+
+        @NonNull
+        public List<Long> getPromoted() {
+            return promoted;
+        }
+
+        @NonNull
+        public List<Integer> getDemoted() {
+            return demoted;
+        }
+    }
+
+    /**
+     * This class holds the values a pin is ranked by.
+     */
+    private static final class Slot {
+        /* higher priority first, then the most recently changed */
+        static final Comparator<Slot> RANK = (first, second) -> {
+            int result = Integer.compare(second.priority, first.priority);
+            if (result == 0) {
+                result = Long.compare(second.updatedAt, first.updatedAt);
+            }
+            return result != 0 ? result : Integer.compare(first.notificationId, second.notificationId);
+        };
+
+        final int notificationId;
+        final long pinId;
+        final int priority;
+        final long updatedAt;
+        final String title;
+        final int visibility;
+        final long fingerprint;
+
+        Slot(@NonNull PinSpec pin) {
+            this.notificationId = pin.getNotificationId();
+            this.pinId = pin.getId();
+            this.priority = pin.getPriority();
+            this.updatedAt = pin.getUpdatedAt();
+            this.title = pin.getTitle();
+            this.visibility = pin.getVisibility();
+            this.fingerprint = NotificationFingerprint.of(pin);
+        }
+    }
+}
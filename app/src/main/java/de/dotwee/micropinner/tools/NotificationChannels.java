@@ -0,0 +1,230 @@
+package de.dotwee.micropinner.tools;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+import androidx.core.app.NotificationCompat;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import de.dotwee.micropinner.BuildConfig;
+import de.dotwee.micropinner.R;
+
+/**
+ * This class sets up the notification channels of pins.
+ * <p>
+ * Channels are created once per process. The app version and locale they were created
+ * for are persisted, so later processes only check that they still exist. They are
+ * created again after an upgrade or a change of the locale, as their names are translated.
+ * They are also checked again once notifications posted by this process disappeared,
+ * as deleting a channel cancels its notifications, see {@link NotificationReconciler}.
+ */
+public final class NotificationChannels {
+    /**
+     * Used in app version 2.2.0 and earlier.
+     */
+    private static final String CHANNEL_NAME_OLD = "pin_channel";
+    static final String CHANNEL_NAME_PUBLIC = "pin_channel_public";
+    static final String CHANNEL_NAME_PRIVATE = "pin_channel_private";
+    static final String CHANNEL_NAME_SECRET = "pin_channel_secret";
+
+    private static final String TAG = NotificationChannels.class.getSimpleName();
+
+    /* version and locale the channels are set up for within this process */
+    private static volatile String readyKey = null;
+
+    private NotificationChannels() {
+    }
+
+    /**
+     * This method returns the channel of a pin, there is one per visibility level
+     * so users can customize how pins are shown on the lock screen
+     *
+     * @param visibility the visibility of the pin
+     * @return the id of the channel
+     */
+    @NonNull
+    public static String getChannelId(int visibility) {
+        switch (visibility) {
+            case NotificationCompat.VISIBILITY_PUBLIC:
+                return CHANNEL_NAME_PUBLIC;
+            case NotificationCompat.VISIBILITY_PRIVATE:
+                return CHANNEL_NAME_PRIVATE;
+            case NotificationCompat.VISIBILITY_SECRET:
+                return CHANNEL_NAME_SECRET;
+            default:
+                throw new RuntimeException("Unknown visibility value");
+        }
+    }
+
+    /**
+     * This method creates the channels unless they are already set up for the
+     * current app version and locale. It does nothing before API 26.
+     *
+     * @param context             context to read the channel names with
+     * @param notificationManager the notification manager to create the channels with
+     */
+    public static void ensureCreated(@NonNull Context context, @NonNull NotificationManager notificationManager) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return;
+        }
+
+        if (!getKey(context).equals(readyKey)) {
+            ensureCreated(context, wrap(notificationManager));
+        }
+    }
+
+    /**
+     * This method creates the channels unless they are already set up, see
+     * {@link #ensureCreated(Context, NotificationManager)}
+     *
+     * @param context        context to read the channel names with
+     * @param channelManager the calls to create the channels with
+     */
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    static void ensureCreated(@NonNull Context context, @NonNull ChannelManager channelManager) {
+        String key = getKey(context);
+        if (key.equals(readyKey)) {
+            return;
+        }
+
+        synchronized (NotificationChannels.class) {
+            if (key.equals(readyKey)) {
+                return;
+            }
+
+            // preferences are not available before the first unlock, the channels are checked again afterwards
+            if (DirectBoot.isLocked(context)) {
+                if (!exists(channelManager)) {
+                    Log.i(TAG, "Creating notification channels before the first unlock");
+                    create(context, channelManager);
+                }
+                return;
+            }
+
+            PreferencesHandler preferencesHandler = PreferencesHandler.getInstance(context);
+            if (!key.equals(preferencesHandler.getNotificationChannelsKey()) || !exists(channelManager)) {
+                Log.i(TAG, "Creating notification channels for " + key);
+                create(context, channelManager);
+                preferencesHandler.setNotificationChannelsKey(key);
+            }
+
+            readyKey = key;
+        }
+    }
+
+    /**
+     * This method makes the next notification check the channels again,
+     * like after they were deleted by the user
+     */
+    static void invalidate() {
+        readyKey = null;
+    }
+
+    @NonNull
+    private static String getKey(@NonNull Context context) {
+        return BuildConfig.VERSION_CODE + "/" + getLocale(context);
+    }
+
+    /**
+     * @param context the context to read the configuration of
+     * @return the locale texts of notifications are shown in
+     */
+    @NonNull
+    static Locale getLocale(@NonNull Context context) {
+        Configuration configuration = context.getResources().getConfiguration();
+
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                ? configuration.getLocales().get(0) : configuration.locale;
+    }
+
+    /**
+     * @param channelManager the calls to read the channels with
+     * @return true if all channels of pins exist, checked with a single call
+     */
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private static boolean exists(@NonNull ChannelManager channelManager) {
+        int found = 0;
+        for (NotificationChannel channel : channelManager.getNotificationChannels()) {
+            switch (channel.getId()) {
+                case CHANNEL_NAME_PUBLIC:
+                case CHANNEL_NAME_PRIVATE:
+                case CHANNEL_NAME_SECRET:
+                    found++;
+                    break;
+            }
+        }
+        return found == 3;
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private static void create(@NonNull Context context, @NonNull ChannelManager channelManager) {
+        // Delete old channel used in version 2.2.0 and earlier:
+        channelManager.deleteNotificationChannel(CHANNEL_NAME_OLD);
+
+        // Existing channels only get their name updated, settings of the user are kept
+        channelManager.createNotificationChannels(Arrays.asList(
+                newChannel(context, CHANNEL_NAME_PUBLIC, R.string.notifications_channel_public, Notification.VISIBILITY_PUBLIC),
+                newChannel(context, CHANNEL_NAME_PRIVATE, R.string.notifications_channel_private, Notification.VISIBILITY_PRIVATE),
+                newChannel(context, CHANNEL_NAME_SECRET, R.string.notifications_channel_secret, Notification.VISIBILITY_SECRET)));
+    }
+
+    @NonNull
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private static NotificationChannel newChannel(@NonNull Context context, @NonNull String id, int name, int visibility) {
+        // Use low importance in order to not make a sound when creating a notification.
+        // If this is too low then the user should be able to manually change channel settings, so this seems like a sensible default.
+        // See: https://developer.android.com/develop/ui/views/notifications/channels#importance
+        NotificationChannel channel = new NotificationChannel(id, context.getResources().getString(name),
+                NotificationManager.IMPORTANCE_LOW);
+
+        channel.setLockscreenVisibility(visibility);
+        channel.setShowBadge(false);
+        channel.enableLights(false);
+        channel.enableVibration(false);
+        return channel;
+    }
+
+    @NonNull
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private static ChannelManager wrap(@NonNull NotificationManager notificationManager) {
+        return new ChannelManager() {
+            @NonNull
+            @Override
+            public List<NotificationChannel> getNotificationChannels() {
+                return notificationManager.getNotificationChannels();
+            }
+
+            @Override
+            public void deleteNotificationChannel(@NonNull String id) {
+                notificationManager.deleteNotificationChannel(id);
+            }
+
+            @Override
+            public void createNotificationChannels(@NonNull List<NotificationChannel> channels) {
+                notificationManager.createNotificationChannels(channels);
+            }
+        };
+    }
+
+    /**
+     * This interface holds the calls to the notification manager that set up channels.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    interface ChannelManager {
+        @NonNull
+        List<NotificationChannel> getNotificationChannels();
+
+        void deleteNotificationChannel(@NonNull String id);
+
+        void createNotificationChannels(@NonNull List<NotificationChannel> channels);
+    }
+}
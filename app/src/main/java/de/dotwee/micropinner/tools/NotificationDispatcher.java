@@ -0,0 +1,359 @@
+package de.dotwee.micropinner.tools;
+
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.Comparator;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import de.dotwee.micropinner.database.PinSpec;
+
+/**
+ * This class paces the notifications of pins, as the system drops updates of a
+ * package that posts faster than about five notifications per second.
+ * <p>
+ * Notifications are posted right away while the token bucket allows it, otherwise
+ * they are queued and posted by a single thread as tokens become available.
+ * A queued notification that gets updated again is only posted once, with the
+ * latest state of the pin. Pins with a higher priority are posted first, pins
+ * of the same priority in the order they were queued.
+ */
+public final class NotificationDispatcher {
+    private static final String TAG = NotificationDispatcher.class.getSimpleName();
+
+    /**
+     * Notifications that can be posted at once, after a pause
+     */
+    static final int BUCKET_CAPACITY = 5;
+
+    /**
+     * Time to earn one token, so five notifications per second
+     */
+    static final long REFILL_INTERVAL_MS = 200;
+
+    /**
+     * Queued notifications beyond this amount are dropped, lowest priority first
+     */
+    static final int MAX_QUEUE_SIZE = 1000;
+
+    /**
+     * This interface posts and cancels notifications, it is replaced within tests.
+     */
+    interface Poster {
+        void post(@NonNull PinSpec pin);
+
+        void cancel(int notificationId);
+    }
+
+    private static NotificationDispatcher instance = null;
+
+    private final Poster poster;
+    private final int maxQueueSize;
+    private final ScheduledExecutorService executor;
+    private final Runnable drain = this::drain;
+
+    private final Object lock = new Object();
+    private final TokenBucket bucket;
+    /* queued notifications by their id and in the order they are posted */
+    private final SparseArray<Entry> pending = new SparseArray<>();
+    private final TreeSet<Entry> queue = new TreeSet<>(Entry.ORDER);
+    private long sequence = 0;
+    private boolean scheduled = false;
+
+    private long postedCount = 0;
+    private long mergedCount = 0;
+    private long droppedCount = 0;
+
+    /**
+     * @param poster             posts and cancels the notifications
+     * @param capacity           notifications that can be posted at once
+     * @param refillIntervalMs   time to earn the token for one notification
+     * @param maxQueueSize       maximum amount of queued notifications
+     */
+    NotificationDispatcher(@NonNull Poster poster, int capacity, long refillIntervalMs, int maxQueueSize) {
+        this.poster = poster;
+        this.maxQueueSize = maxQueueSize;
+        this.bucket = new TokenBucket(capacity, refillIntervalMs, SystemClock.elapsedRealtime());
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                runnable -> new Thread(runnable, TAG));
+    }
+
+    public static synchronized NotificationDispatcher getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new NotificationDispatcher(new NotificationPoster(context.getApplicationContext()),
+                    BUCKET_CAPACITY, REFILL_INTERVAL_MS, MAX_QUEUE_SIZE);
+        }
+
+        return instance;
+    }
+
+    /**
+     * This method posts or updates the notification of a pin, right away or once the rate allows it
+     *
+     * @param pin the pin to show, it has to be written to the database
+     */
+    public void enqueue(@NonNull PinSpec pin) {
+        int notificationId = pin.getNotificationId();
+
+        synchronized (lock) {
+            Entry entry = pending.get(notificationId);
+
+            if (entry != null) {
+                // keep its place within the same priority, but move it if the priority changed
+                queue.remove(entry);
+                entry.pin = pin;
+                queue.add(entry);
+                mergedCount++;
+                return;
+            }
+
+            if (queue.isEmpty() && bucket.tryAcquire(SystemClock.elapsedRealtime())) {
+                post(pin);
+                return;
+            }
+
+            entry = new Entry(pin, sequence++);
+            pending.put(notificationId, entry);
+            queue.add(entry);
+
+            if (queue.size() > maxQueueSize) {
+                Entry dropped = queue.pollLast();
+                pending.remove(dropped.pin.getNotificationId());
+                droppedCount++;
+                Log.w(TAG, "Dropped notification of pin " + dropped.pin.getId() + ", the queue is full");
+            }
+
+            schedule(bucket.getDelay(SystemClock.elapsedRealtime()));
+        }
+    }
+
+    /**
+     * This method removes a queued notification and cancels the posted one
+     *
+     * @param notificationId the id of the notification
+     */
+    public void cancel(int notificationId) {
+        synchronized (lock) {
+            Entry entry = pending.get(notificationId);
+
+            if (entry != null) {
+                pending.remove(notificationId);
+                queue.remove(entry);
+
+                if (queue.isEmpty()) {
+                    lock.notifyAll();
+                }
+            }
+
+            // cancelling does not count against the rate
+            poster.cancel(notificationId);
+        }
+    }
+
+    /**
+     * This method waits until all queued notifications are posted
+     *
+     * @param timeoutMs the maximum time to wait
+     * @return true if the queue is empty
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+
+        synchronized (lock) {
+            long remaining = timeoutMs;
+
+            while (!queue.isEmpty() && remaining > 0) {
+                lock.wait(remaining);
+                remaining = deadline - SystemClock.elapsedRealtime();
+            }
+            return queue.isEmpty();
+        }
+    }
+
+    /**
+     * @param notificationId the id of the notification
+     * @return true if an update of the notification is waiting to be posted
+     */
+    public boolean isQueued(int notificationId) {
+        synchronized (lock) {
+            return pending.get(notificationId) != null;
+        }
+    }
+
+    /**
+     * @return the amount of notifications waiting to be posted
+     */
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * @return the amount of notifications posted
+     */
+    public long getPostedCount() {
+        synchronized (lock) {
+            return postedCount;
+        }
+    }
+
+    /**
+     * @return the amount of updates merged into a notification that was still queued
+     */
+    public long getMergedCount() {
+        synchronized (lock) {
+            return mergedCount;
+        }
+    }
+
+    /**
+     * @return the amount of notifications dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        synchronized (lock) {
+            return droppedCount;
+        }
+    }
+
+    /* callers must hold lock */
+    private void schedule(long delayMs) {
+        if (!scheduled) {
+            scheduled = true;
+            executor.schedule(drain, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void drain() {
+        synchronized (lock) {
+            scheduled = false;
+
+            while (!queue.isEmpty() && bucket.tryAcquire(SystemClock.elapsedRealtime())) {
+                Entry entry = queue.pollFirst();
+                pending.remove(entry.pin.getNotificationId());
+                post(entry.pin);
+            }
+
+            if (!queue.isEmpty()) {
+                schedule(bucket.getDelay(SystemClock.elapsedRealtime()));
+            } else {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /* callers must hold lock, so notifications of the same pin are never posted out of order */
+    private void post(@NonNull PinSpec pin) {
+        try {
+            poster.post(pin);
+            postedCount++;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Could not post notification of pin " + pin.getId(), e);
+        }
+    }
+
+    /**
+     * This class holds a queued notification.
+     */
+    private static final class Entry {
+        /* higher priority first, then in the order of queueing */
+        static final Comparator<Entry> ORDER = (first, second) -> {
+            int priority = Integer.compare(second.pin.getPriority(), first.pin.getPriority());
+            return priority != 0 ? priority : Long.compare(first.sequence, second.sequence);
+        };
+
+        final long sequence;
+        PinSpec pin;
+
+        Entry(@NonNull PinSpec pin, long sequence) {
+            this.pin = pin;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * This class limits the rate of notifications.
+     * It holds up to capacity tokens and earns one per refill interval.
+     * Not thread safe, times are passed in milliseconds of a monotonic clock.
+     */
+    static final class TokenBucket {
+        private final int capacity;
+        private final long refillIntervalMs;
+        private int tokens;
+        private long lastRefill;
+
+        TokenBucket(int capacity, long refillIntervalMs, long now) {
+            this.capacity = capacity;
+            this.refillIntervalMs = refillIntervalMs;
+            this.tokens = capacity;
+            this.lastRefill = now;
+        }
+
+        /**
+         * @param now the current time
+         * @return true if a token was taken
+         */
+        boolean tryAcquire(long now) {
+            refill(now);
+
+            if (tokens > 0) {
+                tokens--;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @param now the current time
+         * @return the time until the next token is available, 0 if there is one
+         */
+        long getDelay(long now) {
+            refill(now);
+            return tokens > 0 ? 0 : lastRefill + refillIntervalMs - now;
+        }
+
+        private void refill(long now) {
+            long earned = (now - lastRefill) / refillIntervalMs;
+
+            if (earned > 0) {
+                tokens = (int) Math.min(capacity, tokens + earned);
+                // a full bucket does not save up time for later tokens
+                lastRefill = tokens == capacity ? now : lastRefill + earned * refillIntervalMs;
+            }
+        }
+    }
+
+    /**
+     * This class posts notifications with the notification manager of the system.
+     */
+    private static final class NotificationPoster implements Poster {
+        private final Context context;
+
+        NotificationPoster(@NonNull Context context) {
+            this.context = context;
+        }
+
+        @Override
+        public void post(@NonNull PinSpec pin) {
+            NotificationTools.post(context, pin);
+        }
+
+        @Override
+        public void cancel(int notificationId) {
+            NotificationManager notificationManager =
+                    (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+
+            if (notificationManager != null) {
+                notificationManager.cancel(notificationId);
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package de.dotwee.micropinner.tools;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.service.notification.StatusBarNotification;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import android.util.SparseArray;
+
+import de.dotwee.micropinner.BuildConfig;
+import de.dotwee.micropinner.database.PinSpec;
+
+/**
+ * This class tells if the notification of a pin already shows its current state,
+ * so unchanged pins are not built and posted again.
+ * <p>
+ * The fingerprint is a 64 bit FNV-1a hash of everything a notification renders.
+ * Compressed content is hashed in its stored form, so it is not inflated just to
+ * compare notifications; the content of pins is only compressed while they are
+ * written, always the same way. It is stored within the extras of the notification, so it can be compared with
+ * the active notifications on API 23 and later, and kept per notification id for
+ * the notifications posted by this process.
+ */
+public final class NotificationFingerprint {
+    /**
+     * Name of the extra inside notifications and intents that contains the fingerprint of the pin.
+     */
+    public static final String EXTRA_FINGERPRINT = "pin_fingerprint";
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /* fingerprints of the notifications posted by this process, guarded by itself */
+    private static final SparseArray<Long> posted = new SparseArray<>();
+
+    private NotificationFingerprint() {
+    }
+
+    /**
+     * This method returns the fingerprint of the notification of a pin.
+     * It changes with the app version, as notifications may be rendered differently.
+     *
+     * @param pin the pin to fingerprint
+     * @return the fingerprint
+     */
+    public static long of(@NonNull PinSpec pin) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = hash(hash, BuildConfig.VERSION_CODE);
+        hash = hash(hash, pin.getId());
+        hash = hash(hash, pin.getTitle());
+        byte[] compressedContent = pin.getCompressedContent();
+        hash = compressedContent != null ? hash(hash, compressedContent) : hash(hash, pin.getContent());
+        hash = hash(hash, pin.getVisibility());
+        hash = hash(hash, pin.getPriority());
+        hash = hash(hash, pin.isPersistent() ? 1 : 0);
+        return hash(hash, pin.isShowActions() ? 1 : 0);
+    }
+
+    private static long hash(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash = (hash ^ (value & 0xff)) * FNV_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, @NonNull byte[] value) {
+        // the length also keeps both forms of the content apart
+        hash = hash(hash, -value.length);
+        for (byte b : value) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, @NonNull String value) {
+        // the length keeps neighbouring strings apart
+        hash = hash(hash, value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * This method stores a fingerprint within the extras of a notification
+     *
+     * @param fingerprint the fingerprint of the pin
+     * @return the extras to add to the notification
+     */
+    @NonNull
+    static Bundle toExtras(long fingerprint) {
+        Bundle extras = new Bundle();
+        extras.putLong(EXTRA_FINGERPRINT, fingerprint);
+        return extras;
+    }
+
+    /**
+     * @param notification an active notification
+     * @return the fingerprint within its extras, 0 if it has none
+     */
+    static long get(@NonNull StatusBarNotification notification) {
+        Bundle extras = notification.getNotification().extras;
+        return extras != null ? extras.getLong(EXTRA_FINGERPRINT, 0) : 0;
+    }
+
+    /**
+     * @param notification an active notification, may be null
+     * @param fingerprint  the fingerprint of the pin
+     * @return true if the notification shows a pin with the same fingerprint
+     */
+    static boolean matches(@Nullable StatusBarNotification notification, long fingerprint) {
+        if (notification == null) {
+            return false;
+        }
+
+        Bundle extras = notification.getNotification().extras;
+        return extras != null && extras.containsKey(EXTRA_FINGERPRINT)
+                && extras.getLong(EXTRA_FINGERPRINT) == fingerprint;
+    }
+
+    /**
+     * This method checks if the notification of a pin is showing with the same fingerprint.
+     * On API 23 and later this is confirmed with the active notifications, before only
+     * notifications posted by this process are known.
+     *
+     * @param context     the context to get the active notifications with
+     * @param pin         the pin to check
+     * @param fingerprint the fingerprint of the pin
+     * @return true if posting the pin again can be skipped
+     */
+    static boolean isShowing(@NonNull Context context, @NonNull PinSpec pin, long fingerprint) {
+        Long known = getKnown(pin);
+
+        // a different known fingerprint needs no further check
+        if (known != null && known != fingerprint) {
+            return false;
+        }
+
+        return isShowing(pin, fingerprint, NotificationTools.getActiveNotifications(context));
+    }
+
+    /**
+     * This method checks like {@link #isShowing(Context, PinSpec, long)}, against active
+     * notifications fetched once for several pins
+     *
+     * @param pin         the pin to check
+     * @param fingerprint the fingerprint of the pin
+     * @param active      the active notifications by their id, null before API 23
+     * @return true if posting the pin again can be skipped
+     */
+    static boolean isShowing(@NonNull PinSpec pin, long fingerprint,
+                             @Nullable SparseArray<StatusBarNotification> active) {
+        Long known = getKnown(pin);
+        if (known != null && known != fingerprint) {
+            return false;
+        }
+
+        if (active == null) {
+            return known != null;
+        }
+        return matches(active.get(pin.getNotificationId()), fingerprint);
+    }
+
+    @Nullable
+    private static Long getKnown(@NonNull PinSpec pin) {
+        synchronized (posted) {
+            return posted.get(pin.getNotificationId());
+        }
+    }
+
+    /**
+     * This method remembers the fingerprint of a posted notification
+     *
+     * @param notificationId the id of the notification
+     * @param fingerprint    the fingerprint of the pin
+     */
+    static void onPosted(int notificationId, long fingerprint) {
+        synchronized (posted) {
+            posted.put(notificationId, fingerprint);
+        }
+    }
+
+    /**
+     * @return a copy of the fingerprints of the notifications posted by this process, by notification id
+     */
+    @NonNull
+    static SparseArray<Long> getPosted() {
+        synchronized (posted) {
+            return posted.clone();
+        }
+    }
+
+    /**
+     * This method forgets the fingerprint of a cancelled notification
+     *
+     * @param notificationId the id of the notification
+     */
+    static void onCancelled(int notificationId) {
+        synchronized (posted) {
+            posted.remove(notificationId);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package de.dotwee.micropinner.tools;
+
+import android.content.Context;
+import android.service.notification.StatusBarNotification;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.Arrays;
+import java.util.List;
+
+import de.dotwee.micropinner.database.PinDatabase;
+import de.dotwee.micropinner.database.PinSpec;
+
+/**
+ * This class compares the pins that should be shown with the notifications that are
+ * shown and plans the posts and cancellations that make both match.
+ * <p>
+ * Both sides are reduced to notification ids in ascending order and the fingerprints of
+ * their notifications, so one walk over both arrays finds every difference. Only the
+ * differences read pins from the database, build or cancel anything. It can be called
+ * at any time, a call with nothing to change plans nothing.
+ */
+public final class NotificationReconciler {
+    private static final String TAG = NotificationReconciler.class.getSimpleName();
+
+    private static NotificationReconciler instance = null;
+
+    private final Context context;
+    private final NotificationCapacity capacity;
+
+    /* state of the last sync of the capacity, guarded by this */
+    private boolean synced = false;
+    private long syncedAt = 0;
+
+    private NotificationReconciler(@NonNull Context context, @NonNull NotificationCapacity capacity) {
+        this.context = context;
+        this.capacity = capacity;
+    }
+
+    public static synchronized NotificationReconciler getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new NotificationReconciler(context.getApplicationContext(), NotificationCapacity.getInstance());
+        }
+
+        return instance;
+    }
+
+    /**
+     * This method plans the changes needed to show the current pins, unless they were
+     * restored in the state described by the marker. The boot session and the change version
+     * are compared before anything else, active notifications are fetched once at most.
+     *
+     * @param marker        the marker stored by the last restore, may be null
+     * @param changeVersion the change version of the pins database
+     * @return the notifications to post, update and cancel or null if nothing changed since the marker
+     */
+    @Nullable
+    public synchronized Plan plan(@Nullable String marker, long changeVersion) {
+        boolean sameVersion = RestoreMarker.isSameVersion(context, marker, changeVersion);
+
+        @Nullable SparseArray<StatusBarNotification> active = NotificationTools.getActiveNotifications(context);
+        if (sameVersion) {
+            // force stopping the app cancels its notifications without changing any pin
+            int notificationCount = -1;
+            if (active != null) {
+                notificationCount = active.size() - (active.indexOfKey(OverflowSummary.NOTIFICATION_ID) >= 0 ? 1 : 0);
+            }
+
+            if (RestoreMarker.of(context, changeVersion, notificationCount).equals(marker)) {
+                return null;
+            }
+        }
+
+        boolean changed = syncCapacity();
+
+        int[] desiredIds;
+        long[] desiredFingerprints;
+        boolean overflow;
+        synchronized (capacity) {
+            desiredIds = capacity.getIndividualNotificationIds();
+            desiredFingerprints = new long[desiredIds.length];
+            for (int i = 0; i < desiredIds.length; i++) {
+                desiredFingerprints[i] = capacity.getFingerprint(desiredIds[i]);
+            }
+            overflow = capacity.getOverflowCount() > 0;
+        }
+
+        int[] activeIds;
+        long[] activeFingerprints;
+        boolean summaryChanged = changed;
+
+        if (active != null) {
+            boolean summaryActive = active.indexOfKey(OverflowSummary.NOTIFICATION_ID) >= 0;
+            active.remove(OverflowSummary.NOTIFICATION_ID);
+            summaryChanged |= summaryActive != overflow;
+
+            activeIds = new int[active.size()];
+            activeFingerprints = new long[active.size()];
+            for (int i = 0; i < activeIds.length; i++) {
+                activeIds[i] = active.keyAt(i);
+                activeFingerprints[i] = NotificationFingerprint.get(active.valueAt(i));
+            }
+        } else {
+            // before API 23 only the notifications posted by this process are known
+            SparseArray<Long> posted = NotificationFingerprint.getPosted();
+            activeIds = new int[posted.size()];
+            activeFingerprints = new long[posted.size()];
+            for (int i = 0; i < activeIds.length; i++) {
+                activeIds[i] = posted.keyAt(i);
+                activeFingerprints[i] = posted.valueAt(i);
+            }
+        }
+
+        Plan plan = diff(desiredIds, desiredFingerprints, activeIds, activeFingerprints);
+        plan.summaryChanged = summaryChanged;
+
+        // deleting a channel cancels its notifications, so it is created again before they are posted
+        if (active != null && wasPosted(plan.posts)) {
+            Log.i(TAG, "Notifications posted by this process are gone, checking the channels");
+            NotificationChannels.invalidate();
+        }
+        return plan;
+    }
+
+    /**
+     * @param notificationIds the notifications to post
+     * @return true if this process posted one of them before and did not cancel it
+     */
+    private static boolean wasPosted(@NonNull int[] notificationIds) {
+        if (notificationIds.length == 0) {
+            return false;
+        }
+
+        SparseArray<Long> posted = NotificationFingerprint.getPosted();
+        for (int notificationId : notificationIds) {
+            if (posted.indexOfKey(notificationId) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This method walks over both sides once, they have to be in ascending order of their ids
+     *
+     * @param desiredIds          the notification ids of the pins to show
+     * @param desiredFingerprints the fingerprints of the pins to show
+     * @param activeIds           the ids of the shown notifications
+     * @param activeFingerprints  the fingerprints of the shown notifications
+     * @return the differences of both sides
+     */
+    @NonNull
+    static Plan diff(@NonNull int[] desiredIds, @NonNull long[] desiredFingerprints,
+                     @NonNull int[] activeIds, @NonNull long[] activeFingerprints) {
+        int[] posts = new int[desiredIds.length];
+        int[] updates = new int[Math.min(desiredIds.length, activeIds.length)];
+        int[] cancels = new int[activeIds.length];
+        int postCount = 0, updateCount = 0, cancelCount = 0;
+
+        int i = 0, j = 0;
+        while (i < desiredIds.length || j < activeIds.length) {
+            if (j == activeIds.length || i < desiredIds.length && desiredIds[i] < activeIds[j]) {
+                posts[postCount++] = desiredIds[i++];
+            } else if (i == desiredIds.length || activeIds[j] < desiredIds[i]) {
+                cancels[cancelCount++] = activeIds[j++];
+            } else {
+                if (desiredFingerprints[i] != activeFingerprints[j]) {
+                    updates[updateCount++] = desiredIds[i];
+                }
+                i++;
+                j++;
+            }
+        }
+
+        return new Plan(Arrays.copyOf(posts, postCount), Arrays.copyOf(updates, updateCount),
+                Arrays.copyOf(cancels, cancelCount));
+    }
+
+    /**
+     * This method brings the capacity up to date with the database. All pins are only
+     * read the first time or if pins were deleted elsewhere, otherwise only changed ones.
+     *
+     * @return true if the capacity was changed
+     */
+    private boolean syncCapacity() {
+        PinDatabase pinDatabase = PinDatabase.getInstance(context);
+
+        if (synced) {
+            // pins written within the same millisecond as the last sync are read again
+            long since = syncedAt;
+            boolean changed = false;
+
+            for (PinSpec pin : pinDatabase.getPinsUpdatedSince(since - 1)) {
+                changed |= pin.getUpdatedAt() > since || capacity.getPinId(pin.getNotificationId()) != pin.getId();
+                capacity.put(pin);
+                syncedAt = Math.max(syncedAt, pin.getUpdatedAt());
+            }
+
+            if (capacity.size() == pinDatabase.count()) {
+                return changed;
+            }
+            Log.i(TAG, "Pins were removed since the last sync, reading all of them");
+        }
+
+        long[] latest = {0};
+        capacity.clear();
+        pinDatabase.forEachPin(pin -> {
+            capacity.put(pin);
+            latest[0] = Math.max(latest[0], pin.getUpdatedAt());
+        });
+
+        syncedAt = latest[0];
+        synced = true;
+        return true;
+    }
+
+    /**
+     * This method reads all pins into the capacity unless a plan did so in this process,
+     * as restoring may have been skipped, see {@link RestoreMarker}
+     *
+     * @return the capacity holding all pins
+     */
+    @NonNull
+    synchronized NotificationCapacity getCapacity() {
+        if (!synced) {
+            syncCapacity();
+        }
+        return capacity;
+    }
+
+    /**
+     * This method ranks the pins of a snapshot until the database is read on the next call
+     * of {@link #plan(String, long)} or {@link #getCapacity()}
+     *
+     * @param pins the pins of the snapshot
+     * @return the capacity holding the pins of the snapshot
+     */
+    @NonNull
+    synchronized NotificationCapacity load(@NonNull List<PinSpec> pins) {
+        reset();
+
+        capacity.clear();
+        for (PinSpec pin : pins) {
+            capacity.put(pin);
+        }
+        return capacity;
+    }
+
+    /**
+     * This method reads all pins again on the next call of {@link #plan(String, long)}
+     */
+    synchronized void reset() {
+        synced = false;
+        syncedAt = 0;
+    }
+
+    /**
+     * This class holds the notification ids that differ between the pins and the notifications.
+     */
+    public static final class Plan {
+        /* pins without a notification */
+        final int[] posts;
+        /* pins whose notification shows an older state */
+        final int[] updates;
+        /* notifications without a pin to show */
+        final int[] cancels;
+        boolean summaryChanged = false;
+
+        Plan(@NonNull int[] posts, @NonNull int[] updates, @NonNull int[] cancels) {
+            this.posts = posts;
+            this.updates = updates;
+            this.cancels = cancels;
+        }
+
+        /**
+         * @return true if nothing has to be posted or cancelled
+         */
+        public boolean isEmpty() {
+            return posts.length == 0 && updates.length == 0 && cancels.length == 0 && !summaryChanged;
+        }
+
+        /**
+         * @return the amount of notifications to post, update and cancel
+         */
+        public int size() {
+            return posts.length + updates.length + cancels.length;
+        }
+    }
+}
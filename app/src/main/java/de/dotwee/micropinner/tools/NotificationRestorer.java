@@ -0,0 +1,418 @@
+package de.dotwee.micropinner.tools;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.SystemClock;
+import android.service.notification.StatusBarNotification;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.dotwee.micropinner.database.PinDatabase;
+import de.dotwee.micropinner.database.PinSnapshot;
+import de.dotwee.micropinner.database.PinSpec;
+import de.dotwee.micropinner.receiver.OnDeleteReceiver;
+
+/**
+ * This class restores the notifications of all pins off the main thread,
+ * after a boot, an update of the app or a restart of its process.
+ * <p>
+ * The {@link NotificationReconciler} plans what differs on a single thread, so restoring
+ * again only touches notifications that are missing, outdated or orphaned. Their notifications are built
+ * on a small pool of threads and all of them are posted by the
+ * {@link NotificationDispatcher}. Receivers keep their broadcast alive until
+ * the restore finished, see {@link android.content.BroadcastReceiver#goAsync()}.
+ * <p>
+ * A {@link RestoreMarker} is stored after each restore, so restarting the process
+ * within the same boot skips restoring as long as nothing changed. The first restore
+ * of a boot or an app version posts the {@link PinSnapshot} before the database is opened.
+ */
+public final class NotificationRestorer {
+    private static final String TAG = NotificationRestorer.class.getSimpleName();
+
+    /**
+     * Threads building notifications, building is mostly waiting for the system
+     */
+    static final int MAX_BUILD_THREADS = 4;
+
+    /**
+     * Pins waiting to be built, the reading thread builds them itself beyond that
+     */
+    private static final int BUILD_QUEUE_CAPACITY = 16;
+
+    /**
+     * Time a restore waits at most for its notifications to be built and posted, from the
+     * snapshot and the database together. It is well below the 60 seconds background
+     * broadcasts are allowed to take, so the receivers finish in time.
+     */
+    static final long POST_TIMEOUT_MS = 20000;
+
+    private static NotificationRestorer instance = null;
+
+    private final Context context;
+    private final ExecutorService reader;
+    private final ThreadPoolExecutor builders;
+
+    /**
+     * Guards the restore waiting for the reader, calls made meanwhile join it
+     */
+    private final Object lock = new Object();
+    @Nullable
+    private QueuedRestore queued = null;
+
+    private volatile long lastDurationMs = -1;
+    private volatile int lastRestoredCount = 0;
+    private volatile long lastSnapshotDurationMs = -1;
+
+    private NotificationRestorer(@NonNull Context context) {
+        this.context = context;
+        this.reader = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, TAG));
+
+        AtomicInteger threads = new AtomicInteger();
+        int size = Math.max(1, Math.min(MAX_BUILD_THREADS, Runtime.getRuntime().availableProcessors()));
+        this.builders = new ThreadPoolExecutor(size, size, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(BUILD_QUEUE_CAPACITY),
+                runnable -> new Thread(runnable, TAG + "-" + threads.incrementAndGet()),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.builders.allowCoreThreadTimeOut(true);
+    }
+
+    public static synchronized NotificationRestorer getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new NotificationRestorer(context.getApplicationContext());
+        }
+
+        return instance;
+    }
+
+    /**
+     * This method restores the notifications in the background, calls are run one after another.
+     * A call made while another restore is still waiting joins it instead of queueing behind it,
+     * the waiting restore reads everything changed until then anyway.
+     *
+     * @param onFinished called on a background thread once the notifications are posted, may be null
+     */
+    public void restore(@Nullable Runnable onFinished) {
+        execute(false, onFinished);
+    }
+
+    /**
+     * This method restores the notifications of the pins allowed on the lock screen before the
+     * first unlock, from the snapshot in device protected storage. After the unlock it restores
+     * like {@link #restore(Runnable)}.
+     *
+     * @param onFinished called on a background thread once the notifications are posted, may be null
+     */
+    public void restoreLocked(@Nullable Runnable onFinished) {
+        execute(true, onFinished);
+    }
+
+    private void execute(boolean locked, @Nullable Runnable onFinished) {
+        // measured from the call, so receivers finish in time even after waiting for the reader
+        long deadline = SystemClock.elapsedRealtime() + POST_TIMEOUT_MS;
+
+        synchronized (lock) {
+            if (queued != null) {
+                queued.add(locked, onFinished, deadline);
+                return;
+            }
+            queued = new QueuedRestore();
+            queued.add(locked, onFinished, deadline);
+        }
+        reader.execute(this::runQueued);
+    }
+
+    private void runQueued() {
+        QueuedRestore restore;
+        synchronized (lock) {
+            restore = queued;
+            queued = null;
+        }
+
+        try {
+            if (restore.locked && DirectBoot.isLocked(context)) {
+                File file = PinSnapshot.getDeviceProtectedFile(context);
+                List<PinSpec> pins = file != null ? PinSnapshot.read(file) : null;
+                if (pins != null) {
+                    restoreSnapshot(pins, DirectBoot.getDeletions(context),
+                            SystemClock.elapsedRealtime(), restore.deadline);
+                }
+            } else {
+                run(restore.deadline);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Could not restore notifications", e);
+        } finally {
+            for (Runnable onFinished : restore.onFinished) {
+                onFinished.run();
+            }
+        }
+    }
+
+    /**
+     * @param deadline the time the whole restore has to be posted by
+     */
+    private void run(long deadline) {
+        long start = SystemClock.elapsedRealtime();
+
+        NotificationDispatcher dispatcher = NotificationDispatcher.getInstance(context);
+        NotificationCapacity capacity = NotificationCapacity.getInstance();
+        PreferencesHandler preferencesHandler = PreferencesHandler.getInstance(context);
+
+        // notifications dismissed before the first unlock
+        List<Intent> deletions = DirectBoot.getDeletions(context);
+
+        // after a boot or an update, the snapshot is posted before the database is opened
+        if (!RestoreMarker.isSameSession(context, preferencesHandler.getRestoreMarker())) {
+            List<PinSpec> pins = PinSnapshot.read(PinSnapshot.getFile(context));
+            if (pins != null) {
+                restoreSnapshot(pins, deletions, start, deadline);
+            }
+        }
+
+        PinDatabase pinDatabase = PinDatabase.getInstance(context);
+        pinDatabase.setLockScreenSnapshot(context, preferencesHandler.isPinsBeforeUnlockEnabled());
+
+        if (!deletions.isEmpty()) {
+            Log.i(TAG, "Deleting " + deletions.size() + " pins dismissed before the first unlock");
+            for (Intent deletion : deletions) {
+                OnDeleteReceiver.deletePin(context, deletion);
+            }
+            DirectBoot.clearDeletions(context);
+        }
+
+        // read before planning, so changes made while restoring are restored the next time
+        long changeVersion = pinDatabase.getChangeVersion();
+        NotificationReconciler.Plan plan = NotificationReconciler.getInstance(context)
+                .plan(preferencesHandler.getRestoreMarker(), changeVersion);
+        long read = SystemClock.elapsedRealtime();
+
+        if (plan == null) {
+            lastRestoredCount = 0;
+            lastDurationMs = read - start;
+            Log.i(TAG, "Nothing changed since the last restore, checking took " + lastDurationMs + " ms");
+            return;
+        }
+
+        if (plan.isEmpty()) {
+            lastRestoredCount = 0;
+            lastDurationMs = read - start;
+            Log.i(TAG, "Notifications are up to date, checking took " + lastDurationMs + " ms");
+            preferencesHandler.setRestoreMarker(getMarker(changeVersion, capacity));
+            return;
+        }
+
+        // notifications without a pin to show, including those of pins beyond the limit
+        for (int notificationId : plan.cancels) {
+            NotificationTools.cancelNotification(context, notificationId);
+        }
+
+        int[] notificationIds = new int[plan.posts.length + plan.updates.length];
+        System.arraycopy(plan.posts, 0, notificationIds, 0, plan.posts.length);
+        System.arraycopy(plan.updates, 0, notificationIds, plan.posts.length, plan.updates.length);
+
+        CountDownLatch built = new CountDownLatch(notificationIds.length);
+        AtomicInteger restored = new AtomicInteger();
+
+        for (int notificationId : notificationIds) {
+            long id = capacity.getPinId(notificationId);
+
+            builders.execute(() -> {
+                try {
+                    PinSpec pin = pinDatabase.getPin(id);
+
+                    if (pin == null) {
+                        Log.i(TAG, "skipped restoring notification of deleted pin " + id);
+                        return;
+                    }
+
+                    // create a notification from the object and finally restore it
+                    NotificationTools.prepare(context, pin);
+                    dispatcher.enqueue(pin);
+                    restored.incrementAndGet();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Could not restore notification of pin " + id, e);
+                } finally {
+                    built.countDown();
+                }
+            });
+        }
+
+        if (plan.summaryChanged) {
+            OverflowSummary.getInstance(context).update();
+        }
+
+        boolean posted = false;
+        try {
+            // the snapshot may have used up part of the time already
+            boolean complete = built.await(getRemainingMs(deadline), TimeUnit.MILLISECONDS);
+            long build = SystemClock.elapsedRealtime();
+            posted = dispatcher.awaitIdle(getRemainingMs(deadline)) && complete;
+
+            lastRestoredCount = restored.get();
+            lastDurationMs = SystemClock.elapsedRealtime() - start;
+            Log.i(TAG, "Restored " + restored.get() + " of " + notificationIds.length + " notifications and cancelled "
+                    + plan.cancels.length + " in " + lastDurationMs + " ms, planning took " + (read - start)
+                    + " ms, building " + (build - read) + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (posted) {
+            preferencesHandler.setRestoreMarker(getMarker(changeVersion, capacity));
+        } else {
+            Log.w(TAG, dispatcher.getQueueDepth() + " notifications are still waiting to be posted");
+        }
+    }
+
+    /**
+     * This method posts the notifications of the pins within a snapshot, the database
+     * is not opened. Differences to the database are restored afterwards.
+     *
+     * @param pins      the pins of the snapshot
+     * @param deletions the recorded delete intents of pins that are left out
+     * @param start     the time the restore started
+     * @param deadline  the time the whole restore has to be posted by
+     */
+    private void restoreSnapshot(@NonNull List<PinSpec> pins, @NonNull List<Intent> deletions,
+                                 long start, long deadline) {
+        long[] deletedIds = DirectBoot.getPinIds(deletions);
+        List<PinSpec> kept = new ArrayList<>(pins.size());
+        for (PinSpec pin : pins) {
+            if (Arrays.binarySearch(deletedIds, pin.getId()) < 0) {
+                kept.add(pin);
+            }
+        }
+
+        NotificationDispatcher dispatcher = NotificationDispatcher.getInstance(context);
+        NotificationCapacity capacity = NotificationReconciler.getInstance(context).load(kept);
+
+        // pins restored before the first unlock are still showing
+        @Nullable SparseArray<StatusBarNotification> active = NotificationTools.getActiveNotifications(context);
+        SparseArray<PinSpec> pinsByNotificationId = new SparseArray<>(kept.size());
+        for (PinSpec pin : kept) {
+            long fingerprint = NotificationFingerprint.of(pin);
+            boolean showing = active != null
+                    ? NotificationFingerprint.matches(active.get(pin.getNotificationId()), fingerprint)
+                    : NotificationFingerprint.isShowing(context, pin, fingerprint);
+
+            if (!showing) {
+                pinsByNotificationId.put(pin.getNotificationId(), pin);
+            }
+        }
+
+        int[] notificationIds = capacity.getIndividualNotificationIds();
+        CountDownLatch built = new CountDownLatch(notificationIds.length);
+
+        for (int notificationId : notificationIds) {
+            PinSpec pin = pinsByNotificationId.get(notificationId);
+
+            // showing already or a pin changed meanwhile took the place of one of the snapshot
+            if (pin == null) {
+                built.countDown();
+                continue;
+            }
+
+            builders.execute(() -> {
+                try {
+                    NotificationTools.prepare(context, pin);
+                    dispatcher.enqueue(pin);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Could not restore notification of pin " + pin.getId(), e);
+                } finally {
+                    built.countDown();
+                }
+            });
+        }
+        OverflowSummary.getInstance(context).update();
+
+        try {
+            // posted before planning, so the active notifications already contain them
+            if (!built.await(getRemainingMs(deadline), TimeUnit.MILLISECONDS)
+                    || !dispatcher.awaitIdle(getRemainingMs(deadline))) {
+                Log.w(TAG, "Notifications of the snapshot were not posted in time");
+            }
+
+            lastSnapshotDurationMs = SystemClock.elapsedRealtime() - start;
+            Log.i(TAG, "Restored " + pinsByNotificationId.size() + " notifications of " + kept.size()
+                    + " pins from the snapshot in " + lastSnapshotDurationMs + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the time left until the deadline, never negative
+     */
+    private static long getRemainingMs(long deadline) {
+        return Math.max(0, deadline - SystemClock.elapsedRealtime());
+    }
+
+    @NonNull
+    private String getMarker(long changeVersion, @NonNull NotificationCapacity capacity) {
+        int notificationCount = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? capacity.getIndividualCount() : -1;
+        return RestoreMarker.of(context, changeVersion, notificationCount);
+    }
+
+    /**
+     * @return the time the last restore took until everything was posted, -1 before the first one
+     */
+    public long getLastDurationMs() {
+        return lastDurationMs;
+    }
+
+    /**
+     * @return the time the last restore from the snapshot took until it was posted, -1 if none was read
+     */
+    public long getLastSnapshotDurationMs() {
+        return lastSnapshotDurationMs;
+    }
+
+    /**
+     * @return the amount of notifications posted by the last restore
+     */
+    public int getLastRestoredCount() {
+        return lastRestoredCount;
+    }
+
+    /**
+     * This class collects the calls joining a restore that did not start yet
+     */
+    private static final class QueuedRestore {
+        private final List<Runnable> onFinished = new ArrayList<>(1);
+        private boolean locked = false;
+        private long deadline = Long.MAX_VALUE;
+
+        private void add(boolean locked, @Nullable Runnable onFinished, long deadline) {
+            if (onFinished != null) {
+                this.onFinished.add(onFinished);
+            }
+
+            // restoring before the first unlock also restores from the database once unlocked
+            this.locked |= locked;
+            this.deadline = Math.min(this.deadline, deadline);
+        }
+    }
+
+    /**
+     * This method reads all pins again on the next call of {@link #restore(Runnable)}
+     */
+    void reset() {
+        PreferencesHandler.getInstance(context).setRestoreMarker(null);
+        NotificationReconciler.getInstance(context).reset();
+    }
+}
@@ -0,0 +1,216 @@
+package de.dotwee.micropinner.tools;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Typeface;
+import android.os.Build;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.style.StyleSpan;
+import android.util.SparseArray;
+
+import java.util.Locale;
+
+import de.dotwee.micropinner.R;
+import de.dotwee.micropinner.database.PinSpec;
+import de.dotwee.micropinner.receiver.OnClipReceiver;
+import de.dotwee.micropinner.receiver.OnDeleteReceiver;
+import de.dotwee.micropinner.view.MainDialog;
+
+/**
+ * This class keeps the parts of notifications that do not change between posts.
+ * A notification can also be built ahead and kept until it is posted.
+ * <p>
+ * Texts are kept per locale. The pending intents of a pin are kept per notification id,
+ * which is also their request code, until the pin is changed. Changed pins update their
+ * pending intents in place instead of cancelling and recreating them.
+ */
+final class NotificationTemplates {
+
+    /** Needed for later android versions, see:
+     * https://stackoverflow.com/questions/67045607/how-to-resolve-missing-pendingintent-mutability-flag-lint-warning-in-android-a
+     */
+    private static final int FLAG_IMMUTABLE = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_IMMUTABLE : 0;
+
+    static final int FLAGS = PendingIntent.FLAG_UPDATE_CURRENT | FLAG_IMMUTABLE;
+
+    private static volatile Texts texts = null;
+
+    /* parts of the posted pins by notification id, guarded by itself */
+    private static final SparseArray<PinParts> pinParts = new SparseArray<>();
+
+    private NotificationTemplates() {
+    }
+
+    /**
+     * @param context the context to read the texts with
+     * @return the texts of the current locale
+     */
+    @NonNull
+    static Texts getTexts(@NonNull Context context) {
+        Locale locale = NotificationChannels.getLocale(context);
+        Texts texts = NotificationTemplates.texts;
+
+        if (texts == null || !texts.locale.equals(locale)) {
+            texts = new Texts(context, locale);
+            NotificationTemplates.texts = texts;
+        }
+        return texts;
+    }
+
+    /**
+     * This method returns the pending intents of a pin, they are only
+     * created again if the pin was changed since the last call
+     *
+     * @param context     the context to create the intents with
+     * @param pin         the pin to create the intents for
+     * @param fingerprint the fingerprint of the pin
+     * @return the parts of the pin
+     */
+    @NonNull
+    static PinParts getPinParts(@NonNull Context context, @NonNull PinSpec pin, long fingerprint) {
+        synchronized (pinParts) {
+            PinParts parts = pinParts.get(pin.getNotificationId());
+
+            if (parts == null || !parts.isFor(pin, fingerprint)) {
+                parts = new PinParts(context, pin, fingerprint);
+                pinParts.put(pin.getNotificationId(), parts);
+            }
+            return parts;
+        }
+    }
+
+    /**
+     * This method forgets the parts of a cancelled notification
+     *
+     * @param notificationId the id of the notification
+     */
+    static void onCancelled(int notificationId) {
+        synchronized (pinParts) {
+            pinParts.remove(notificationId);
+        }
+    }
+
+    /**
+     * @return the amount of pins with cached parts
+     */
+    static int size() {
+        synchronized (pinParts) {
+            return pinParts.size();
+        }
+    }
+
+    /**
+     * This class holds the immutable texts of a locale.
+     */
+    static final class Texts {
+        final Locale locale;
+        final CharSequence hiddenContent;
+        final String saveToClipboard;
+
+        private Texts(@NonNull Context context, @NonNull Locale locale) {
+            this.locale = locale;
+
+            // Show "Contents hidden" placeholder as italic:
+            // https://stackoverflow.com/questions/70698860/how-to-bold-title-in-notification
+            CharSequence text = context.getResources().getText(R.string.message_hidden_private_content);
+            Spannable content = new SpannableString(text);
+            content.setSpan(new StyleSpan(Typeface.ITALIC), 0, text.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            this.hiddenContent = content;
+
+            this.saveToClipboard = context.getString(R.string.message_save_to_clipboard);
+        }
+    }
+
+    /**
+     * This class holds the pending intents and the public version of a pin.
+     */
+    static final class PinParts {
+        private final long pinId;
+        private final long version;
+        private final long fingerprint;
+
+        final PendingIntent contentIntent;
+        final PendingIntent deleteIntent;
+        @Nullable
+        private PendingIntent clipIntent = null;
+
+        @Nullable
+        private Notification notification = null;
+
+        @Nullable
+        private Notification publicVersion = null;
+        @Nullable
+        private Texts publicTexts = null;
+
+        private PinParts(@NonNull Context context, @NonNull PinSpec pin, long fingerprint) {
+            this.pinId = pin.getId();
+            this.version = pin.getUpdatedAt();
+            this.fingerprint = fingerprint;
+
+            this.contentIntent = PendingIntent.getActivity(context, pin.getNotificationId(),
+                    NotificationTools.putPinExtras(new Intent(context, MainDialog.class), pin, fingerprint), FLAGS);
+            this.deleteIntent = PendingIntent.getBroadcast(context, pin.getNotificationId(),
+                    NotificationTools.putPinExtras(new Intent(context, OnDeleteReceiver.class)
+                            .setAction("notification_cancelled"), pin, fingerprint), FLAGS);
+        }
+
+        private boolean isFor(@NonNull PinSpec pin, long fingerprint) {
+            return pinId == pin.getId() && version == pin.getUpdatedAt() && this.fingerprint == fingerprint;
+        }
+
+        /**
+         * @param notification the notification built ahead of posting it
+         */
+        synchronized void setNotification(@NonNull Notification notification) {
+            this.notification = notification;
+        }
+
+        /**
+         * @return the notification built ahead of posting it, only returned once
+         */
+        @Nullable
+        synchronized Notification takeNotification() {
+            Notification notification = this.notification;
+            this.notification = null;
+            return notification;
+        }
+
+        /**
+         * @return the intent of the clipboard action, created on first use
+         */
+        @NonNull
+        synchronized PendingIntent getClipIntent(@NonNull Context context, @NonNull PinSpec pin) {
+            if (clipIntent == null) {
+                clipIntent = PendingIntent.getBroadcast(context, pin.getNotificationId(),
+                        NotificationTools.putPinExtras(new Intent(context, OnClipReceiver.class), pin, fingerprint), FLAGS);
+            }
+            return clipIntent;
+        }
+
+        /**
+         * This method returns the notification shown on the lock screen instead of a private pin
+         *
+         * @return the public version, built once per locale
+         */
+        @NonNull
+        synchronized Notification getPublicVersion(@NonNull Context context, @NonNull PinSpec pin,
+                                                   @NonNull String channelId, @NonNull Texts texts) {
+            if (publicVersion == null || publicTexts != texts) {
+                publicVersion = new NotificationCompat.Builder(context, channelId)
+                        .setContentTitle(pin.getTitle())
+                        .setContentText(texts.hiddenContent)
+                        .setSmallIcon(R.drawable.ic_notif_star)
+                        .setPriority(NotificationCompat.PRIORITY_DEFAULT)
+                        .build();
+                publicTexts = texts;
+            }
+            return publicVersion;
+        }
+    }
+}
@@ -1,34 +1,24 @@
 package de.dotwee.micropinner.tools;
 
-import android.annotation.TargetApi;
 import android.app.Notification;
-import android.app.NotificationChannel;
 import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.Typeface;
-import android.os.Build;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.annotation.RequiresApi;
 import androidx.core.app.NotificationCompat;
 
 import android.service.notification.StatusBarNotification;
-import android.text.Spannable;
-import android.text.SpannableString;
-import android.text.style.StyleSpan;
 import android.util.Log;
+import android.util.SparseArray;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 
 import de.dotwee.micropinner.R;
 import de.dotwee.micropinner.database.PinDatabase;
 import de.dotwee.micropinner.database.PinSpec;
-import de.dotwee.micropinner.receiver.OnClipReceiver;
-import de.dotwee.micropinner.receiver.OnDeleteReceiver;
-import de.dotwee.micropinner.view.MainDialog;
 
 /**
  * Created by lukas on 10.08.2016.
@@ -36,64 +26,67 @@ import de.dotwee.micropinner.view.MainDialog;
 public class NotificationTools {
     /**
      * Name of extra data inside intents that contains a PinSpec object with data about the parent pin.
+     * Used in app version 2.2.0 and earlier, new intents only contain {@link #EXTRA_PIN_ID}.
      */
     public final static String EXTRA_INTENT = "IAMAPIN";
 
     /**
-     * Used in app version 2.2.0 and earlier.
+     * Name of extra data inside intents that contains the id of the parent pin.
      */
-    private static final String CHANNEL_NAME_OLD = "pin_channel";
-    private static final String CHANNEL_NAME_PUBLIC = "pin_channel_public";
-    private static final String CHANNEL_NAME_PRIVATE = "pin_channel_private";
-    private static final String CHANNEL_NAME_SECRET = "pin_channel_secret";
+    public final static String EXTRA_PIN_ID = "pin_id";
 
-    private static final String TAG = NotificationTools.class.getSimpleName();
+    /**
+     * Name of extra data inside intents that contains the time of the last
+     * modification of the parent pin, at the time the intent was created.
+     */
+    public final static String EXTRA_PIN_VERSION = "pin_version";
 
-    /** Needed for later android versions, see:
-     * https://stackoverflow.com/questions/67045607/how-to-resolve-missing-pendingintent-mutability-flag-lint-warning-in-android-a
+    /**
+     * Name of extra data inside intents that contains the {@link NotificationFingerprint}
+     * of the parent pin, at the time the intent was created.
      */
-    private static final int FLAG_IMMUTABLE = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_IMMUTABLE : 0;
+    public final static String EXTRA_PIN_FINGERPRINT = NotificationFingerprint.EXTRA_FINGERPRINT;
+
+    private static final String TAG = NotificationTools.class.getSimpleName();
 
     /**
-     * Detect the first time the app is started. Used to prevent restoring notifications more than once.
+     * This method brings the notifications of all pins up to date in the background
      *
-     *  @see <a href="https://stackoverflow.com/questions/19042510/detect-the-first-time-an-activity-is-opened-on-this-session">android - Detect the first time an Activity is opened on this session - Stack Overflow</a>&nbsp;
+     * @param context the context to post the notifications with
      */
-    private static volatile boolean JUST_STARTED = true;
-
     public static void restoreNotifications(@NonNull Context context) {
-        if (!JUST_STARTED) {
-            return;
-        }
-        JUST_STARTED = false;
-
-        // get all pins
-        final Map<Integer, PinSpec> pinMap = PinDatabase.getInstance(context).getAllPinsMap();
+        NotificationRestorer.getInstance(context).restore(null);
+    }
 
-        @Nullable final Map<Integer, StatusBarNotification> activeNotifications = getActiveNotifications(context);
+    /**
+     * This method reads the pins listed by the {@link OverflowSummary}
+     *
+     * @param context the context to read the pins with
+     * @return the pins within the overflow, highest ranked first
+     */
+    @NonNull
+    public static List<PinSpec> getOverflowPins(@NonNull Context context) {
+        PinDatabase pinDatabase = PinDatabase.getInstance(context);
+        long[] ids = NotificationReconciler.getInstance(context).getCapacity().getOverflowPinIds();
 
-        // foreach through them all
-        for (Map.Entry<Integer, PinSpec> entry : pinMap.entrySet()) {
-            PinSpec pin = entry.getValue();
+        List<PinSpec> pins = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            PinSpec pin = pinDatabase.getPin(id);
 
-            // On API level 23 and above we double check that the notification doesn't already exists before restoring it.
-            if (activeNotifications != null && activeNotifications.containsKey(pin.getIdAsInt())) {
-                Log.i(TAG, "skipped restoring notification with id " + pin.getId());
-                continue;
+            if (pin != null) {
+                pins.add(pin);
             }
-
-            // create a notification from the object and finally restore it
-            NotificationTools.notify(context, pin);
         }
+        return pins;
     }
 
     /**
      * Get active notifications on API 23 and later.
-     * @return Null on API 22 and earlier, otherwise a map with notification ids as keys and info about the notifications as values.
+     * @return Null on API 22 and earlier, otherwise the notifications by their id, in ascending order.
      * @see <a href="https://stackoverflow.com/questions/23831214/notificationmanager-get-notification-by-id/47345498#47345498">android - notificationManager get notification by Id - Stack Overflow</a>
      */
     @Nullable
-    private static Map<Integer, StatusBarNotification> getActiveNotifications(@NonNull Context context) {
+    static SparseArray<StatusBarNotification> getActiveNotifications(@NonNull Context context) {
         if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.M) {
             return null;
         }
@@ -106,175 +99,256 @@ public class NotificationTools {
         }
         StatusBarNotification[] barNotifications = notificationManager.getActiveNotifications();
 
-        Map<Integer, StatusBarNotification> notificationMap = new HashMap<>();
-        for(StatusBarNotification notification: barNotifications) {
-            notificationMap.put(notification.getId(), notification);
+        SparseArray<StatusBarNotification> notifications = new SparseArray<>(barNotifications.length);
+        for (StatusBarNotification notification : barNotifications) {
+            notifications.put(notification.getId(), notification);
         }
 
-        return notificationMap;
+        return notifications;
     }
 
+    /**
+     * This method adds the id and version of a pin to an intent
+     *
+     * @param intent the intent to add the extras to
+     * @param pin    the parent pin
+     * @return the same intent
+     */
     @NonNull
-    private static PendingIntent getPinIntent(@NonNull Context context, @NonNull PinSpec pin) {
-        Intent resultIntent = new Intent(context, MainDialog.class);
-        resultIntent.putExtra(EXTRA_INTENT, pin);
-
-        return PendingIntent.getActivity(context, (int) pin.getId(), resultIntent,
-                PendingIntent.FLAG_UPDATE_CURRENT | FLAG_IMMUTABLE);
+    public static Intent putPinExtras(@NonNull Intent intent, @NonNull PinSpec pin) {
+        return putPinExtras(intent, pin, NotificationFingerprint.of(pin));
     }
 
     @NonNull
-    @TargetApi(26)
-    private static NotificationChannel getNotificationChannel(int pinPriority) {
-
-        int importance;
-        switch (pinPriority) {
-            case Notification.PRIORITY_DEFAULT:
-                importance = NotificationManager.IMPORTANCE_DEFAULT;
-                break;
-
-            case Notification.PRIORITY_MIN:
-                importance = NotificationManager.IMPORTANCE_MIN;
-                break;
-
-            case Notification.PRIORITY_LOW:
-                importance = NotificationManager.IMPORTANCE_LOW;
-                break;
-
-            case Notification.PRIORITY_HIGH:
-                importance = NotificationManager.IMPORTANCE_HIGH;
-                break;
-
-            default:
-                importance = NotificationManager.IMPORTANCE_UNSPECIFIED;
-                break;
+    static Intent putPinExtras(@NonNull Intent intent, @NonNull PinSpec pin, long fingerprint) {
+        return intent.putExtra(EXTRA_PIN_ID, pin.getId())
+                .putExtra(EXTRA_PIN_VERSION, pin.getUpdatedAt())
+                .putExtra(EXTRA_PIN_FINGERPRINT, fingerprint);
+    }
+
+    /**
+     * This method looks up the current state of the parent pin of an intent.
+     * <p>
+     * Intents created by app version 2.2.0 and earlier contain a serialized copy of the
+     * pin instead of its id. That copy is only used if the pin is not in the database.
+     *
+     * @param context the context to access the database with
+     * @param intent  the intent to look up the pin for
+     * @return the parent pin or null if it does not exist anymore
+     */
+    @Nullable
+    public static PinSpec getPin(@NonNull Context context, @NonNull Intent intent) {
+        PinDatabase pinDatabase = PinDatabase.getInstance(context);
+
+        if (intent.hasExtra(EXTRA_PIN_ID)) {
+            return pinDatabase.getPin(intent.getLongExtra(EXTRA_PIN_ID, -1));
         }
 
-        return new NotificationChannel(NotificationChannel.DEFAULT_CHANNEL_ID, CHANNEL_NAME_PUBLIC, importance);
+        Serializable extra = intent.getSerializableExtra(EXTRA_INTENT);
+        if (extra instanceof PinSpec) {
+            PinSpec current = pinDatabase.getPin(((PinSpec) extra).getId());
+            return current != null ? current : (PinSpec) extra;
+        }
+
+        return null;
     }
 
-    @RequiresApi(api = Build.VERSION_CODES.O)
-    private static void createOrUpdateNotificationChannels(@NonNull Context context, @NonNull NotificationManager notificationManager) {
-        // Use low importance in order to not make a sound when creating a notification.
-        // If this is too low then the user should be able to manually change channel settings, so this seems like a sensible default.
-        // See: https://developer.android.com/develop/ui/views/notifications/channels#importance
-        final int importance = NotificationManager.IMPORTANCE_LOW;
-
-        // Delete old channel used in version 2.2.0 and earlier:
-        notificationManager.deleteNotificationChannel(CHANNEL_NAME_OLD);
-
-        // Create one channel per visibility level to allow user to customize how they are shown on the lock screen:
-        NotificationChannel public_channel = new NotificationChannel(CHANNEL_NAME_PUBLIC,
-                context.getResources().getString(R.string.notifications_channel_public),
-                importance);
-        public_channel.setLockscreenVisibility(Notification.VISIBILITY_PUBLIC);
-        public_channel.setShowBadge(false);
-        public_channel.enableLights(false);
-        public_channel.enableVibration(false);
-        notificationManager.createNotificationChannel(public_channel);
-
-        NotificationChannel private_channel = new NotificationChannel(CHANNEL_NAME_PRIVATE,
-                context.getResources().getString(R.string.notifications_channel_private),
-                importance);
-        private_channel.setLockscreenVisibility(Notification.VISIBILITY_PRIVATE);
-        private_channel.setShowBadge(false);
-        private_channel.enableLights(false);
-        private_channel.enableVibration(false);
-        notificationManager.createNotificationChannel(private_channel);
-
-        NotificationChannel secret_channel = new NotificationChannel(CHANNEL_NAME_SECRET,
-                context.getResources().getString(R.string.notifications_channel_secret),
-                importance);
-        secret_channel.setLockscreenVisibility(Notification.VISIBILITY_SECRET);
-        secret_channel.setShowBadge(false);
-        secret_channel.enableLights(false);
-        secret_channel.enableVibration(false);
-        notificationManager.createNotificationChannel(secret_channel);
+    /**
+     * @param intent the intent of a pin
+     * @return true if the intent contains a parent pin
+     */
+    public static boolean hasPin(@NonNull Intent intent) {
+        return intent.hasExtra(EXTRA_PIN_ID) || intent.hasExtra(EXTRA_INTENT);
     }
 
-    private static String getChannelName(@NonNull PinSpec pin) {
-        switch (pin.getVisibility()) {
-            case NotificationCompat.VISIBILITY_PUBLIC:
-                return CHANNEL_NAME_PUBLIC;
-            case NotificationCompat.VISIBILITY_PRIVATE:
-                return CHANNEL_NAME_PRIVATE;
-            case NotificationCompat.VISIBILITY_SECRET:
-                return CHANNEL_NAME_SECRET;
-            default:
-                throw new RuntimeException("Unknown visibility value");
+    /**
+     * This method checks if a pin was changed after the intent was created for it.
+     * Saves that did not change the notification are ignored, as it was not posted again.
+     *
+     * @param intent the intent of the pin
+     * @param pin    the current state of the pin
+     * @return true if the pin is newer than the intent
+     */
+    public static boolean isStale(@NonNull Intent intent, @NonNull PinSpec pin) {
+        if (!intent.hasExtra(EXTRA_PIN_VERSION)
+                || pin.getUpdatedAt() <= intent.getLongExtra(EXTRA_PIN_VERSION, 0)) {
+            return false;
         }
-    }
 
-    private static CharSequence styledText(CharSequence text, StyleSpan style) {
-        // https://stackoverflow.com/questions/70698860/how-to-bold-title-in-notification
-        Spannable content = new SpannableString(text);
-        content.setSpan(style, 0, text.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-        return content;
+        return !intent.hasExtra(EXTRA_PIN_FINGERPRINT)
+                || intent.getLongExtra(EXTRA_PIN_FINGERPRINT, 0) != NotificationFingerprint.of(pin);
     }
 
+    /**
+     * This method shows or updates the notification of a pin. Notifications are
+     * paced by the {@link NotificationDispatcher}, so it may be posted later.
+     * Nothing is posted if the notification already shows the pin as it is.
+     *
+     * @param context the context to post the notification with
+     * @param pin     the pin to show, it has to be written to the database
+     */
     public static void notify(@NonNull Context context, @NonNull PinSpec pin) {
+        notify(context, pin, null);
+    }
+
+    /**
+     * This method shows or updates the notifications of several pins like {@link #notify(Context, PinSpec)},
+     * the active notifications are only fetched once for all of them
+     *
+     * @param context the context to post the notifications with
+     * @param pins    the pins to show, they have to be written to the database
+     */
+    public static void notify(@NonNull Context context, @NonNull List<PinSpec> pins) {
+        SparseArray<StatusBarNotification> active = getActiveNotifications(context);
+
+        for (PinSpec pin : pins) {
+            notify(context, pin, active);
+        }
+    }
+
+    /**
+     * @param active the active notifications fetched before, null to fetch them if needed
+     */
+    private static void notify(@NonNull Context context, @NonNull PinSpec pin,
+                               @Nullable SparseArray<StatusBarNotification> active) {
+        NotificationCapacity.Changes changes = NotificationReconciler.getInstance(context).getCapacity().put(pin);
+        apply(context, changes);
+
+        if (!changes.isShown()) {
+            Log.i(TAG, "Pin " + pin.getId() + " is listed by the overflow summary");
+            return;
+        }
+
+        NotificationDispatcher dispatcher = NotificationDispatcher.getInstance(context);
+
+        // a queued update may still replace what is showing, so it is always updated
+        long fingerprint = NotificationFingerprint.of(pin);
+        if (!dispatcher.isQueued(pin.getNotificationId()) && (active != null
+                ? NotificationFingerprint.isShowing(pin, fingerprint, active)
+                : NotificationFingerprint.isShowing(context, pin, fingerprint))) {
+            Log.i(TAG, "Notification with id " + pin.getNotificationId() + " is unchanged for pin " + pin.getId());
+            return;
+        }
+
+        dispatcher.enqueue(pin);
+    }
+
+    /**
+     * This method removes the notification of a pin, including a queued update
+     *
+     * @param context the context to cancel the notification with
+     * @param pin     the pin to remove the notification of
+     */
+    public static void cancel(@NonNull Context context, @NonNull PinSpec pin) {
+        cancelNotification(context, pin.getNotificationId());
+        apply(context, NotificationReconciler.getInstance(context).getCapacity().remove(pin.getNotificationId()));
+    }
+
+    static void cancelNotification(@NonNull Context context, int notificationId) {
+        NotificationFingerprint.onCancelled(notificationId);
+        NotificationTemplates.onCancelled(notificationId);
+        NotificationDispatcher.getInstance(context).cancel(notificationId);
+    }
+
+    /**
+     * This method posts the pins that got a notification of their own and
+     * cancels the ones that moved to the overflow summary
+     *
+     * @param context the context to post the notifications with
+     * @param changes the changes of the ranking
+     */
+    private static void apply(@NonNull Context context, @NonNull NotificationCapacity.Changes changes) {
+        for (int notificationId : changes.getDemoted()) {
+            cancelNotification(context, notificationId);
+        }
+
+        for (long id : changes.getPromoted()) {
+            PinSpec promoted = PinDatabase.getInstance(context).getPin(id);
+
+            if (promoted != null) {
+                NotificationDispatcher.getInstance(context).enqueue(promoted);
+            }
+        }
+
+        if (changes.isOverflowChanged()) {
+            OverflowSummary.getInstance(context).update();
+        }
+    }
+
+    /**
+     * This method builds the notification of a pin ahead, so posting it takes less time
+     *
+     * @param context the context to build the notification with
+     * @param pin     the pin to build the notification of
+     */
+    static void prepare(@NonNull Context context, @NonNull PinSpec pin) {
+        long fingerprint = NotificationFingerprint.of(pin);
+        NotificationTemplates.PinParts parts = NotificationTemplates.getPinParts(context, pin, fingerprint);
+
+        parts.setNotification(build(context, pin, fingerprint, parts));
+    }
+
+    /**
+     * This method posts the notification of a pin right away, it is built unless it was prepared
+     *
+     * @param context the context to post the notification with
+     * @param pin     the pin to show
+     */
+    static void post(@NonNull Context context, @NonNull PinSpec pin) {
         NotificationManager notificationManager =
                 (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
 
-        String channel_id = getChannelName(pin);
+        long fingerprint = NotificationFingerprint.of(pin);
+        NotificationTemplates.PinParts parts = NotificationTemplates.getPinParts(context, pin, fingerprint);
+
+        Notification notification = parts.takeNotification();
+        if (notification == null) {
+            notification = build(context, pin, fingerprint, parts);
+        }
+
+        if (notificationManager != null) {
+            NotificationChannels.ensureCreated(context, notificationManager);
+
+            Log.i(TAG, "Send notification with id " + pin.getNotificationId() + " for pin " + pin.getId() + " to system");
+            notificationManager.notify(pin.getNotificationId(), notification);
+            NotificationFingerprint.onPosted(pin.getNotificationId(), fingerprint);
+        } else {
+            Log.w(TAG, "NotificationManager is null! Couldn't send notification!");
+        }
+    }
+
+    @NonNull
+    private static Notification build(@NonNull Context context, @NonNull PinSpec pin, long fingerprint,
+                                      @NonNull NotificationTemplates.PinParts parts) {
+        NotificationTemplates.Texts texts = NotificationTemplates.getTexts(context);
+
+        String channel_id = NotificationChannels.getChannelId(pin.getVisibility());
         NotificationCompat.Builder builder =
                 new NotificationCompat.Builder(context, channel_id)
                         .setContentTitle(pin.getTitle())
-                        .setContentText(pin.getContent())
+                        .setContentText(pin.getContentPreview())
                         .setSmallIcon(R.drawable.ic_notif_star)
                         .setOnlyAlertOnce(true)
                         .setCategory(NotificationCompat.CATEGORY_REMINDER)
                         .setPriority(pin.getPriority())
                         .setVisibility(pin.getVisibility())
                         .setStyle(new NotificationCompat.BigTextStyle().bigText(pin.getContent()))
-                        .setContentIntent(getPinIntent(context, pin))
-
-                        .setDeleteIntent(PendingIntent.getBroadcast(context, (int) pin.getId(),
-                                new Intent(context, OnDeleteReceiver.class).setAction("notification_cancelled")
-                                        .putExtra(EXTRA_INTENT, pin), PendingIntent.FLAG_CANCEL_CURRENT | FLAG_IMMUTABLE))
+                        .setContentIntent(parts.contentIntent)
+                        .addExtras(NotificationFingerprint.toExtras(fingerprint))
+                        .setDeleteIntent(parts.deleteIntent)
                         .setOngoing(pin.isPersistent());
 
-        if (pin.getVisibility() == NotificationCompat.VISIBILITY_PRIVATE && !pin.getContent().isEmpty()) {
+        if (pin.getVisibility() == NotificationCompat.VISIBILITY_PRIVATE && !pin.getContentPreview().isEmpty()) {
             // If visibility is hidden then an alternative notification can be shown on the lock screen:
             // More info: https://developer.android.com/develop/ui/views/notifications/build-notification#lockscreenNotification
             // More info: https://gabrieltanner.org/blog/android-notifications-overview/
-
-            // Show "Contents hidden" placeholder as italic:
-            // https://stackoverflow.com/questions/70698860/how-to-bold-title-in-notification
-            CharSequence hiddenContent = styledText(
-                    context.getResources().getText(R.string.message_hidden_private_content),
-                    new StyleSpan(Typeface.ITALIC)
-            );
-
-            NotificationCompat.Builder publicBuilder = new NotificationCompat.Builder(context, channel_id)
-                    .setContentTitle(pin.getTitle())
-                    .setContentText(hiddenContent)
-                    .setContentTitle(pin.getTitle())
-                    .setSmallIcon(R.drawable.ic_notif_star)
-                    .setPriority(NotificationCompat.PRIORITY_DEFAULT);
-
-            builder.setPublicVersion(publicBuilder.build());
+            builder.setPublicVersion(parts.getPublicVersion(context, pin, channel_id, texts));
         }
 
         if (pin.isShowActions()) {
-            builder.addAction(R.drawable.ic_action_clip,
-                    context.getString(R.string.message_save_to_clipboard),
-                    PendingIntent.getBroadcast(context, (int) pin.getId(),
-                            new Intent(context, OnClipReceiver.class).putExtra(EXTRA_INTENT, pin),
-                            PendingIntent.FLAG_CANCEL_CURRENT | FLAG_IMMUTABLE));
+            builder.addAction(R.drawable.ic_action_clip, texts.saveToClipboard, parts.getClipIntent(context, pin));
         }
 
-        if (notificationManager != null) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                createOrUpdateNotificationChannels(context, notificationManager);
-            }
-
-            Log.i(TAG, "Send notification with pin id " + pin.getIdAsInt() + " to system");
-            Notification notification = builder.build();
-
-            notificationManager.notify(pin.getIdAsInt(), notification);
-        } else {
-            Log.w(TAG, "NotificationManager is null! Couldn't send notification!");
-        }
+        return builder.build();
     }
 }
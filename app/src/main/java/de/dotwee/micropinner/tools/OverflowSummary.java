@@ -0,0 +1,143 @@
+package de.dotwee.micropinner.tools;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import androidx.annotation.NonNull;
+import androidx.core.app.NotificationCompat;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import de.dotwee.micropinner.R;
+import de.dotwee.micropinner.view.OverflowDialog;
+
+/**
+ * This class shows the pins that do not fit into the notification limit
+ * of the system, see {@link NotificationCapacity}.
+ * <p>
+ * The summary is a single notification that expands to a list of the highest
+ * ranked pins within the overflow, titles of secret pins are left out. Opening it
+ * lists all of them in the {@link OverflowDialog}, where each pin can be opened
+ * like from its own notification. Updates are coalesced, so a restore of
+ * hundreds of pins posts it once.
+ */
+public final class OverflowSummary {
+    private static final String TAG = OverflowSummary.class.getSimpleName();
+
+    /**
+     * Notification ids of pins start at 1, so this one is never used by a pin
+     */
+    static final int NOTIFICATION_ID = 0;
+
+    /**
+     * Lines of the expanded summary, the system does not show more
+     */
+    static final int MAX_LINES = 7;
+
+    /**
+     * Time changes are collected before the summary is posted
+     */
+    private static final long UPDATE_DELAY_MS = 1000;
+
+    private static OverflowSummary instance = null;
+
+    private final Context context;
+    private final NotificationCapacity capacity;
+    private final ScheduledExecutorService executor;
+    private final Runnable post = this::post;
+
+    private final Object lock = new Object();
+    private boolean scheduled = false;
+
+    private OverflowSummary(@NonNull Context context, @NonNull NotificationCapacity capacity) {
+        this.context = context;
+        this.capacity = capacity;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                runnable -> new Thread(runnable, TAG));
+    }
+
+    public static synchronized OverflowSummary getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new OverflowSummary(context.getApplicationContext(), NotificationCapacity.getInstance());
+        }
+
+        return instance;
+    }
+
+    /**
+     * This method posts, updates or cancels the summary after a short delay
+     */
+    public void update() {
+        synchronized (lock) {
+            if (!scheduled) {
+                scheduled = true;
+                executor.schedule(post, UPDATE_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void post() {
+        synchronized (lock) {
+            scheduled = false;
+        }
+
+        NotificationManager notificationManager =
+                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (notificationManager == null) {
+            Log.w(TAG, "NotificationManager is null! Couldn't update the summary!");
+            return;
+        }
+
+        List<String> titles = capacity.getOverflowTitles(MAX_LINES);
+        int count = Math.max(titles.size(), capacity.getOverflowCount());
+        if (count == 0) {
+            notificationManager.cancel(NOTIFICATION_ID);
+            return;
+        }
+
+        String title = context.getResources().getQuantityString(R.plurals.notifications_overflow_title, count, count);
+
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle().setBigContentTitle(title);
+        for (String line : titles) {
+            style.addLine(line);
+        }
+        if (count > titles.size()) {
+            style.setSummaryText(context.getResources().getQuantityString(
+                    R.plurals.notifications_overflow_more, count - titles.size(), count - titles.size()));
+        }
+
+        // titles of private pins may be listed, so only the count is shown on the lock screen
+        String channelId = NotificationChannels.getChannelId(NotificationCompat.VISIBILITY_PRIVATE);
+        Notification publicVersion = new NotificationCompat.Builder(context, channelId)
+                .setContentTitle(title)
+                .setSmallIcon(R.drawable.ic_notif_star)
+                .build();
+
+        Notification notification = new NotificationCompat.Builder(context, channelId)
+                .setContentTitle(title)
+                .setContentText(!titles.isEmpty() ? titles.get(0) : null)
+                .setContentIntent(PendingIntent.getActivity(context, NOTIFICATION_ID,
+                        new Intent(context, OverflowDialog.class), NotificationTemplates.FLAGS))
+                .setSmallIcon(R.drawable.ic_notif_star)
+                .setOnlyAlertOnce(true)
+                .setShowWhen(false)
+                .setCategory(NotificationCompat.CATEGORY_REMINDER)
+                .setPriority(NotificationCompat.PRIORITY_MIN)
+                .setVisibility(NotificationCompat.VISIBILITY_PRIVATE)
+                .setPublicVersion(publicVersion)
+                .setNumber(count)
+                .setStyle(style)
+                .setOngoing(true)
+                .build();
+
+        NotificationChannels.ensureCreated(context, notificationManager);
+        Log.i(TAG, "Send summary of " + count + " pins to system");
+        notificationManager.notify(NOTIFICATION_ID, notification);
+    }
+}
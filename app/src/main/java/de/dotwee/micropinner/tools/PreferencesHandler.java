@@ -4,6 +4,7 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 /**
  * Created by lukas on 18.08.2015 - 16:11
@@ -13,6 +14,9 @@ public class PreferencesHandler {
     private static final String PREF_FIRST_USE = "pref_firstuse";
     private static final String PREF_ADVANCED_USE = "pref_advanceduse";
     private static final String PREF_SHOW_NOTIFICATION_ACTIONS = "pref_shownotificationactions";
+    private static final String PREF_NOTIFICATION_CHANNELS_KEY = "pref_notificationchannelskey";
+    private static final String PREF_RESTORE_MARKER = "pref_restoremarker";
+    private static final String PREF_PINS_BEFORE_UNLOCK = "pref_pinsbeforeunlock";
 
     private final static String TAG = PreferencesHandler.class.getSimpleName();
     private static PreferencesHandler instance;
@@ -57,6 +61,46 @@ public class PreferencesHandler {
         applyPreference(PREF_SHOW_NOTIFICATION_ACTIONS, b);
     }
 
+    /**
+     * @return true if the user opted in to show pins on the lock screen before the first unlock
+     */
+    public boolean isPinsBeforeUnlockEnabled() {
+        return preferences.getBoolean(PREF_PINS_BEFORE_UNLOCK, false);
+    }
+
+    public void setPinsBeforeUnlockEnabled(boolean b) {
+        applyPreference(PREF_PINS_BEFORE_UNLOCK, b);
+    }
+
+    /**
+     * @return the app version and locale the notification channels were created for
+     */
+    @Nullable
+    public String getNotificationChannelsKey() {
+        return preferences.getString(PREF_NOTIFICATION_CHANNELS_KEY, null);
+    }
+
+    public void setNotificationChannelsKey(@NonNull String key) {
+        preferences.edit().putString(PREF_NOTIFICATION_CHANNELS_KEY, key).apply();
+    }
+
+    /**
+     * @return the state the notifications were last restored in, see {@link RestoreMarker}
+     */
+    @Nullable
+    public String getRestoreMarker() {
+        return preferences.getString(PREF_RESTORE_MARKER, null);
+    }
+
+    /**
+     * This method stores the restore marker synchronously, it is only called off the main thread
+     *
+     * @param marker the state the notifications were restored in, null to restore again
+     */
+    public void setRestoreMarker(@Nullable String marker) {
+        preferences.edit().putString(PREF_RESTORE_MARKER, marker).commit();
+    }
+
     private void applyPreference(@NonNull String key, boolean state) {
         preferences.edit().putBoolean(key, state).apply();
     }
@@ -0,0 +1,91 @@
+package de.dotwee.micropinner.tools;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.provider.Settings;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import de.dotwee.micropinner.BuildConfig;
+
+/**
+ * This class describes the state the notifications were last restored in, so a restore can be
+ * skipped when the process was restarted within the same boot and nothing changed since.
+ * <p>
+ * A marker consists of the boot session, the app version, the change version of the pins
+ * database and, on API 23 and later, the amount of notifications of pins. It is stored once
+ * a restore posted everything and compared by the next one. Markers that do not match only
+ * cause a restore, which is safe to run again.
+ */
+final class RestoreMarker {
+
+    /**
+     * The start of the boot is derived from two clocks that are not read at once, so it is rounded
+     */
+    private static final long BOOT_EPOCH_RESOLUTION_MS = 10000;
+
+    private RestoreMarker() {
+    }
+
+    /**
+     * @param context the context to read the boot count with
+     * @return an id of the current boot session, the boot count on API 24 and later
+     */
+    @NonNull
+    static String getBootId(@NonNull Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            int bootCount = Settings.Global.getInt(context.getContentResolver(), Settings.Global.BOOT_COUNT, -1);
+
+            if (bootCount >= 0) {
+                return "c" + bootCount;
+            }
+        }
+
+        // changing the wall clock changes the id as well, which only causes a restore
+        return "e" + (System.currentTimeMillis() - SystemClock.elapsedRealtime()) / BOOT_EPOCH_RESOLUTION_MS;
+    }
+
+    /**
+     * @param context the context to read the boot count with
+     * @return the boot session and the app version
+     */
+    @NonNull
+    static String getSession(@NonNull Context context) {
+        return getBootId(context) + '/' + BuildConfig.VERSION_CODE;
+    }
+
+    /**
+     * @param context the context to read the boot count with
+     * @param marker  a stored marker, may be null
+     * @return true if the marker was stored within the current boot session by this app version
+     */
+    static boolean isSameSession(@NonNull Context context, @Nullable String marker) {
+        return marker != null && marker.startsWith(getSession(context) + '/');
+    }
+
+    /**
+     * This method compares everything but the amount of notifications, so it does not
+     * need to read the active notifications
+     *
+     * @param context       the context to read the boot count with
+     * @param marker        a stored marker, may be null
+     * @param changeVersion the change version of the pins database
+     * @return true if the marker was stored within the current boot session, by this app
+     * version and with the given change version
+     */
+    static boolean isSameVersion(@NonNull Context context, @Nullable String marker, long changeVersion) {
+        return marker != null && marker.startsWith(getSession(context) + '/' + changeVersion + '/');
+    }
+
+    /**
+     * @param context           the context to read the boot count with
+     * @param changeVersion     the change version of the pins database
+     * @param notificationCount the amount of notifications of pins, -1 if it is unknown
+     * @return the marker of the given state
+     */
+    @NonNull
+    static String of(@NonNull Context context, long changeVersion, int notificationCount) {
+        return getSession(context) + '/' + changeVersion + '/' + notificationCount;
+    }
+}
@@ -75,7 +75,7 @@ public class MainDialog extends AppCompatActivity implements MainPresenter.Data
         // restore previous state
         mainPresenter.restore();
 
-        // If app was closed then restore notifications from previous session:
+        // Restore notifications that are missing or outdated, e.g. after the app was closed:
         NotificationTools.restoreNotifications(this);
     }
 
@@ -0,0 +1,82 @@
+package de.dotwee.micropinner.view;
+
+import android.content.Intent;
+import android.os.Bundle;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.app.AppCompatDelegate;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.dotwee.micropinner.R;
+import de.dotwee.micropinner.database.PinSpec;
+import de.dotwee.micropinner.tools.NotificationTools;
+
+/**
+ * This activity lists the pins that do not fit into the notification limit of the system,
+ * it is opened by their summary notification. Choosing a pin opens it in the
+ * {@link MainDialog}, as its own notification would.
+ */
+public class OverflowDialog extends AppCompatActivity implements AdapterView.OnItemClickListener {
+    private static final String TAG = OverflowDialog.class.getSimpleName();
+
+    static {
+        AppCompatDelegate.setDefaultNightMode(
+                AppCompatDelegate.MODE_NIGHT_FOLLOW_SYSTEM);
+    }
+
+    private List<PinSpec> pins = new ArrayList<>();
+
+    @Override
+    protected void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        this.setContentView(R.layout.dialog_overflow);
+
+        // ranking the pins may read all of them, so it must not block the main thread
+        new Thread(() -> {
+            List<PinSpec> pins = NotificationTools.getOverflowPins(getApplicationContext());
+            runOnUiThread(() -> show(pins));
+        }, TAG).start();
+    }
+
+    private void show(@NonNull List<PinSpec> pins) {
+        if (isFinishing()) {
+            return;
+        }
+
+        if (pins.isEmpty()) {
+            finish();
+            return;
+        }
+        this.pins = pins;
+
+        TextView title = findViewById(R.id.dialogTitle);
+        title.setText(getResources().getQuantityString(R.plurals.notifications_overflow_title,
+                pins.size(), pins.size()));
+
+        List<String> titles = new ArrayList<>(pins.size());
+        for (PinSpec pin : pins) {
+            titles.add(pin.getTitle());
+        }
+
+        ListView listView = findViewById(R.id.listViewPins);
+        listView.setAdapter(new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, titles));
+        listView.setOnItemClickListener(this);
+    }
+
+    @Override
+    public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+        PinSpec pin = pins.get(position);
+
+        startActivity(NotificationTools.putPinExtras(new Intent(this, MainDialog.class), pin));
+        finish();
+    }
+}
@@ -44,6 +44,9 @@ public class DialogContentView extends AbstractDialogView
 
         CheckBox showActions = this.findViewById(R.id.checkBoxShowActions);
         showActions.setOnCheckedChangeListener(this);
+
+        CheckBox pinsBeforeUnlock = this.findViewById(R.id.checkBoxPinsBeforeUnlock);
+        pinsBeforeUnlock.setOnCheckedChangeListener(this);
     }
 
     private void setVisibilityAdapter() {
@@ -76,6 +79,8 @@ public class DialogContentView extends AbstractDialogView
 
         if (compoundButton.getId() == R.id.checkBoxShowActions) {
             mainPresenter.onShowActions();
+        } else if (compoundButton.getId() == R.id.checkBoxPinsBeforeUnlock) {
+            mainPresenter.onPinsBeforeUnlock();
         }
     }
 }